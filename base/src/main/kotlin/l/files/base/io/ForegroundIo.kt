@@ -0,0 +1,38 @@
+package l.files.base.io
+
+import android.content.Context
+import android.content.Intent
+import android.os.SystemClock.elapsedRealtime
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Broadcast within the app while the user is waiting on the file system,
+ * such as for a directory to load or previews to decode, so that background
+ * operations, which run in another process, can leave more of the storage's
+ * throughput to the user interface.
+ */
+const val FOREGROUND_IO_ACTION = "l.files.base.io.FOREGROUND_IO"
+
+/**
+ * Receivers consider the foreground active for a while after each
+ * broadcast, so there is no need to broadcast more often than this.
+ */
+private const val FOREGROUND_IO_INTERVAL_MILLIS = 500L
+
+private val lastForegroundIoBroadcast = AtomicLong()
+
+/**
+ * Sends [FOREGROUND_IO_ACTION] unless it has been sent recently, cheap
+ * enough to be called for each file visited. Can be called on any thread.
+ */
+fun notifyForegroundIo(context: Context) {
+  val now = elapsedRealtime()
+  val last = lastForegroundIoBroadcast.get()
+  if (now - last >= FOREGROUND_IO_INTERVAL_MILLIS &&
+    lastForegroundIoBroadcast.compareAndSet(last, now)
+  ) {
+    context.sendBroadcast(
+      Intent(FOREGROUND_IO_ACTION).setPackage(context.packageName)
+    )
+  }
+}
@@ -1,10 +1,10 @@
 package l.files.base.text
 
-import java.math.BigInteger
-import java.text.CollationKey
+import java.io.ByteArrayOutputStream
 import java.text.Collator
 
-private val segmentPattern = "(\\d+|\\s+|[^\\d\\s]+)".toRegex()
+private const val TYPE_TEXT = 0
+private const val TYPE_INT = 1
 
 /**
  * Like a locale sensitive [java.text.CollationKey] but performs more
@@ -23,41 +23,177 @@ private val segmentPattern = "(\\d+|\\s+|[^\\d\\s]+)".toRegex()
  * ```
  *
  * This class will sort them as listed above.
+ *
+ * The value is split into segments of digits, whitespace and other
+ * characters, and all segments are packed into a single byte array when
+ * created, so comparisons are a loop over two arrays without allocations.
+ * Each segment is encoded as:
+ *
+ * ```
+ * text:    TYPE_TEXT keyLength key
+ * number:  TYPE_INT digitsLength digits keyLength key
+ * ```
+ *
+ * where `key` is the bytes of the segment's [java.text.CollationKey],
+ * `digits` is the number without leading zeros, and lengths are varints.
  */
 class Collation private constructor(
-  private val segments: List<Segment>,
+  private val key: ByteArray,
 ) : Comparable<Collation> {
 
-  override fun compareTo(other: Collation) = segments.asSequence()
-    .zip(other.segments.asSequence(), Segment::compareTo)
-    .firstOrNull { it != 0 }
-    ?: segments.size.compareTo(other.segments.size)
+  override fun compareTo(other: Collation): Int {
+    val a = key
+    val b = other.key
+    var i = 0
+    var j = 0
+    while (i < a.size && j < b.size) {
+      val aType = a[i++].toInt()
+      val bType = b[j++].toInt()
+
+      if (aType == TYPE_INT && bType == TYPE_INT) {
+        val aDigits = readVarInt(a, i)
+        val bDigits = readVarInt(b, j)
+        val aLength = length(aDigits)
+        val bLength = length(bDigits)
+        if (aLength != bLength) {
+          return aLength.compareTo(bLength)
+        }
+        i = next(aDigits)
+        j = next(bDigits)
+        val result = compareBytes(a, i, aLength, b, j, bLength)
+        if (result != 0) {
+          return result
+        }
+        i = skip(a, i + aLength)
+        j = skip(b, j + bLength)
+        continue
+      }
+
+      // Number against text, compare by collation keys, skip the digits
+      if (aType == TYPE_INT) {
+        i = skip(a, i)
+      }
+      if (bType == TYPE_INT) {
+        j = skip(b, j)
+      }
+
+      val aKey = readVarInt(a, i)
+      val bKey = readVarInt(b, j)
+      i = next(aKey)
+      j = next(bKey)
+      val result = compareBytes(a, i, length(aKey), b, j, length(bKey))
+      if (result != 0) {
+        return result
+      }
+      i += length(aKey)
+      j += length(bKey)
+    }
+    return when {
+      i < a.size -> 1
+      j < b.size -> -1
+      else -> 0
+    }
+  }
 
   companion object {
     @JvmStatic
-    fun create(collator: Collator, value: String): Collation = segmentPattern
-      .findAll(value)
-      .map {
-        val key = collator.getCollationKey(it.value)
-        if (it.value.first().isDigit()) {
-          Segment.OfInt(key, BigInteger(it.value))
+    fun create(collator: Collator, value: String): Collation {
+      val out = ByteArrayOutputStream(value.length * 4)
+      var start = 0
+      while (start < value.length) {
+        val kind = kindOf(value[start])
+        var end = start + 1
+        while (end < value.length && kindOf(value[end]) == kind) {
+          end++
+        }
+
+        if (kind == KIND_DIGIT) {
+          var digitsStart = start
+          while (digitsStart < end && value[digitsStart] == '0') {
+            digitsStart++
+          }
+          out.write(TYPE_INT)
+          writeVarInt(out, end - digitsStart)
+          for (k in digitsStart until end) {
+            out.write(value[k].toInt())
+          }
         } else {
-          Segment.OfText(key)
+          out.write(TYPE_TEXT)
         }
+
+        val key = collator.getCollationKey(value.substring(start, end))
+          .toByteArray()
+        writeVarInt(out, key.size)
+        out.write(key, 0, key.size)
+        start = end
       }
-      .toList()
-      .let(::Collation)
+      return Collation(out.toByteArray())
+    }
+  }
+}
+
+private const val KIND_DIGIT = 0
+private const val KIND_SPACE = 1
+private const val KIND_OTHER = 2
+
+private fun kindOf(c: Char): Int = when (c) {
+  in '0'..'9' -> KIND_DIGIT
+  ' ', '\t', '\n', '\u000B', '\u000C', '\r' -> KIND_SPACE
+  else -> KIND_OTHER
+}
+
+/**
+ * Skips a length prefixed run of bytes, where [offset] is the start of the
+ * length, returning the offset after the bytes.
+ */
+private fun skip(bytes: ByteArray, offset: Int): Int {
+  val key = readVarInt(bytes, offset)
+  return next(key) + length(key)
+}
+
+private fun compareBytes(
+  a: ByteArray, aOffset: Int, aLength: Int,
+  b: ByteArray, bOffset: Int, bLength: Int,
+): Int {
+  val n = minOf(aLength, bLength)
+  for (k in 0 until n) {
+    val x = a[aOffset + k].toInt() and 0xff
+    val y = b[bOffset + k].toInt() and 0xff
+    if (x != y) {
+      return x - y
+    }
   }
+  return aLength - bLength
 }
 
-private sealed class Segment(val key: CollationKey) : Comparable<Segment> {
-  class OfInt(key: CollationKey, val value: BigInteger) : Segment(key)
-  class OfText(key: CollationKey) : Segment(key)
+private fun writeVarInt(out: ByteArrayOutputStream, value: Int) {
+  var v = value
+  while (v and 0x7f.inv() != 0) {
+    out.write((v and 0x7f) or 0x80)
+    v = v ushr 7
+  }
+  out.write(v)
+}
 
-  override fun compareTo(other: Segment) = when {
-    this is OfInt && other is OfInt -> value.compareTo(other.value)
-    else -> key.compareTo(other.key)
+/**
+ * Reads a varint at [offset], returning the value in the upper 32 bits
+ * and the offset after it in the lower 32 bits, to avoid allocating.
+ */
+private fun readVarInt(bytes: ByteArray, offset: Int): Long {
+  var i = offset
+  var value = 0
+  var shift = 0
+  while (true) {
+    val b = bytes[i++].toInt()
+    value = value or ((b and 0x7f) shl shift)
+    if (b and 0x80 == 0) {
+      break
+    }
+    shift += 7
   }
+  return (value.toLong() shl 32) or i.toLong()
 }
 
-private fun Char.isDigit(): Boolean = this in '0'..'9'
+private fun length(varInt: Long): Int = (varInt ushr 32).toInt()
+
+private fun next(varInt: Long): Int = varInt.toInt()
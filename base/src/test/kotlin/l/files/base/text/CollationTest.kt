@@ -0,0 +1,46 @@
+package l.files.base.text
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.text.Collator
+import java.util.Locale
+
+class CollationTest {
+
+  private val collator = Collator.getInstance(Locale.ENGLISH)
+
+  @Test
+  fun sorts_numbers_naturally() {
+    testSortMatches(
+      "0", "1", "1.", "1.2", "1.9", "1.10", "2", "04", "10", "99", "101",
+      "a1", "a2", "a10b", "a10b1", "a10b2", "a10b10",
+    )
+  }
+
+  @Test
+  fun sorts_large_numbers_naturally() {
+    testSortMatches(
+      "9",
+      "99999999999999999999999",
+      "100000000000000000000000",
+    )
+  }
+
+  @Test
+  fun numbers_with_leading_zeros_are_equal() {
+    assertEquals(0, collation("a01").compareTo(collation("a1")))
+    assertEquals(0, collation("00").compareTo(collation("0")))
+  }
+
+  @Test
+  fun shorter_value_sorts_first() {
+    testSortMatches("", "a", "a b", "a b1")
+  }
+
+  private fun testSortMatches(vararg expected: String) {
+    val actual = expected.reversed().sortedBy(::collation)
+    assertEquals(expected.toList(), actual)
+  }
+
+  private fun collation(value: String) = Collation.create(collator, value)
+}
@@ -0,0 +1,105 @@
+package l.files.fs.event
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files.createFile
+import java.nio.file.Files.delete
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardWatchEventKinds.ENTRY_CREATE
+import java.nio.file.StandardWatchEventKinds.ENTRY_DELETE
+import java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY
+import java.nio.file.WatchEvent
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.function.Consumer
+
+class ObservableTest {
+
+  @Rule
+  @JvmField
+  val folder = TemporaryFolder()
+
+  @Test
+  fun resync_reports_changes_since_last_known_children() {
+    val root = folder.root.toPath()
+    createFile(root.resolve("a"))
+    createFile(root.resolve("b"))
+
+    val events = HashMap<Path, WatchEvent.Kind<*>>()
+    val observer = object : Observer {
+      override fun onEvent(kind: WatchEvent.Kind<*>, childFileName: Path) {
+        synchronized(events) {
+          events[childFileName] = kind
+        }
+      }
+    }
+    val observable = Observable(root, observer, Consumer {}).start()
+
+    // Stop the watch so only the events from resync are seen
+    observable.close()
+    delete(root.resolve("a"))
+    createFile(root.resolve("c"))
+    Thread.sleep(100)
+    synchronized(events) {
+      events.clear()
+    }
+
+    observable.resync()
+
+    assertEquals(
+      mapOf(
+        Paths.get("a") to ENTRY_DELETE,
+        Paths.get("b") to ENTRY_MODIFY,
+        Paths.get("c") to ENTRY_CREATE,
+      ),
+      synchronized(events) { events.toMap() },
+    )
+  }
+
+  @Test
+  fun overflow_resyncs_and_reports_missed_changes() {
+    val root = folder.newFolder("root").toPath()
+    val other = folder.newFolder("other").toPath()
+    val names = (0 until 2000).map { Paths.get(it.toString()) }.toSet()
+
+    val created = HashSet<Path>()
+    val allCreated = CountDownLatch(1)
+    val observer = object : Observer {
+      override fun onEvent(kind: WatchEvent.Kind<*>, childFileName: Path) {
+        synchronized(created) {
+          if (kind == ENTRY_CREATE && created.add(childFileName) &&
+            created.containsAll(names)
+          ) {
+            allCreated.countDown()
+          }
+        }
+      }
+    }
+
+    // Holds up the dispatcher thread, so the events of root pile up in
+    // its watch key until the key drops them and signals an overflow
+    val blocked = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val blocker = WatchDispatcher.register(other, setOf(ENTRY_CREATE)) {
+      blocked.countDown()
+      release.await()
+    }
+
+    val observable = Observable(root, observer, Consumer {}).start()
+    try {
+      createFile(other.resolve("x"))
+      assertTrue(blocked.await(10, SECONDS))
+      names.forEach { createFile(root.resolve(it)) }
+      release.countDown()
+      assertTrue(allCreated.await(10, SECONDS))
+    } finally {
+      release.countDown()
+      blocker.close()
+      observable.close()
+    }
+  }
+}
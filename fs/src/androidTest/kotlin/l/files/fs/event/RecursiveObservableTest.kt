@@ -0,0 +1,98 @@
+package l.files.fs.event
+
+import org.junit.After
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files.createDirectories
+import java.nio.file.Files.createDirectory
+import java.nio.file.Files.createFile
+import java.nio.file.Files.move
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardWatchEventKinds.ENTRY_CREATE
+import java.nio.file.StandardWatchEventKinds.OVERFLOW
+import java.nio.file.WatchEvent
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit.SECONDS
+
+class RecursiveObservableTest {
+
+  @Rule
+  @JvmField
+  val folder = TemporaryFolder()
+
+  private lateinit var root: Path
+  private val events = LinkedBlockingQueue<Pair<WatchEvent.Kind<*>, Path>>()
+  private val observer = object : Observer {
+    override fun onEvent(kind: WatchEvent.Kind<*>, childFileName: Path) {
+      events.add(kind to childFileName)
+    }
+  }
+  private var observable: RecursiveObservable? = null
+
+  @Before
+  fun setUp() {
+    root = folder.root.toPath()
+  }
+
+  @After
+  fun tearDown() {
+    observable?.close()
+  }
+
+  private fun start(maxWatchedDirectories: Int = 100) {
+    observable =
+      RecursiveObservable(root, observer, maxWatchedDirectories).start()
+  }
+
+  private fun awaitEvent(kind: WatchEvent.Kind<*>, path: String) {
+    val expected = kind to Paths.get(path)
+    while (true) {
+      val event = events.poll(10, SECONDS)
+      assertTrue("Timed out waiting for $expected", event != null)
+      if (event == expected) {
+        return
+      }
+    }
+  }
+
+  @Test
+  fun reports_events_in_nested_directories_relative_to_root() {
+    createDirectories(root.resolve("a/b"))
+    start()
+    createFile(root.resolve("a/b/c"))
+    awaitEvent(ENTRY_CREATE, "a/b/c")
+  }
+
+  @Test
+  fun watches_new_directories() {
+    start()
+    createDirectory(root.resolve("a"))
+    awaitEvent(ENTRY_CREATE, "a")
+    createFile(root.resolve("a/b"))
+    awaitEvent(ENTRY_CREATE, "a/b")
+  }
+
+  @Test
+  fun watches_and_reports_contents_of_tree_moved_in() {
+    val outside = folder.newFolder("outside").toPath()
+    root = folder.newFolder("root").toPath()
+    createDirectories(outside.resolve("a/b/c"))
+    createFile(outside.resolve("a/b/c/d"))
+    start()
+    move(outside.resolve("a"), root.resolve("a"))
+    awaitEvent(ENTRY_CREATE, "a/b/c/d")
+    createFile(root.resolve("a/b/c/e"))
+    awaitEvent(ENTRY_CREATE, "a/b/c/e")
+  }
+
+  @Test
+  fun reports_directories_over_limit_as_overflow() {
+    createDirectory(root.resolve("a"))
+    start(1)
+    awaitEvent(OVERFLOW, "a")
+  }
+}
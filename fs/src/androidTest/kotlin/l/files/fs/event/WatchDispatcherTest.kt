@@ -0,0 +1,121 @@
+package l.files.fs.event
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files.createFile
+import java.nio.file.Files.write
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardWatchEventKinds.ENTRY_CREATE
+import java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY
+import java.nio.file.StandardWatchEventKinds.OVERFLOW
+import java.nio.file.WatchEvent
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit.SECONDS
+
+class WatchDispatcherTest {
+
+  @Rule
+  @JvmField
+  val folder = TemporaryFolder()
+
+  private fun BlockingQueue<Pair<WatchEvent.Kind<*>, Path>>.await(
+    kind: WatchEvent.Kind<*>,
+    name: String,
+  ) {
+    val event = poll(10, SECONDS)
+    assertNotNull("Timed out waiting for $kind $name", event)
+    assertEquals(kind to Paths.get(name), event)
+  }
+
+  private fun handler(queue: BlockingQueue<Pair<WatchEvent.Kind<*>, Path>>) =
+    WatchDispatcher.Handler { events ->
+      events.forEach { queue.add(it.kind() to it.context() as Path) }
+    }
+
+  @Test
+  fun dispatches_to_each_registration_of_same_directory_by_kind() {
+    val dir = folder.root.toPath()
+    val creates = LinkedBlockingQueue<Pair<WatchEvent.Kind<*>, Path>>()
+    val modifies = LinkedBlockingQueue<Pair<WatchEvent.Kind<*>, Path>>()
+    val a =
+      WatchDispatcher.register(dir, setOf(ENTRY_CREATE), handler(creates))
+    val b =
+      WatchDispatcher.register(dir, setOf(ENTRY_MODIFY), handler(modifies))
+    try {
+      createFile(dir.resolve("x"))
+      creates.await(ENTRY_CREATE, "x")
+
+      write(dir.resolve("x"), byteArrayOf(1))
+      modifies.await(ENTRY_MODIFY, "x")
+
+      a.close()
+      write(dir.resolve("x"), byteArrayOf(2))
+      modifies.await(ENTRY_MODIFY, "x")
+    } finally {
+      a.close()
+      b.close()
+    }
+  }
+
+  @Test
+  fun counts_active_keys() {
+    val before = WatchDispatcher.metrics().activeKeys
+    val registration = WatchDispatcher.register(
+      folder.root.toPath(),
+      setOf(ENTRY_CREATE),
+      handler(LinkedBlockingQueue()),
+    )
+    assertEquals(before + 1, WatchDispatcher.metrics().activeKeys)
+    registration.close()
+    assertEquals(before, WatchDispatcher.metrics().activeKeys)
+  }
+
+  @Test
+  fun delivers_overflow_off_the_dispatcher_thread() {
+    val dir = folder.newFolder("dir").toPath()
+    val other = folder.newFolder("other").toPath()
+
+    val dispatcherThread = arrayOfNulls<Thread>(1)
+    val blocked = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    val blocker = WatchDispatcher.register(other, setOf(ENTRY_CREATE)) {
+      dispatcherThread[0] = Thread.currentThread()
+      blocked.countDown()
+      release.await()
+    }
+
+    val overflowThreads = LinkedBlockingQueue<Thread>()
+    val handler = WatchDispatcher.Handler { events ->
+      if (events.any { it.kind() == OVERFLOW }) {
+        assertEquals(listOf(OVERFLOW), events.map { it.kind() })
+        overflowThreads.add(Thread.currentThread())
+      }
+    }
+    val registration =
+      WatchDispatcher.register(dir, setOf(ENTRY_CREATE), handler)
+
+    try {
+      createFile(other.resolve("x"))
+      assertTrue(blocked.await(10, SECONDS))
+      // More than a watch key holds before dropping events
+      repeat(2000) { createFile(dir.resolve(it.toString())) }
+      release.countDown()
+
+      val thread = overflowThreads.poll(10, SECONDS)
+      assertNotNull("Timed out waiting for overflow", thread)
+      assertNotEquals(dispatcherThread[0], thread)
+    } finally {
+      release.countDown()
+      blocker.close()
+      registration.close()
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package l.files.fs
+
+import java.io.IOException
+import java.nio.file.Files.list
+import java.nio.file.Path
+import java.util.stream.Collectors.toCollection
+
+/**
+ * Finds nonexistent destination files in [dstDir] for a batch of sources,
+ * named the same way as [getNonExistentDestinationFile]. Instead of checking
+ * whether each candidate name exists, the names in [dstDir] are read once,
+ * and the names handed out are remembered, so that sources in the same
+ * batch get different names.
+ *
+ * Files created by others after the names are read are not known, and
+ * names are compared case sensitively, so a name may still turn out to
+ * exist when the destination is created. In which case call [markTaken]
+ * and resolve again.
+ *
+ * Not thread safe.
+ */
+class DestinationNameResolver(private val dstDir: Path) {
+
+  private var takenNames: MutableSet<String>? = null
+
+  /**
+   * The last base name handed out for each base name and ending, so that
+   * the next source of the same name continues from there, instead of
+   * going through all the taken names again.
+   */
+  private val lastBaseNames = HashMap<Pair<String, String>, String>()
+
+  @Throws(IOException::class)
+  fun resolve(source: Path): Path {
+    val taken = takenNames ?: readNames().also { takenNames = it }
+    val parts = destinationNameParts(source)
+    val (base, last) = parts
+    val name = generateSequence(lastBaseNames[parts] ?: base, ::increment)
+      .first { taken.add(it + last) }
+    lastBaseNames[parts] = name
+    return dstDir.resolve(name + last)
+  }
+
+  /**
+   * Marks the name of [destination] as taken, for when it's found to exist
+   * when created.
+   */
+  fun markTaken(destination: Path) {
+    takenNames?.add(destination.fileName.toString())
+  }
+
+  private fun readNames(): MutableSet<String> = list(dstDir).use { stream ->
+    stream
+      .map { it.fileName.toString() }
+      .collect(toCollection { HashSet<String>() })
+  }
+}
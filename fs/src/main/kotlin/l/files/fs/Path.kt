@@ -20,20 +20,28 @@ fun Path.hierarchy(): List<Path> =
  * represents a nonexistent file.
  */
 fun getNonExistentDestinationFile(source: Path, dstDir: Path): Path {
-  val (base, last) = when {
-    isDirectory(source) -> Pair(source.fileName?.toString() ?: "", "")
-    else -> Pair(source.baseName ?: "", source.extensionWithLeadingDot ?: "")
-  }
-  return generateSequence(base) { increment(base) }
+  val (base, last) = destinationNameParts(source)
+  return generateSequence(base, ::increment)
     .map { dstDir.resolve(it + last) }
     .first { !exists(it, NOFOLLOW_LINKS) }
 }
 
+/**
+ * Splits the name of [source] into the part to be incremented to make a new
+ * name, and the part to be kept at the end, which is the extension of a
+ * regular file.
+ */
+internal fun destinationNameParts(source: Path): Pair<String, String> =
+  when {
+    isDirectory(source) -> Pair(source.fileName?.toString() ?: "", "")
+    else -> Pair(source.baseName ?: "", source.extensionWithLeadingDot ?: "")
+  }
+
 // TODO match only "* (d+)" otherwise too annoying, and wrong when file
 //  is date yyyy-mm-dd or is version e.g. a-2.0
 private val NAME_WITH_NUMBER_SUFFIX = Pattern.compile("(.*?\\s*)(\\d+)")
 
-private fun increment(base: String): String {
+internal fun increment(base: String): String {
   val matcher = NAME_WITH_NUMBER_SUFFIX.matcher(base)
   return when {
     matcher.matches() -> matcher.group(1) + try {
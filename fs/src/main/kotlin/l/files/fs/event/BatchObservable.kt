@@ -41,11 +41,28 @@ class BatchObserverNotifier(
   private var quickNotifyLastRunNanos: Long = 0
 
   @Throws(IOException::class)
-  fun start(path: Path, childrenConsumer: Consumer<Path>): Closeable {
+  fun start(path: Path, childrenConsumer: Consumer<Path>): Closeable =
+    start { Observable(path, this, childrenConsumer).start() }
+
+  /**
+   * Starts watching [path] and all its descendant directories, events will
+   * be delivered with paths relative to [path] instead of child file names.
+   * At most [maxWatchedDirectories] directories will be watched, a directory
+   * that is not watched due to this limit will be delivered as
+   * [java.nio.file.StandardWatchEventKinds.OVERFLOW].
+   */
+  @Throws(IOException::class)
+  fun startRecursive(
+    path: Path,
+    maxWatchedDirectories: Int = DEFAULT_MAX_WATCHED_DIRECTORIES,
+  ): Closeable =
+    start { RecursiveObservable(path, this, maxWatchedDirectories).start() }
+
+  private inline fun start(observe: () -> Closeable): Closeable {
     check(started.compareAndSet(false, true))
 
     try {
-      observation = Observable(path, this, childrenConsumer).start()
+      observation = observe()
       checker = service.scheduleWithFixedDelay(
         this, batchInterval, batchInterval, batchInternalUnit,
       )
@@ -88,6 +105,10 @@ class BatchObserverNotifier(
     }
   }
 
+  companion object {
+    const val DEFAULT_MAX_WATCHED_DIRECTORIES = 1000
+  }
+
   @Throws(IOException::class)
   override fun close() {
     checker?.cancel(true)
@@ -5,6 +5,11 @@ import java.nio.file.WatchEvent
 
 interface BatchObserver {
 
+  /**
+   * Called with the latest event of each changed child file name, or each
+   * changed path relative to the observed directory if the observation is
+   * recursive.
+   */
   fun onLatestEvents(childFileNames: Map<Path, WatchEvent.Kind<*>>)
 
 }
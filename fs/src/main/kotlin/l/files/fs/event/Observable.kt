@@ -3,73 +3,157 @@ package l.files.fs.event
 import android.util.Log
 import java.io.Closeable
 import java.io.IOException
-import java.nio.file.ClosedWatchServiceException
+import java.nio.file.Files.exists
 import java.nio.file.Files.isDirectory
 import java.nio.file.Files.list
+import java.nio.file.LinkOption.NOFOLLOW_LINKS
 import java.nio.file.Path
 import java.nio.file.StandardWatchEventKinds.*
-import java.nio.file.WatchKey
-import java.nio.file.WatchService
+import java.nio.file.WatchEvent
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.function.Consumer
 
 internal class Observable(
   private val dir: Path,
   private val observer: Observer,
   private val childConsumer: Consumer<Path>,
-) : Closeable, Runnable {
+) : Closeable {
 
-  private var watchService: WatchService? = null
-  private val watchKeyToChildFileName = HashMap<WatchKey, Path>()
+  private val registrations = ConcurrentLinkedQueue<Closeable>()
+
+  @Volatile
+  private var closed = false
+
+  /**
+   * File names of the known children, used to find out what has changed
+   * when events are lost due to an overflow.
+   */
+  private val childFileNames = ConcurrentHashMap.newKeySet<Path>()
 
   override fun close() {
-    watchService?.close()
+    closed = true
+    while (true) {
+      val registration = registrations.poll() ?: break
+      registration.close()
+    }
+  }
+
+  private fun register(
+    path: Path,
+    kinds: Set<WatchEvent.Kind<*>>,
+    handler: WatchDispatcher.Handler,
+  ) {
+    registrations.add(WatchDispatcher.register(path, kinds, handler))
+    if (closed) {
+      close()
+    }
   }
 
   @Throws(IOException::class)
   fun start(): Observable {
-    watchService = dir.fileSystem.newWatchService()
-    dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE)
-    Thread(this).start()
-    list(dir).use {
-      it.forEach { child ->
-        if (isDirectory(child)) {
-          try {
-            watchKeyToChildFileName[
-              child.register(
-                watchService,
-                ENTRY_CREATE,
-                ENTRY_DELETE,
-              ),
-            ] = child.fileName
-          } catch (e: IOException) {
-            Log.d(javaClass.simpleName, "", e)
-          }
+    try {
+      register(
+        dir,
+        setOf(ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE),
+        ::onEvents,
+      )
+      list(dir).use {
+        it.forEach { child ->
+          childFileNames.add(child.fileName)
+          registerIfDirectory(child)
+          childConsumer.accept(child)
         }
-        childConsumer.accept(child)
       }
+    } catch (e: Throwable) {
+      try {
+        close()
+      } catch (sup: IOException) {
+        e.addSuppressed(sup)
+      }
+      throw e
     }
     return this
   }
 
-  override fun run() {
+  /**
+   * Watches the child directory for its own children being added or
+   * removed, which will be reported as events of the child directory.
+   */
+  private fun registerIfDirectory(child: Path) {
+    if (isDirectory(child)) {
+      val childFileName = child.fileName
+      try {
+        register(child, setOf(ENTRY_CREATE, ENTRY_DELETE)) { events ->
+          for (event in events) {
+            val kind = if (event.kind() == OVERFLOW) ENTRY_MODIFY
+            else event.kind()
+            observer.onEvent(kind, childFileName)
+          }
+        }
+      } catch (e: IOException) {
+        Log.d(javaClass.simpleName, "", e)
+      }
+    }
+  }
+
+  private fun onEvents(events: List<WatchEvent<*>>) {
+    var overflowed = false
+    for (event in events) {
+      if (event.kind() == OVERFLOW) {
+        overflowed = true
+        continue
+      }
+      val name = event.context() as Path
+      when (event.kind()) {
+        ENTRY_CREATE -> childFileNames.add(name)
+        ENTRY_DELETE -> childFileNames.remove(name)
+      }
+      observer.onEvent(event.kind(), name)
+    }
+    if (overflowed && !closed) {
+      // On the dispatcher's background executor, with overflows that came
+      // before it merged into this, see WatchDispatcher
+      Log.d(javaClass.simpleName, "Event overflowed, resyncing $dir")
+      resync()
+    }
+  }
+
+  /**
+   * Lists the directory again and reports the difference from the known
+   * children as events, existing children are reported as modified as
+   * their events may have been lost. Events dispatched while this runs
+   * may be reported twice, but a child created after the listing is not
+   * reported as deleted, as it's checked to be gone first.
+   */
+  internal fun resync() {
+    val existing = HashSet<Path>()
     try {
-      while (true) {
-        val watchKey = watchService!!.take()
-        for (event in watchKey.pollEvents()) {
-          if (event.kind() == OVERFLOW) {
-            Log.d(javaClass.simpleName, "Event overflowed.")
-            close()
-            return
+      list(dir).use {
+        it.forEach { child ->
+          val name = child.fileName
+          existing.add(name)
+          if (childFileNames.add(name)) {
+            observer.onEvent(ENTRY_CREATE, name)
+          } else {
+            observer.onEvent(ENTRY_MODIFY, name)
           }
-          observer.onEvent(
-            event.kind(),
-            watchKeyToChildFileName[watchKey] ?: event.context() as Path,
-          )
         }
-        watchKey.reset()
       }
-    } catch (e: ClosedWatchServiceException) {
-    } catch (e: InterruptedException) {
+    } catch (e: IOException) {
+      Log.d(javaClass.simpleName, "Failed to resync $dir", e)
+      return
+    }
+
+    val it = childFileNames.iterator()
+    while (it.hasNext()) {
+      val name = it.next()
+      if (!existing.contains(name) &&
+        !exists(dir.resolve(name), NOFOLLOW_LINKS)
+      ) {
+        it.remove()
+        observer.onEvent(ENTRY_DELETE, name)
+      }
     }
   }
 }
@@ -0,0 +1,199 @@
+package l.files.fs.event
+
+import android.util.Log
+import java.io.Closeable
+import java.io.IOException
+import java.nio.file.FileVisitResult
+import java.nio.file.FileVisitResult.CONTINUE
+import java.nio.file.FileVisitResult.SKIP_SUBTREE
+import java.nio.file.FileVisitResult.TERMINATE
+import java.nio.file.Files.isDirectory
+import java.nio.file.Files.walkFileTree
+import java.nio.file.LinkOption.NOFOLLOW_LINKS
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardWatchEventKinds.*
+import java.nio.file.WatchEvent
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * Watches a directory and all its descendant directories, reporting events
+ * with paths relative to the root directory. New directories are watched as
+ * they appear, and their existing contents are reported as created, since
+ * they may have been added before the watch took effect. This is done on
+ * [WatchDispatcher.backgroundExecutor], as walking a large tree moved into
+ * a watched directory would otherwise hold up the events of all other
+ * observations.
+ *
+ * At most [maxWatchedDirectories] directories are watched. A directory that
+ * can't be watched because of this limit is reported as [OVERFLOW], changes
+ * to its subtree will not be reported.
+ */
+internal class RecursiveObservable(
+  private val root: Path,
+  private val observer: Observer,
+  private val maxWatchedDirectories: Int,
+) : Closeable {
+
+  init {
+    require(maxWatchedDirectories > 0) { "maxWatchedDirectories <= 0" }
+  }
+
+  /**
+   * Watched directories relative to [root], guarded by this.
+   */
+  private val registrations = HashMap<Path, Closeable>()
+
+  /**
+   * Guarded by this.
+   */
+  private var closed = false
+
+  override fun close() {
+    val closeables = synchronized(this) {
+      closed = true
+      val values = registrations.values.toList()
+      registrations.clear()
+      values
+    }
+    closeables.forEach { it.close() }
+  }
+
+  @Throws(IOException::class)
+  fun start(): RecursiveObservable {
+    try {
+      register(root, false)
+    } catch (e: Throwable) {
+      try {
+        close()
+      } catch (sup: IOException) {
+        e.addSuppressed(sup)
+      }
+      throw e
+    }
+    return this
+  }
+
+  /**
+   * Watches [dir] and its descendant directories. If [reportExisting] is
+   * true, existing descendants are reported as created.
+   */
+  private fun register(dir: Path, reportExisting: Boolean) {
+    walkFileTree(dir, object : SimpleFileVisitor<Path>() {
+
+      override fun preVisitDirectory(
+        path: Path,
+        attrs: BasicFileAttributes,
+      ): FileVisitResult {
+        val relative = root.relativize(path)
+        if (reportExisting && path != dir) {
+          observer.onEvent(ENTRY_CREATE, relative)
+        }
+        val overLimit = synchronized(this@RecursiveObservable) {
+          if (closed) {
+            return TERMINATE
+          }
+          if (registrations.size >= maxWatchedDirectories) {
+            true
+          } else {
+            val registration = try {
+              WatchDispatcher.register(path, KINDS) { onEvents(relative, it) }
+            } catch (e: IOException) {
+              if (path == root) {
+                throw e
+              }
+              Log.d(RecursiveObservable::class.java.simpleName, "", e)
+              return SKIP_SUBTREE
+            }
+            registrations.put(relative, registration)?.close()
+            false
+          }
+        }
+        if (overLimit) {
+          // Outside of the lock, as the observer may take its own locks
+          observer.onEvent(OVERFLOW, relative)
+          return SKIP_SUBTREE
+        }
+        return CONTINUE
+      }
+
+      override fun visitFile(
+        path: Path,
+        attrs: BasicFileAttributes,
+      ): FileVisitResult {
+        if (reportExisting) {
+          observer.onEvent(ENTRY_CREATE, root.relativize(path))
+        }
+        return CONTINUE
+      }
+
+      override fun visitFileFailed(
+        path: Path,
+        e: IOException,
+      ): FileVisitResult {
+        // Most likely deleted or not readable, the parent's watch will
+        // report it if it's deleted, nothing else can be done
+        Log.d(RecursiveObservable::class.java.simpleName, "", e)
+        return CONTINUE
+      }
+    })
+  }
+
+  private fun onEvents(dir: Path, events: List<WatchEvent<*>>) {
+    for (event in events) {
+      if (event.kind() == OVERFLOW) {
+        observer.onEvent(OVERFLOW, dir)
+        continue
+      }
+      val path = dir.resolve(event.context() as Path)
+      observer.onEvent(event.kind(), path)
+      // Both on the same executor, so they happen in the event order
+      when (event.kind()) {
+        ENTRY_CREATE -> WatchDispatcher.backgroundExecutor.execute {
+          registerIfDirectory(path)
+        }
+        ENTRY_DELETE -> WatchDispatcher.backgroundExecutor.execute {
+          unregister(path)
+        }
+      }
+    }
+  }
+
+  private fun registerIfDirectory(relative: Path) {
+    val path = root.resolve(relative)
+    if (isDirectory(path, NOFOLLOW_LINKS)) {
+      try {
+        register(path, true)
+      } catch (e: IOException) {
+        Log.d(javaClass.simpleName, "", e)
+      }
+    }
+  }
+
+  /**
+   * Stops watching [relative] and its descendants if they are watched, to
+   * free up the watch budget after they are deleted or moved away.
+   */
+  private fun unregister(relative: Path) {
+    val closeables = synchronized(this) {
+      if (!registrations.containsKey(relative)) {
+        return
+      }
+      val removed = ArrayList<Closeable>()
+      val it = registrations.entries.iterator()
+      while (it.hasNext()) {
+        val entry = it.next()
+        if (entry.key.startsWith(relative)) {
+          removed.add(entry.value)
+          it.remove()
+        }
+      }
+      removed
+    }
+    closeables.forEach { it.close() }
+  }
+
+  private companion object {
+    val KINDS = setOf(ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE)
+  }
+}
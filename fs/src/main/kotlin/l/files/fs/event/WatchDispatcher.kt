@@ -0,0 +1,240 @@
+package l.files.fs.event
+
+import android.util.Log
+import java.io.Closeable
+import java.io.IOException
+import java.lang.System.nanoTime
+import java.nio.file.ClosedWatchServiceException
+import java.nio.file.FileSystem
+import java.nio.file.Path
+import java.nio.file.StandardWatchEventKinds.OVERFLOW
+import java.nio.file.WatchEvent
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors.newSingleThreadExecutor
+import java.util.concurrent.TimeUnit.SECONDS
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Watches directories of all observations using a single watch service and
+ * thread per file system, instead of one per observation, and dispatches
+ * events to their handlers by watch key.
+ *
+ * The same directory may be registered more than once, in which case the
+ * directory is watched for the union of the event kinds, and each handler
+ * only receives the kinds it has registered for, plus [OVERFLOW].
+ *
+ * Sharing a watch service means sharing its event queue. When the kernel's
+ * queue overflows, every watched directory gets an [OVERFLOW], not just the
+ * busy one, and every observation has to find out what it missed. So
+ * [OVERFLOW] is delivered on [backgroundExecutor] instead of the dispatcher
+ * thread, on its own, and overflows that happen before a handler has been
+ * given the previous one are merged into it. A burst of overflows then
+ * costs at most one pending call per registration, run one at a time, and
+ * doesn't hold up the other events.
+ */
+object WatchDispatcher {
+
+  internal fun interface Handler {
+    fun onEvents(events: List<WatchEvent<*>>)
+  }
+
+  private class Registration(
+    val handler: Handler,
+    val kinds: Set<WatchEvent.Kind<*>>,
+  ) {
+    /** True if an overflow is waiting to be given to the handler. */
+    val overflowPending = AtomicBoolean(false)
+  }
+
+  /**
+   * Runs work caused by events that is too slow for the dispatcher thread,
+   * such as watching a new directory tree. A single thread, so such work
+   * runs in the order it's submitted, and doesn't compete with itself for
+   * the disk.
+   */
+  internal val backgroundExecutor: Executor = newSingleThreadExecutor {
+    Thread(it, "WatchDispatcher-background").apply { isDaemon = true }
+  }
+
+  private val watchServices = HashMap<FileSystem, WatchService>()
+  private val registrations = HashMap<WatchKey, MutableList<Registration>>()
+  private val directoryKeys = HashMap<Path, WatchKey>()
+
+  private var eventCount = 0L
+  private var overflowCount = 0L
+  private var dispatchCount = 0L
+  private var dispatchNanos = 0L
+  private var maxDispatchNanos = 0L
+
+  /**
+   * Watches [dir] for the given kinds of events until the returned
+   * [Closeable] is closed. [handler] will be called on the dispatcher
+   * thread, it should return quickly as it holds up the events of all
+   * other observations. [OVERFLOW] is the exception, it's delivered on its
+   * own on [backgroundExecutor], where slower work such as listing the
+   * directory again is fine.
+   */
+  @Throws(IOException::class)
+  internal fun register(
+    dir: Path,
+    kinds: Set<WatchEvent.Kind<*>>,
+    handler: Handler,
+  ): Closeable = synchronized(this) {
+    val service = watchService(dir.fileSystem)
+    val union = kinds + kindsOf(directoryKeys[dir])
+    var key = dir.register(service, *union.toTypedArray())
+
+    // Same directory registered via another path, e.g. a symbolic link
+    val all = union + kindsOf(key)
+    if (all.size > union.size) {
+      key = dir.register(service, *all.toTypedArray())
+    }
+
+    val registration = Registration(handler, kinds)
+    registrations.getOrPut(key) { ArrayList() }.add(registration)
+    directoryKeys[dir] = key
+    Closeable { unregister(key, registration) }
+  }
+
+  private fun unregister(key: WatchKey, registration: Registration) {
+    synchronized(this) {
+      val list = registrations[key] ?: return
+      if (!list.remove(registration) || list.isNotEmpty()) {
+        return
+      }
+      registrations.remove(key)
+      directoryKeys.values.removeAll { it == key }
+      key.cancel()
+    }
+  }
+
+  private fun handle(registration: Registration, events: List<WatchEvent<*>>) {
+    try {
+      registration.handler.onEvents(events)
+    } catch (e: RuntimeException) {
+      Log.w(javaClass.simpleName, "Failed to handle events", e)
+    }
+  }
+
+  private fun kindsOf(key: WatchKey?): Set<WatchEvent.Kind<*>> {
+    val list = registrations[key] ?: return emptySet()
+    return list.flatMapTo(HashSet()) { it.kinds }
+  }
+
+  private fun watchService(fs: FileSystem): WatchService =
+    watchServices.getOrPut(fs) {
+      val service = fs.newWatchService()
+      val thread = Thread({ run(service) }, javaClass.simpleName)
+      thread.isDaemon = true
+      thread.start()
+      service
+    }
+
+  private fun run(service: WatchService) {
+    try {
+      while (true) {
+        dispatch(service.take())
+      }
+    } catch (e: ClosedWatchServiceException) {
+    } catch (e: InterruptedException) {
+    }
+  }
+
+  private fun dispatch(key: WatchKey) {
+    val startNanos = nanoTime()
+    val events = key.pollEvents()
+    val handlers = synchronized(this) {
+      registrations[key]?.toList() ?: emptyList()
+    }
+
+    val overflow = events.firstOrNull { it.kind() == OVERFLOW }
+    for (registration in handlers) {
+      val filtered = events.filter { registration.kinds.contains(it.kind()) }
+      if (filtered.isNotEmpty()) {
+        handle(registration, filtered)
+      }
+      if (overflow != null &&
+        registration.overflowPending.compareAndSet(false, true)
+      ) {
+        backgroundExecutor.execute {
+          registration.overflowPending.set(false)
+          handle(registration, listOf(overflow))
+        }
+      }
+    }
+
+    if (!key.reset()) {
+      // Directory is deleted or no longer accessible
+      synchronized(this) {
+        registrations.remove(key)
+        directoryKeys.values.removeAll { it == key }
+      }
+    }
+
+    val elapsed = nanoTime() - startNanos
+    synchronized(this) {
+      eventCount += events.size
+      if (overflow != null) {
+        overflowCount++
+      }
+      dispatchCount++
+      dispatchNanos += elapsed
+      maxDispatchNanos = maxOf(maxDispatchNanos, elapsed)
+    }
+  }
+
+  /**
+   * Returns a snapshot of the current metrics, rates can be calculated by
+   * comparing two snapshots using [Metrics.eventsPerSecondSince].
+   */
+  fun metrics(): Metrics = synchronized(this) {
+    Metrics(
+      activeKeys = registrations.size,
+      eventCount = eventCount,
+      overflowCount = overflowCount,
+      dispatchCount = dispatchCount,
+      dispatchNanos = dispatchNanos,
+      maxDispatchNanos = maxDispatchNanos,
+      timeNanos = nanoTime(),
+    )
+  }
+
+  class Metrics internal constructor(
+    /** Number of directories currently being watched. */
+    val activeKeys: Int,
+    /** Total number of events received. */
+    val eventCount: Long,
+    /** Total number of times a watch key reported lost events. */
+    val overflowCount: Long,
+    /** Total number of times events were dispatched for a watch key. */
+    val dispatchCount: Long,
+    /** Total time spent dispatching events to handlers. */
+    val dispatchNanos: Long,
+    /** Longest time spent on a single dispatch. */
+    val maxDispatchNanos: Long,
+    val timeNanos: Long,
+  ) {
+
+    val averageDispatchNanos: Long
+      get() = if (dispatchCount == 0L) 0 else dispatchNanos / dispatchCount
+
+    fun eventsPerSecondSince(previous: Metrics): Double {
+      val elapsed = timeNanos - previous.timeNanos
+      if (elapsed <= 0) {
+        return 0.0
+      }
+      return (eventCount - previous.eventCount) * SECONDS.toNanos(1) /
+        elapsed.toDouble()
+    }
+
+    override fun toString() =
+      "Metrics(activeKeys=$activeKeys, " +
+        "eventCount=$eventCount, " +
+        "overflowCount=$overflowCount, " +
+        "dispatchCount=$dispatchCount, " +
+        "averageDispatchNanos=$averageDispatchNanos, " +
+        "maxDispatchNanos=$maxDispatchNanos)"
+  }
+}
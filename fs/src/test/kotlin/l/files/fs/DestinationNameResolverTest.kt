@@ -0,0 +1,65 @@
+package l.files.fs
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.nio.file.Files.createDirectory
+import java.nio.file.Files.createFile
+import java.nio.file.Files.createTempDirectory
+import java.nio.file.Path
+import java.nio.file.Paths
+
+class DestinationNameResolverTest {
+
+  private lateinit var dir: Path
+  private lateinit var resolver: DestinationNameResolver
+
+  @Before
+  fun setUp() {
+    dir = createTempDirectory(javaClass.simpleName)
+    resolver = DestinationNameResolver(dir)
+  }
+
+  @After
+  fun tearDown() {
+    dir.toFile().deleteRecursively()
+  }
+
+  private fun resolve(source: Path) =
+    resolver.resolve(source).fileName.toString()
+
+  @Test
+  fun keeps_name_if_not_taken() {
+    assertEquals("a.txt", resolve(Paths.get("/x/a.txt")))
+  }
+
+  @Test
+  fun skips_existing_names() {
+    createFile(dir.resolve("IMG.jpg"))
+    (2..300).forEach { createFile(dir.resolve("IMG $it.jpg")) }
+    assertEquals("IMG 301.jpg", resolve(Paths.get("/x/IMG.jpg")))
+  }
+
+  @Test
+  fun assigns_different_names_within_batch() {
+    createFile(dir.resolve("IMG.jpg"))
+    val names = (1..3).map { resolve(Paths.get("/$it/IMG.jpg")) }
+    assertEquals(listOf("IMG 2.jpg", "IMG 3.jpg", "IMG 4.jpg"), names)
+  }
+
+  @Test
+  fun increments_directory_names_without_splitting_extension() {
+    val source = createDirectory(dir.resolve("a.b"))
+    assertEquals("a.b 2", resolve(source))
+  }
+
+  @Test
+  fun resolves_again_after_name_is_marked_taken() {
+    val first = resolver.resolve(Paths.get("/x/a"))
+    createFile(dir.resolve("a 2"))
+    resolver.markTaken(dir.resolve("a 2"))
+    assertEquals(dir.resolve("a"), first)
+    assertEquals("a 3", resolve(Paths.get("/x/a")))
+  }
+}
@@ -0,0 +1,318 @@
+package l.files.operations;
+
+import l.files.testing.fs.PathBaseTest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.nio.file.attribute.PosixFilePermissions.fromString;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+public final class CompressTest extends PathBaseTest {
+
+    private static final FileTime TIME =
+        FileTime.fromMillis(1_500_000_000_000L);
+
+    private Path archive() {
+        return dir2().resolve("archive.zip");
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Compressible, but different in each chunk.
+     */
+    private static byte[] text(int size) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+        return builder.substring(0, size).getBytes(UTF_8);
+    }
+
+    private static Map<String, byte[]> readWithZipFile(Path archive)
+        throws IOException {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> it = zip.entries();
+            while (it.hasMoreElements()) {
+                ZipEntry entry = it.nextElement();
+                try (InputStream in = zip.getInputStream(entry)) {
+                    entries.put(entry.getName(), readAll(in));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads through the local headers, which checks the checksums.
+     */
+    private static List<String> readWithZipInputStream(Path archive)
+        throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(newInputStream(archive))) {
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                readAll(in);
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void compresses_tree_readable_by_other_readers() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        byte[] empty = new byte[0];
+        byte[] small = "hello".getBytes(UTF_8);
+        byte[] incompressible = random(5000, 1);
+        byte[] large = text(Compress.CHUNK_SIZE * 5 + 123);
+        byte[] largeRandom = random(Compress.CHUNK_SIZE * 2 + 7, 2);
+        write(src.resolve("empty"), empty);
+        write(src.resolve("small"), small);
+        write(src.resolve("incompressible"), incompressible);
+        createDirectories(src.resolve("a/b"));
+        write(src.resolve("a/b/large"), large);
+        write(src.resolve("a/large random"), largeRandom);
+        write(src.resolve("a/\u4e2d\u6587"), small);
+
+        Compress compress = new Compress(singleton(src), archive());
+        compress.execute();
+
+        Map<String, byte[]> entries = readWithZipFile(archive());
+        assertArrayEquals(empty, entries.get("src/empty"));
+        assertArrayEquals(small, entries.get("src/small"));
+        assertArrayEquals(incompressible, entries.get("src/incompressible"));
+        assertArrayEquals(large, entries.get("src/a/b/large"));
+        assertArrayEquals(largeRandom, entries.get("src/a/large random"));
+        assertArrayEquals(small, entries.get("src/a/\u4e2d\u6587"));
+        assertTrue(entries.containsKey("src/"));
+        assertTrue(entries.containsKey("src/a/"));
+        assertTrue(entries.containsKey("src/a/b/"));
+        assertEquals(9, entries.size());
+        assertEquals(9, readWithZipInputStream(archive()).size());
+
+        assertEquals(9, compress.getCompressedItemCount());
+        assertTrue(size(archive()) < large.length);
+    }
+
+    @Test
+    public void compresses_in_order_of_walk() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        List<String> expected = new ArrayList<>();
+        expected.add("src/");
+        for (int i = 0; i < 200; i++) {
+            write(src.resolve(String.valueOf(i)), text(i * 100));
+        }
+        walkFileTree(src, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(
+                Path file,
+                BasicFileAttributes attrs
+            ) {
+                expected.add("src/" + file.getFileName());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        new Compress(singleton(src), archive()).execute();
+
+        assertEquals(expected, readWithZipInputStream(archive()));
+    }
+
+    @Test
+    public void compresses_multiple_sources_under_their_names()
+        throws Exception {
+        Path a = write(dir1().resolve("a"), "a".getBytes(UTF_8));
+        Path b = createDirectory(dir1().resolve("b"));
+        write(b.resolve("c"), "c".getBytes(UTF_8));
+
+        new Compress(asList(a, b), archive()).execute();
+
+        Map<String, byte[]> entries = readWithZipFile(archive());
+        assertEquals("a", new String(entries.get("a"), UTF_8));
+        assertEquals("c", new String(entries.get("b/c"), UTF_8));
+        assertEquals(3, entries.size());
+    }
+
+    @Test
+    public void keeps_modified_time_and_links() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        Path file = write(src.resolve("file"), "x".getBytes(UTF_8));
+        setLastModifiedTime(file, TIME);
+        createSymbolicLink(src.resolve("link"), Paths.get("file"));
+
+        new Compress(singleton(src), archive()).execute();
+        new Extract(singleton(archive()), dir2()).execute();
+
+        Path extracted = dir2().resolve("archive/src");
+        assertEquals(TIME, getLastModifiedTime(extracted.resolve("file")));
+        assertEquals(
+            Paths.get("file"),
+            readSymbolicLink(extracted.resolve("link"))
+        );
+    }
+
+    @Test
+    public void leaves_out_unreadable_file_and_reports_it() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        write(src.resolve("a"), "a".getBytes(UTF_8));
+        Path unreadable = write(
+            src.resolve("b"),
+            text(Compress.CHUNK_SIZE * 3)
+        );
+        write(src.resolve("c"), "c".getBytes(UTF_8));
+        setPosixFilePermissions(unreadable, fromString("-w-------"));
+        try {
+            // Permissions don't apply to the super user
+            assumeFalse(isReadable(unreadable));
+            new Compress(singleton(src), archive()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(1, e.failures().size());
+            assertEquals(unreadable, e.failures().get(0).path());
+        } finally {
+            setPosixFilePermissions(unreadable, fromString("rw-------"));
+        }
+
+        Map<String, byte[]> entries = readWithZipFile(archive());
+        assertEquals("a", new String(entries.get("src/a"), UTF_8));
+        assertEquals("c", new String(entries.get("src/c"), UTF_8));
+        assertFalse(entries.containsKey("src/b"));
+    }
+
+    @Test
+    public void skips_archive_inside_source() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        write(src.resolve("a"), "a".getBytes(UTF_8));
+        Path archive = src.resolve("src.zip");
+
+        new Compress(singleton(src), archive).execute();
+
+        Map<String, byte[]> entries = readWithZipFile(archive);
+        assertFalse(entries.containsKey("src/src.zip"));
+        assertEquals(2, entries.size());
+    }
+
+    @Test
+    public void fails_if_archive_exists() throws Exception {
+        Path src = write(dir1().resolve("a"), "a".getBytes(UTF_8));
+        write(archive(), "existing".getBytes(UTF_8));
+
+        try {
+            new Compress(singleton(src), archive()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(archive(), e.failures().get(0).path());
+        }
+
+        assertEquals("existing", new String(readAllBytes(archive()), UTF_8));
+    }
+
+    @Test
+    public void deletes_archive_if_interrupted() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        write(src.resolve("a"), "a".getBytes(UTF_8));
+
+        Thread.currentThread().interrupt();
+        try {
+            new Compress(singleton(src), archive()).execute();
+        } catch (InterruptedException e) {
+            // Expected
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertFalse(exists(archive()));
+    }
+
+    @Test
+    public void writes_zip64_end_for_many_entries() throws Exception {
+        int count = 0x10010;
+        try (FileChannel channel = FileChannel.open(archive(), CREATE_NEW,
+            WRITE)) {
+            ZipWriter writer = new ZipWriter(channel);
+            for (int i = 0; i < count; i++) {
+                writer.startEntry(
+                    i + "/",
+                    Zip.STORED,
+                    TIME.toMillis(),
+                    Zip.DIRECTORY_MODE,
+                    0
+                );
+                writer.finishEntry(0, 0);
+            }
+            writer.finish();
+        }
+
+        try (ZipFile zip = new ZipFile(archive().toFile())) {
+            assertEquals(count, zip.size());
+        }
+        try (ZipReader reader = ZipReader.open(archive())) {
+            assertEquals(count, reader.entryCount());
+            ZipReader.Entries entries = reader.entries();
+            for (int i = 0; i < count; i++) {
+                ZipReader.Entry entry = entries.next();
+                assertEquals(i + "/", entry.name());
+                assertTrue(entry.isDirectory());
+            }
+            assertNull(entries.next());
+        }
+    }
+
+    @Test
+    public void reports_failure_of_missing_source() throws Exception {
+        Path missing = dir1().resolve("missing");
+        try {
+            new Compress(singletonList(missing), archive()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(missing, e.failures().get(0).path());
+        }
+    }
+
+}
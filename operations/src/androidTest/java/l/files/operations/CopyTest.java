@@ -9,6 +9,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Stream;
 
@@ -20,7 +21,7 @@ import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.*;
 
-public final class CopyTest extends PasteTest {
+public class CopyTest extends PasteTest {
 
     @Test
     public void copy_reports_summary() throws Exception {
@@ -181,6 +182,104 @@ public final class CopyTest extends PasteTest {
         assertEquals(singletonList("Testing"), readAllLines(dstFile));
     }
 
+    @Test
+    public void copies_file_larger_than_transfer_slice() throws Exception {
+        byte[] content = new byte[(int) Copy.TRANSFER_SLICE_SIZE + 123];
+        new Random(0).nextBytes(content);
+        Path srcFile = write(dir1().resolve("large"), content);
+        Path dstDir = createDirectory(dir1().resolve("dst"));
+
+        Copy copy = create(singleton(srcFile), dstDir);
+        copy.execute();
+
+        assertArrayEquals(content, readAllBytes(dstDir.resolve("large")));
+        assertEquals(content.length, copy.getCopiedByteCount());
+        assertEquals(1, copy.getCopiedItemCount());
+    }
+
+    @Test
+    public void resumes_copy_from_journal() throws Exception {
+        Path srcDir = createDirectory(dir1().resolve("src"));
+        Path srcA = write(srcDir.resolve("a"), "aaa".getBytes());
+        Path srcB = write(srcDir.resolve("b"), "bbb".getBytes());
+        Path dstDir = createDirectory(dir1().resolve("dst"));
+        Path journalFile = dir2().resolve("journal");
+
+        // Previous run completed "a" and died while copying "b"
+        Journal previous = new Journal(journalFile);
+        previous.open();
+        previous.recordDestination(srcDir, dstDir.resolve("src"));
+        createDirectory(dstDir.resolve("src"));
+        Path dstA = write(dstDir.resolve("src/a"), "xxx".getBytes());
+        previous.recordCompleted(dstA, readAttributes(
+            srcA, BasicFileAttributes.class, NOFOLLOW_LINKS));
+        write(dstDir.resolve("src/b"), "b".getBytes());
+        previous.close();
+
+        Journal journal = new Journal(journalFile);
+        journal.open();
+        Copy copy = new Copy(
+            singleton(srcDir),
+            dstDir,
+            false,
+            Durability.NONE,
+            Bandwidth.UNLIMITED,
+            journal
+        );
+        copy.execute();
+
+        try (Stream<Path> stream = list(dstDir)) {
+            assertEquals(
+                singletonList(dstDir.resolve("src")),
+                stream.collect(toList())
+            );
+        }
+        assertEquals(singletonList("xxx"), readAllLines(dstA));
+        assertEquals(
+            singletonList("bbb"),
+            readAllLines(dstDir.resolve("src/b"))
+        );
+        assertEquals(3, copy.getCopiedItemCount());
+        assertEquals(
+            size(asList(srcDir, srcA, srcB)),
+            copy.getCopiedByteCount()
+        );
+    }
+
+    @Test
+    public void resumed_copy_does_not_overwrite_under_new_destinations()
+        throws Exception {
+        Path srcDir = createDirectory(dir1().resolve("src"));
+        Path srcZ = write(srcDir.resolve("z"), "z".getBytes());
+        Path srcX = write(srcDir.resolve("x"), "x".getBytes());
+        Path srcB = write(srcDir.resolve("b"), "b".getBytes());
+        Path dstDir = createDirectory(dir1().resolve("dst"));
+        Path journalFile = dir2().resolve("journal");
+        Path manifestFile = dir2().resolve("manifest");
+
+        // Previous run chose "b" for "x", and died before creating it, so
+        // "b" is not known to be taken when "b" is given a new destination
+        Journal previous = new Journal(journalFile);
+        previous.open();
+        previous.recordDestination(srcX, dstDir.resolve("b"));
+        previous.close();
+
+        Manifest.write(manifestFile, asList(srcZ, srcX, srcB));
+        Journal journal = new Journal(journalFile);
+        journal.open();
+        new Copy(
+            Manifest.read(manifestFile),
+            dstDir,
+            false,
+            Durability.NONE,
+            Bandwidth.UNLIMITED,
+            journal
+        ).execute();
+
+        assertEquals(singletonList("x"), readAllLines(dstDir.resolve("b")));
+        assertEquals(singletonList("b"), readAllLines(dstDir.resolve("b 2")));
+    }
+
     private void copy(Path src, Path dstDir)
         throws InterruptedException {
         create(singleton(src), dstDir).execute();
@@ -10,10 +10,12 @@ import java.util.Set;
 
 import static java.nio.file.Files.*;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.attribute.PosixFilePermissions.fromString;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
 
 public final class DeleteTest extends PathBaseTest {
 
@@ -64,6 +66,48 @@ public final class DeleteTest extends PathBaseTest {
         assertTrue(exists(a, NOFOLLOW_LINKS));
     }
 
+    @Test
+    public void deletesTreeAndCountsAllItems() throws Exception {
+        Path root = createDirectory(dir1().resolve("root"));
+        for (int i = 0; i < 20; i++) {
+            Path dir = createDirectories(root.resolve(i + "/" + i));
+            for (int j = 0; j < 100; j++) {
+                write(dir.resolve(String.valueOf(j)), new byte[j]);
+            }
+        }
+        Size size = new Size(singleton(root));
+        size.execute();
+
+        Delete delete = create(singleton(root));
+        delete.execute();
+
+        assertFalse(exists(root, NOFOLLOW_LINKS));
+        assertEquals(size.getCount(), delete.getDeletedItemCount());
+        assertEquals(size.getSize(), delete.getDeletedByteCount());
+    }
+
+    @Test
+    public void keepsParentsOfItemsThatCannotBeDeleted() throws Exception {
+        Path a = createDirectory(dir1().resolve("a"));
+        Path b = createDirectory(a.resolve("b"));
+        Path c = createFile(b.resolve("c"));
+        Path d = createFile(a.resolve("d"));
+        setPosixFilePermissions(b, fromString("r-x------"));
+        try {
+            // Permissions don't apply to the super user
+            assumeFalse(isWritable(b));
+            delete(a);
+            fail();
+        } catch (FileException e) {
+            assertEquals(1, e.failures().size());
+            assertEquals(c, e.failures().get(0).path());
+        } finally {
+            setPosixFilePermissions(b, fromString("rwx------"));
+        }
+        assertTrue(exists(c, NOFOLLOW_LINKS));
+        assertFalse(exists(d, NOFOLLOW_LINKS));
+    }
+
     private void delete(Path file) throws Exception {
         create(singleton(file)).execute();
     }
@@ -0,0 +1,54 @@
+package l.files.operations;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+import static java.nio.file.Files.createDirectory;
+import static java.nio.file.Files.write;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs all the copy tests again with the copied items synced in batches.
+ */
+public final class DurableCopyTest extends CopyTest {
+
+    @Override
+    Copy create(Set<? extends Path> sourcePaths, Path destinationDir) {
+        return new Copy(
+            sourcePaths,
+            destinationDir,
+            true,
+            Durability.GROUP_COMMIT,
+            Bandwidth.UNLIMITED,
+            null
+        );
+    }
+
+    @Test
+    public void records_metrics() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        write(src.resolve("a"), new byte[]{1});
+        write(src.resolve("b"), new byte[]{2});
+        Path dst = createDirectory(dir1().resolve("dst"));
+        MetricsRecorder metrics = new MetricsRecorder();
+        new Copy(
+            singleton(src),
+            dst,
+            true,
+            CopyMode.RENAME,
+            Durability.PER_FILE,
+            Bandwidth.UNLIMITED,
+            null,
+            metrics
+        ).execute();
+
+        Metrics snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.openLatency().totalCount());
+        assertTrue(snapshot.openLatency().percentileMicros(100) > 0);
+    }
+
+}
@@ -0,0 +1,343 @@
+package l.files.operations;
+
+import l.files.testing.fs.PathBaseTest;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.*;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ExtractTest extends PathBaseTest {
+
+    private static final FileTime TIME =
+        FileTime.fromMillis(1_500_000_000_000L);
+
+    private Path archive() {
+        return dir1().resolve("archive.zip");
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static void put(ZipOutputStream out, String name, byte[] data)
+        throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(TIME.toMillis());
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static void putStored(
+        ZipOutputStream out,
+        String name,
+        byte[] data
+    ) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    @Test
+    public void extracts_stored_and_deflated_entries() throws Exception {
+        byte[] small = "hello".getBytes(UTF_8);
+        byte[] large = random(3 * 1024 * 1024);
+        byte[] stored = random(1000);
+        try (OutputStream os = newOutputStream(archive());
+             ZipOutputStream out = new ZipOutputStream(os)) {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+            put(out, "dir/small", small);
+            put(out, "large", large);
+            putStored(out, "stored", stored);
+            put(out, "empty", new byte[0]);
+            // No entries for the parent directories
+            put(out, "a/b/c/\u4e2d\u6587", small);
+        }
+
+        Extract extract = new Extract(singleton(archive()), dir2());
+        extract.execute();
+
+        Path root = dir2().resolve("archive");
+        assertTrue(isDirectory(root.resolve("dir")));
+        assertArrayEquals(small, readAllBytes(root.resolve("dir/small")));
+        assertArrayEquals(large, readAllBytes(root.resolve("large")));
+        assertArrayEquals(stored, readAllBytes(root.resolve("stored")));
+        assertEquals(0, size(root.resolve("empty")));
+        assertArrayEquals(
+            small,
+            readAllBytes(root.resolve("a/b/c/\u4e2d\u6587"))
+        );
+        assertEquals(TIME, getLastModifiedTime(root.resolve("large")));
+
+        assertEquals(6, extract.getTotalItemCount());
+        assertEquals(6, extract.getExtractedItemCount());
+        long bytes = small.length * 2 + large.length + stored.length;
+        assertEquals(bytes, extract.getTotalByteCount());
+        assertEquals(bytes, extract.getExtractedByteCount());
+    }
+
+    @Test
+    public void extracts_into_new_directory_if_name_exists() throws Exception {
+        try (OutputStream os = newOutputStream(archive());
+             ZipOutputStream out = new ZipOutputStream(os)) {
+            put(out, "a", "a".getBytes(UTF_8));
+        }
+        createDirectory(dir2().resolve("archive"));
+
+        new Extract(singleton(archive()), dir2()).execute();
+        new Extract(singleton(archive()), dir2()).execute();
+
+        assertFalse(exists(dir2().resolve("archive/a")));
+        assertTrue(exists(dir2().resolve("archive 2/a")));
+        assertTrue(exists(dir2().resolve("archive 3/a")));
+    }
+
+    @Test
+    public void rejects_entries_outside_of_destination() throws Exception {
+        try (OutputStream os = newOutputStream(archive());
+             ZipOutputStream out = new ZipOutputStream(os)) {
+            put(out, "../evil", "evil".getBytes(UTF_8));
+            put(out, "a/../../evil", "evil".getBytes(UTF_8));
+            put(out, "/evil", "evil".getBytes(UTF_8));
+            put(out, "good", "good".getBytes(UTF_8));
+        }
+
+        try {
+            new Extract(singleton(archive()), dir2()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(3, e.failures().size());
+            assertTrue(e.failures().get(0).cause() instanceof ZipException);
+        }
+
+        assertFalse(exists(dir2().resolve("evil")));
+        assertFalse(exists(dir1().resolve("evil")));
+        assertFalse(exists(dir2().resolve("archive/a")));
+        assertTrue(exists(dir2().resolve("archive/good")));
+    }
+
+    @Test
+    public void resolves_names_within_root() throws Exception {
+        Path root = dir1();
+        assertEquals(root.resolve("a/b"), Extract.resolve(root, "a/b"));
+        assertEquals(root.resolve("a/b"), Extract.resolve(root, "./a//b/"));
+        assertNull(Extract.resolve(root, ""));
+        assertNull(Extract.resolve(root, "/a"));
+        assertNull(Extract.resolve(root, "a/.."));
+        assertNull(Extract.resolve(root, "a\0b"));
+    }
+
+    @Test
+    public void does_not_write_through_links_in_archive() throws Exception {
+        Path outside = createDirectory(dir1().resolve("outside"));
+        byte[] target = outside.toString().getBytes(UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(target);
+        try (FileChannel channel = FileChannel.open(archive(), CREATE_NEW,
+            WRITE)) {
+            ZipWriter writer = new ZipWriter(channel);
+            writer.startEntry("link", Zip.STORED, TIME.toMillis(),
+                Zip.LINK_MODE, target.length);
+            writer.write(target, 0, target.length);
+            writer.finishEntry(crc.getValue(), target.length);
+            writer.startEntry("link/file", Zip.STORED, TIME.toMillis(),
+                Zip.FILE_MODE, 0);
+            writer.finishEntry(0, 0);
+            writer.finish();
+        }
+
+        try {
+            new Extract(singleton(archive()), dir2()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(1, e.failures().size());
+            assertEquals(
+                dir2().resolve("archive/link"),
+                e.failures().get(0).path()
+            );
+        }
+
+        assertEquals(0, list(outside).count());
+        assertFalse(isSymbolicLink(dir2().resolve("archive/link")));
+    }
+
+    @Test
+    public void does_not_create_links_through_links_in_archive()
+        throws Exception {
+        Path outside = createDirectory(dir1().resolve("outside"));
+        try (FileChannel channel = FileChannel.open(archive(), CREATE_NEW,
+            WRITE)) {
+            ZipWriter writer = new ZipWriter(channel);
+            putLink(writer, "link", outside.toString());
+            putLink(writer, "link/nested", "anything");
+            putLink(writer, "link/a/nested", "anything");
+            writer.finish();
+        }
+
+        try {
+            new Extract(singleton(archive()), dir2()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(2, e.failures().size());
+            assertTrue(e.failures().get(0).cause() instanceof ZipException);
+        }
+
+        assertEquals(0, list(outside).count());
+        assertTrue(isSymbolicLink(dir2().resolve("archive/link")));
+    }
+
+    private static void putLink(ZipWriter writer, String name, String target)
+        throws IOException {
+        byte[] data = target.getBytes(UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        writer.startEntry(name, Zip.STORED, TIME.toMillis(), Zip.LINK_MODE,
+            data.length);
+        writer.write(data, 0, data.length);
+        writer.finishEntry(crc.getValue(), data.length);
+    }
+
+    @Test
+    public void fails_on_corrupted_entry_without_leaving_file()
+        throws Exception {
+        byte[] data = random(1000);
+        try (OutputStream os = newOutputStream(archive());
+             ZipOutputStream out = new ZipOutputStream(os)) {
+            putStored(out, "file", data);
+            put(out, "other", "other".getBytes(UTF_8));
+        }
+
+        // Flips a byte in the stored data of the first entry
+        byte[] bytes = readAllBytes(archive());
+        int offset = 30 + "file".length() + 10;
+        bytes[offset] ^= 1;
+        write(archive(), bytes);
+
+        try {
+            new Extract(singleton(archive()), dir2()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(1, e.failures().size());
+            assertEquals(
+                dir2().resolve("archive/file"),
+                e.failures().get(0).path()
+            );
+        }
+
+        assertFalse(exists(dir2().resolve("archive/file"), NOFOLLOW_LINKS));
+        assertTrue(exists(dir2().resolve("archive/other")));
+    }
+
+    @Test
+    public void stops_inflating_entry_at_its_size() throws Exception {
+        byte[] zeros = new byte[10 * 1024 * 1024];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setInput(zeros);
+        deflater.finish();
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        byte[] data = deflated.toByteArray();
+        try (FileChannel channel = FileChannel.open(archive(), CREATE_NEW,
+            WRITE)) {
+            ZipWriter writer = new ZipWriter(channel);
+            writer.startEntry("bomb", Zip.DEFLATED, TIME.toMillis(),
+                Zip.FILE_MODE, 10);
+            writer.write(data, 0, data.length);
+            writer.finishEntry(0, 10);
+            writer.finish();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipReader reader = ZipReader.open(archive())) {
+            reader.extract(
+                reader.entries().next(),
+                Channels.newChannel(out),
+                new AtomicLong()
+            );
+            fail();
+        } catch (ZipException e) {
+            // Expected
+        }
+        assertTrue(out.size() <= 10);
+    }
+
+    @Test
+    public void rejects_link_with_long_target() throws Exception {
+        byte[] target = new byte[5000];
+        Arrays.fill(target, (byte) 'a');
+        CRC32 crc = new CRC32();
+        crc.update(target);
+        try (FileChannel channel = FileChannel.open(archive(), CREATE_NEW,
+            WRITE)) {
+            ZipWriter writer = new ZipWriter(channel);
+            writer.startEntry("link", Zip.STORED, TIME.toMillis(),
+                Zip.LINK_MODE, target.length);
+            writer.write(target, 0, target.length);
+            writer.finishEntry(crc.getValue(), target.length);
+            writer.finish();
+        }
+
+        try {
+            new Extract(singleton(archive()), dir2()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(1, e.failures().size());
+            assertTrue(e.failures().get(0).cause() instanceof ZipException);
+        }
+
+        assertFalse(exists(dir2().resolve("archive/link"), NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void fails_on_file_that_is_not_archive() throws Exception {
+        write(archive(), "not a zip".getBytes(UTF_8));
+        try {
+            new Extract(singleton(archive()), dir2()).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(archive(), e.failures().get(0).path());
+        }
+        assertEquals(0, list(dir2()).count());
+    }
+
+}
@@ -0,0 +1,146 @@
+package l.files.operations;
+
+import l.files.testing.fs.PathBaseTest;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.lang.System.currentTimeMillis;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.size;
+import static java.nio.file.Files.write;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class JournalTest extends PathBaseTest {
+
+    private Journal open() {
+        Journal journal = new Journal(dir2().resolve("journal"));
+        journal.open();
+        return journal;
+    }
+
+    private static BasicFileAttributes attrs(Path path) throws Exception {
+        return readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS);
+    }
+
+    @Test
+    public void new_journal_is_not_resumed() {
+        Journal journal = open();
+        try {
+            assertFalse(journal.isResumed());
+            assertNull(journal.getDestination(dir1().resolve("a")));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void recovers_records_on_reopen() throws Exception {
+        Path src = write(dir1().resolve("a"), "a".getBytes());
+        Path dst = write(dir1().resolve("b"), "a".getBytes());
+
+        Journal journal = open();
+        journal.recordDestination(src, dst);
+        journal.recordCompleted(dst, attrs(src));
+        journal.close();
+
+        Journal reopened = open();
+        try {
+            assertTrue(reopened.isResumed());
+            assertEquals(dst, reopened.getDestination(src));
+            assertTrue(reopened.isCompleted(dst, attrs(src)));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void flushes_last_record_within_interval() throws Exception {
+        Path src = write(dir1().resolve("a"), "a".getBytes());
+        Path dst = write(dir1().resolve("b"), "a".getBytes());
+
+        Journal journal = open();
+        try {
+            journal.recordDestination(src, dst);
+            long flushed = size(dir2().resolve("journal"));
+            journal.recordCompleted(dst, attrs(src));
+
+            // Not followed by another record, but still written out
+            long end = currentTimeMillis() + 3000;
+            while (size(dir2().resolve("journal")) == flushed &&
+                currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            Journal other = open();
+            try {
+                assertTrue(other.isCompleted(dst, attrs(src)));
+            } finally {
+                other.close();
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void not_completed_if_source_changed() throws Exception {
+        Path src = write(dir1().resolve("a"), "a".getBytes());
+        Path dst = write(dir1().resolve("b"), "a".getBytes());
+
+        Journal journal = open();
+        journal.recordDestination(src, dst);
+        journal.recordCompleted(dst, attrs(src));
+        journal.close();
+
+        write(src, "bc".getBytes());
+        Journal reopened = open();
+        try {
+            assertFalse(reopened.isCompleted(dst, attrs(src)));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void discards_partially_written_record() throws Exception {
+        Path a = dir1().resolve("a");
+        Path b = dir1().resolve("b");
+
+        Journal journal = open();
+        journal.recordDestination(a, a);
+        journal.close();
+        write(dir2().resolve("journal"), new byte[]{0, 0, 0, 100, 'D'}, APPEND);
+
+        journal = open();
+        journal.recordDestination(b, b);
+        journal.close();
+
+        Journal reopened = open();
+        try {
+            assertEquals(a, reopened.getDestination(a));
+            assertEquals(b, reopened.getDestination(b));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void delete_removes_journal() {
+        Journal journal = open();
+        journal.recordDestination(dir1().resolve("a"), dir1().resolve("b"));
+        journal.delete();
+
+        Journal reopened = open();
+        try {
+            assertFalse(reopened.isResumed());
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package l.files.operations;
+
+import l.files.testing.fs.PathBaseTest;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.file.Files.createFile;
+import static java.nio.file.Files.size;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ManifestTest extends PathBaseTest {
+
+    private Path file() {
+        return dir2().resolve("manifest");
+    }
+
+    private List<Path> roundTrip(List<Path> paths) throws Exception {
+        Manifest.write(file(), paths);
+        Manifest manifest = Manifest.read(file());
+        List<Path> actual = new ArrayList<>(manifest);
+        assertEquals(actual.size(), manifest.size());
+        return actual;
+    }
+
+    @Test
+    public void reads_written_paths_in_order() throws Exception {
+        List<Path> paths = asList(
+            Paths.get("/sdcard/b"),
+            Paths.get("/sdcard/a"),
+            Paths.get("/sdcard/a/b"),
+            Paths.get("/data"),
+            Paths.get("/sdcard/a/c")
+        );
+        assertEquals(paths, roundTrip(paths));
+    }
+
+    @Test
+    public void reads_empty() throws Exception {
+        assertEquals(emptyList(), roundTrip(emptyList()));
+    }
+
+    @Test
+    public void reads_unicode_paths() throws Exception {
+        List<Path> paths = asList(
+            Paths.get("/sdcard/\u4e2d\u6587"),
+            Paths.get("/sdcard/\u4e2d\u56fd"),
+            Paths.get("/sdcard/\ud83d\ude00")
+        );
+        assertEquals(paths, roundTrip(paths));
+    }
+
+    @Test
+    public void reads_paths_spanning_many_blocks() throws Exception {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            paths.add(Paths.get("/sdcard/DCIM/Camera/IMG_" + i + ".jpg"));
+        }
+        assertEquals(paths, roundTrip(paths));
+    }
+
+    @Test
+    public void reads_long_paths_sharing_long_prefix() throws Exception {
+        StringBuilder builder = new StringBuilder("/sdcard");
+        for (int i = 0; i < 2000; i++) {
+            builder.append("/directory");
+        }
+        String prefix = builder.toString();
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            paths.add(Paths.get(prefix + "/" + i));
+        }
+        assertEquals(paths, roundTrip(paths));
+        assertTrue(size(file()) < prefix.length() * 2);
+    }
+
+    @Test
+    public void removes_duplicates() throws Exception {
+        Path a = Paths.get("/a");
+        Path b = Paths.get("/b");
+        assertEquals(asList(a, b), roundTrip(asList(a, b, a)));
+    }
+
+    @Test
+    public void can_be_iterated_more_than_once() throws Exception {
+        List<Path> paths = asList(Paths.get("/a"), Paths.get("/b"));
+        Manifest manifest = Manifest.write(file(), paths);
+        assertEquals(paths, new ArrayList<>(manifest));
+        assertEquals(paths, new ArrayList<>(manifest));
+    }
+
+    @Test
+    public void truncated_file_fails_to_iterate() throws Exception {
+        Manifest.write(file(), asList(Paths.get("/a"), Paths.get("/b")));
+        try (FileChannel channel = FileChannel.open(file(), WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        Iterator<Path> it = Manifest.read(file()).iterator();
+        assertEquals(Paths.get("/a"), it.next());
+        try {
+            it.next();
+            fail();
+        } catch (UncheckedIOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void operation_reports_truncated_manifest_as_failure()
+        throws Exception {
+        Path a = createFile(dir1().resolve("a"));
+        Path b = createFile(dir1().resolve("b"));
+        Manifest.write(file(), asList(a, b));
+        try (FileChannel channel = FileChannel.open(file(), WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        Count count = new Count(Manifest.read(file()));
+        try {
+            count.execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(1, e.failures().size());
+            assertEquals(file(), e.failures().get(0).path());
+        }
+        assertEquals(1, count.getCount());
+    }
+
+}
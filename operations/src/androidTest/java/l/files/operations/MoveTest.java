@@ -11,6 +11,7 @@ import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public final class MoveTest extends PasteTest {
 
@@ -70,6 +71,44 @@ public final class MoveTest extends PasteTest {
         assertEquals(move.getMovedItemCount(), 1);
     }
 
+    @Test
+    public void movesDirectoryByCopying() throws Exception {
+        testMovesDirectoryByCopying(Durability.NONE);
+    }
+
+    @Test
+    public void movesDirectoryByCopyingWithGroupCommit() throws Exception {
+        testMovesDirectoryByCopying(Durability.GROUP_COMMIT);
+    }
+
+    private void testMovesDirectoryByCopying(Durability durability)
+        throws Exception {
+        Path srcDir = createDirectory(dir1().resolve("a"));
+        Path srcFile = write(srcDir.resolve("test.txt"), singleton("Test"));
+        createSymbolicLink(srcDir.resolve("link"), srcFile);
+        createDirectory(srcDir.resolve("empty"));
+        Path dstDir = createDirectory(dir1().resolve("dst"));
+        Path dst = dstDir.resolve("a");
+
+        Move move = new Move(
+            singleton(srcDir),
+            dstDir,
+            durability,
+            Bandwidth.UNLIMITED,
+            null
+        );
+        assertTrue(move.moveByCopying(srcDir, dst));
+
+        assertFalse(exists(srcDir, NOFOLLOW_LINKS));
+        assertEquals(
+            singletonList("Test"),
+            readAllLines(dst.resolve("test.txt"))
+        );
+        assertEquals(srcFile, readSymbolicLink(dst.resolve("link")));
+        assertTrue(isDirectory(dst.resolve("empty"), NOFOLLOW_LINKS));
+        assertEquals(4, move.getCopiedItemCount());
+    }
+
     @Override
     Move create(Set<? extends Path> sourcePaths, Path destinationDir) {
         return new Move(sourcePaths, destinationDir);
@@ -1,7 +1,10 @@
 package l.files.operations
 
+import android.app.Service.START_FLAG_REDELIVERY
 import android.content.ComponentName
 import android.content.Context
+import android.content.ContextWrapper
+import android.content.Intent
 import androidx.test.platform.app.InstrumentationRegistry
 import l.files.testing.fs.PathBaseTest
 import l.files.testing.fs.Paths.createFiles
@@ -11,10 +14,13 @@ import org.junit.Assert.assertEquals
 import org.junit.Test
 import org.mockito.Mockito.mock
 import org.mockito.Mockito.verify
+import org.mockito.Mockito.verifyNoInteractions
 import java.nio.file.Files.*
 import java.nio.file.LinkOption.NOFOLLOW_LINKS
+import java.nio.file.Paths
 import java.util.*
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
 import java.util.concurrent.TimeUnit
 
 class OperationServiceTest : PathBaseTest() {
@@ -26,9 +32,11 @@ class OperationServiceTest : PathBaseTest() {
   override fun setUp() {
     super.setUp()
     context = InstrumentationRegistry.getInstrumentation().context
-    service = OperationService(false) { listener }
+    service = OperationService(false, { listener }, { journalDir() })
   }
 
+  private fun journalDir() = dir2().resolve("journals")
+
   private fun <T : TaskListener> setListener(listener: T): T {
     this.listener = listener
     return listener
@@ -56,6 +64,19 @@ class OperationServiceTest : PathBaseTest() {
     verify(listener).onNotFound(service, TaskNotFound.create(1011))
   }
 
+  @Test
+  fun cancelled_task_always_reports_end() {
+    val src = createFile(dir1().resolve("a"))
+    val dst = createDirectory(dir1().resolve("dst"))
+    val listener = setListener(EndListener(1))
+    service.onCreate()
+    service.onStartCommand(newCopyIntent(context, setOf(src), dst), 0, 1)
+    service.onStartCommand(newCancelIntent(context, 1), 0, 2)
+    // Either removed before it started and not found, or interrupted and
+    // finished, its notification must not be left pending
+    listener.await()
+  }
+
   @Test
   fun moves_file() {
     val src = createFile(dir1().resolve("a"))
@@ -86,6 +107,32 @@ class OperationServiceTest : PathBaseTest() {
     )
   }
 
+  @Test
+  fun deletes_journal_when_finished() {
+    val src = createFile(dir1().resolve("a"))
+    val dst = createDirectory(dir1().resolve("dst"))
+    val listener = setListener(CountDownListener(TaskKind.COPY))
+    service.onCreate()
+    service.onStartCommand(newCopyIntent(context, setOf(src), dst), 0, 0)
+    listener.await()
+    list(journalDir()).use { assertEquals(0, it.count()) }
+  }
+
+  @Test
+  fun ignores_redelivered_task_that_has_finished() {
+    val src = createFile(dir1().resolve("a"))
+    val dst = createDirectory(dir1().resolve("dst"))
+    listener = mock(TaskListener::class.java)
+    service.onCreate()
+    service.onStartCommand(
+      newCopyIntent(context, setOf(src), dst),
+      START_FLAG_REDELIVERY,
+      0
+    )
+    verifyNoInteractions(listener)
+    assertThat(exists(dst.resolve("a"), NOFOLLOW_LINKS), equalTo(false))
+  }
+
   @Test
   fun deletes_files() {
     val a = dir1().resolve("a")
@@ -100,6 +147,56 @@ class OperationServiceTest : PathBaseTest() {
     assertThat(exists(b, NOFOLLOW_LINKS), equalTo(false))
   }
 
+  @Test
+  fun deletes_many_files_through_manifest() {
+    val files = (0 until MANIFEST_MIN_PATHS).map {
+      createFile(dir1().resolve(it.toString()))
+    }
+    val listener = setListener(CountDownListener(TaskKind.DELETE))
+    val intent = newDeleteIntent(context, files)
+    val manifest = Paths.get(intent.getStringExtra(EXTRA_MANIFEST)!!)
+    assertThat(exists(manifest), equalTo(true))
+
+    service.onCreate()
+    service.onStartCommand(intent, 0, 0)
+    listener.await()
+    files.forEach { assertThat(exists(it, NOFOLLOW_LINKS), equalTo(false)) }
+
+    // Deleted in the background after the task has finished
+    val end = System.currentTimeMillis() + 1000
+    while (exists(manifest) && System.currentTimeMillis() < end) {
+      Thread.sleep(10)
+    }
+    assertThat(exists(manifest), equalTo(false))
+  }
+
+  @Test
+  fun starts_operation_with_intent_created_in_background() {
+    val files = (0 until MANIFEST_MIN_PATHS).map { dir1().resolve("$it") }
+    val started = LinkedBlockingQueue<Pair<Intent, Thread>>()
+    val recorder = object : ContextWrapper(context) {
+      override fun getApplicationContext() = this
+      override fun startService(service: Intent): ComponentName? {
+        started.add(Pair(service, Thread.currentThread()))
+        return null
+      }
+    }
+
+    startOperation(recorder) { newDeleteIntent(it, files) }
+
+    val (intent, thread) = started.poll(1, TimeUnit.SECONDS)!!
+    assertThat(thread == Thread.currentThread(), equalTo(false))
+    val manifest = Paths.get(intent.getStringExtra(EXTRA_MANIFEST)!!)
+    assertThat(exists(manifest), equalTo(true))
+    delete(manifest)
+  }
+
+  @Test
+  fun passes_few_files_in_intent() {
+    val intent = newDeleteIntent(context, listOf(dir1().resolve("a")))
+    assertEquals(null, intent.getStringExtra(EXTRA_MANIFEST))
+  }
+
   @Test
   fun task_start_time_is_correct() {
     val file1 = createFile(dir1().resolve("a"))
@@ -118,6 +215,27 @@ class OperationServiceTest : PathBaseTest() {
   private fun getTaskStartTimes(values: List<TaskState>): Set<Long> =
     values.asSequence().map { it.time().time() }.toSet()
 
+  private class EndListener(private val id: Int) : TaskListener {
+
+    private val latch = CountDownLatch(1)
+
+    override fun onUpdate(context: Context, state: TaskState) {
+      if (state.task().id() == id && state.isFinished) {
+        latch.countDown()
+      }
+    }
+
+    override fun onNotFound(context: Context, notFound: TaskNotFound) {
+      if (notFound.id() == id) {
+        latch.countDown()
+      }
+    }
+
+    fun await() {
+      assertThat(latch.await(1, TimeUnit.SECONDS), equalTo(true))
+    }
+  }
+
   private class CountDownListener(
     private val kind: TaskKind,
     countDowns: Int = 1
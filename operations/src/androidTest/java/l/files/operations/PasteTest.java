@@ -56,6 +56,27 @@ public abstract class PasteTest extends PathBaseTest {
         assertTrue(exists(dir1().resolve("1/b 2.mp4"), NOFOLLOW_LINKS));
     }
 
+    /**
+     * When pasting files of the same name into a directory, each should get
+     * a different name.
+     */
+    @Test
+    public void pastesSameNamesWithDifferentNames() throws Exception {
+        Set<Path> sources = new HashSet<>(asList(
+            createFiles(dir1().resolve("x/a.txt")),
+            createFiles(dir1().resolve("y/a.txt")),
+            createFiles(dir1().resolve("z/a.txt"))
+        ));
+        Path dstDir = createDirectory(dir1().resolve("dst"));
+        createFile(dstDir.resolve("a.txt"));
+
+        create(sources, dstDir).execute();
+
+        assertTrue(exists(dstDir.resolve("a 2.txt"), NOFOLLOW_LINKS));
+        assertTrue(exists(dstDir.resolve("a 3.txt"), NOFOLLOW_LINKS));
+        assertTrue(exists(dstDir.resolve("a 4.txt"), NOFOLLOW_LINKS));
+    }
+
     /**
      * When pasting directories into a destination with existing directories
      * with the same names, the existing directories should not be overridden,
@@ -57,6 +57,14 @@ public final class PathKtTest extends PathBaseTest {
         testExistent(createDir("dir"), "dir 2");
     }
 
+    @Test
+    public void getNonExistentDestinationFile_skipsTakenNumbers()
+        throws Exception {
+        createFile("a 2");
+        createFile("a 3");
+        testExistent(createFile("a"), "a 4");
+    }
+
     @Test
     public void getNonExistentDestinationFile_hiddenResourceNoExtension()
         throws Exception {
@@ -0,0 +1,60 @@
+package l.files.operations;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+
+import static java.nio.file.Files.*;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs all the copy tests again in pipelined mode.
+ */
+public final class PipelinedCopyTest extends CopyTest {
+
+    @Test
+    public void copies_many_small_files() throws Exception {
+        Path src = createDirectory(dir1().resolve("src"));
+        Path dstDir = createDirectory(dir1().resolve("dst"));
+        for (int i = 0; i < 200; i++) {
+            Path dir = createDirectories(src.resolve(String.valueOf(i % 10)));
+            write(dir.resolve(String.valueOf(i)), new byte[]{(byte) i});
+        }
+        for (int i = 0; i < 10; i++) {
+            setLastModifiedTime(
+                src.resolve(String.valueOf(i)),
+                FileTime.fromMillis(1000L * i)
+            );
+        }
+
+        Copy copy = create(singleton(src), dstDir);
+        copy.execute();
+
+        Path dst = dstDir.resolve("src");
+        for (int i = 0; i < 200; i++) {
+            Path file = dst.resolve(String.valueOf(i % 10))
+                .resolve(String.valueOf(i));
+            assertEquals((byte) i, readAllBytes(file)[0]);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(
+                FileTime.fromMillis(1000L * i),
+                getLastModifiedTime(
+                    dst.resolve(String.valueOf(i)),
+                    NOFOLLOW_LINKS
+                )
+            );
+        }
+        assertEquals(1 + 10 + 200, copy.getCopiedItemCount());
+    }
+
+    @Override
+    Copy create(Set<? extends Path> sourcePaths, Path destinationDir) {
+        return new Copy(sourcePaths, destinationDir, true);
+    }
+
+}
@@ -5,11 +5,16 @@ import org.junit.Test;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
 
 import static java.nio.file.Files.createDirectory;
 import static java.nio.file.Files.createFile;
 import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public final class SizeTest extends PathBaseTest {
 
@@ -28,4 +33,35 @@ public final class SizeTest extends PathBaseTest {
         assertEquals(expected, size.getSize());
     }
 
+    @Test
+    public void size_async() throws Exception {
+        Path a = createDirectory(dir1().resolve("a"));
+        Path b = createFile(dir1().resolve("a/b"));
+
+        Size size = new Size(singleton(a));
+        size.executeAsync(new MetricsRecorder()).get();
+
+        assertEquals(Files.size(a) + Files.size(b), size.getSize());
+        assertEquals(2, size.getCount());
+        assertTrue(size.isExact());
+    }
+
+    @Test
+    public void size_async_failure_leaves_size_inexact() throws Exception {
+        Path a = createFile(dir1().resolve("a"));
+        Path missing = dir1().resolve("missing");
+
+        Size size = new Size(asList(a, missing));
+        try {
+            size.executeAsync(new MetricsRecorder()).get();
+            fail();
+        } catch (ExecutionException e) {
+            FileException cause = (FileException) e.getCause();
+            assertEquals(missing, cause.failures().get(0).path());
+        }
+
+        assertEquals(Files.size(a), size.getSize());
+        assertFalse(size.isExact());
+    }
+
 }
@@ -0,0 +1,120 @@
+package l.files.operations;
+
+import l.files.testing.fs.PathBaseTest;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.file.Files.createDirectory;
+import static java.nio.file.Files.createFile;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.exists;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.util.Collections.emptyList;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class SyncerTest extends PathBaseTest {
+
+    private void write(Syncer syncer, Path file) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            syncer.onFileWritten(channel, file, 0);
+        }
+    }
+
+    @Test
+    public void none_deletes_immediately() throws Exception {
+        Path file = createFile(dir1().resolve("a"));
+        new Syncer(Durability.NONE).deleteWhenSynced(file);
+        assertFalse(exists(file, NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void per_file_deletes_immediately() throws Exception {
+        Path file = createFile(dir1().resolve("a"));
+        Syncer syncer = new Syncer(Durability.PER_FILE);
+        write(syncer, createFile(dir1().resolve("b")));
+        syncer.deleteWhenSynced(file);
+        assertFalse(exists(file, NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void group_commit_deletes_after_sync() throws Exception {
+        Path file = createFile(dir1().resolve("a"));
+        Syncer syncer = new Syncer(Durability.GROUP_COMMIT);
+        write(syncer, createFile(dir1().resolve("b")));
+        syncer.deleteWhenSynced(file);
+        syncer.syncIfFull();
+        assertTrue(exists(file, NOFOLLOW_LINKS));
+
+        syncer.sync();
+        assertFalse(exists(file, NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void group_commit_reports_failed_deletion_once() throws Exception {
+        Path a = createFile(dir1().resolve("a"));
+        Path dir = createDirectory(dir1().resolve("dir"));
+        createFile(dir.resolve("child"));
+        Path b = createFile(dir1().resolve("b"));
+        Syncer syncer = new Syncer(Durability.GROUP_COMMIT);
+        syncer.deleteWhenSynced(a);
+        syncer.deleteWhenSynced(dir);
+        syncer.deleteWhenSynced(b);
+        syncer.sync();
+
+        assertFalse(exists(a, NOFOLLOW_LINKS));
+        assertTrue(exists(dir, NOFOLLOW_LINKS));
+        assertFalse(exists(b, NOFOLLOW_LINKS));
+        List<Failure> failures = syncer.takeFailures();
+        assertEquals(1, failures.size());
+        assertEquals(dir, failures.get(0).path());
+        assertTrue(
+            failures.get(0).cause() instanceof DirectoryNotEmptyException);
+
+        syncer.sync();
+        assertEquals(emptyList(), syncer.takeFailures());
+    }
+
+    @Test
+    public void group_commit_reports_failed_sync_once_and_keeps_sources()
+        throws Exception {
+        Path source = createFile(dir1().resolve("source"));
+        Path vanished = createFile(dir1().resolve("vanished"));
+        Path other = createFile(dir1().resolve("other"));
+        Syncer syncer = new Syncer(Durability.GROUP_COMMIT);
+        write(syncer, vanished);
+        write(syncer, other);
+        syncer.deleteWhenSynced(source);
+        delete(vanished);
+        syncer.sync();
+
+        // Can't tell whose copy failed to sync, so no source is deleted
+        assertTrue(exists(source, NOFOLLOW_LINKS));
+        List<Failure> failures = syncer.takeFailures();
+        assertEquals(1, failures.size());
+        assertEquals(vanished, failures.get(0).path());
+
+        write(syncer, other);
+        syncer.sync();
+        assertEquals(emptyList(), syncer.takeFailures());
+    }
+
+    @Test
+    public void group_commit_syncs_when_batch_is_full() throws Exception {
+        Path file = createFile(dir1().resolve("a"));
+        Syncer syncer = new Syncer(Durability.GROUP_COMMIT);
+        syncer.deleteWhenSynced(file);
+        for (int i = 0; i < Syncer.GROUP_COMMIT_MAX_FILES; i++) {
+            write(syncer, createFile(dir1().resolve("f" + i)));
+        }
+        syncer.syncIfFull();
+        assertFalse(exists(file, NOFOLLOW_LINKS));
+    }
+
+}
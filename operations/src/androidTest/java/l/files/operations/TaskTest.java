@@ -5,6 +5,7 @@ import l.files.operations.Task.Callback;
 import l.files.operations.TaskState.Failed;
 import l.files.operations.TaskState.Pending;
 import l.files.operations.TaskState.Success;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -14,23 +15,33 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static android.os.AsyncTask.THREAD_POOL_EXECUTOR;
 import static android.os.Looper.getMainLooper;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static l.files.operations.TaskKind.COPY;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 public final class TaskTest {
 
     private Handler handler;
+    private ExecutorService executor;
 
     @Before
     public void setUp() {
         handler = new Handler(getMainLooper());
+        executor = newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
     }
 
     @Test
@@ -43,10 +54,60 @@ public final class TaskTest {
 
     @Test
     public void notifiesOnCancelFromCancellingTask() throws Exception {
-        List<TaskState> states = capturedExecute(task -> task.cancel(true));
+        List<TaskState> states = capturedExecute(Task::cancel);
         assertTrue(states.toString(), last(states) instanceof Success);
     }
 
+    @Test
+    public void cancelInterruptsBlockedTask() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        Listener listener = new Listener();
+        Task task = new TestTask(handler, listener) {
+            @Override
+            protected void doTask() throws InterruptedException {
+                blocked.countDown();
+                new CountDownLatch(1).await();
+            }
+        };
+        task.execute(executor);
+        assertTrue(blocked.await(1, SECONDS));
+        task.cancel();
+        assertTrue(listener.latch.await(1, SECONDS));
+        assertTrue(last(listener.states) instanceof Success);
+    }
+
+    @Test
+    public void notifiesOnCancelBeforeStartIfStartedAnyway() throws Exception {
+        AtomicBoolean ran = new AtomicBoolean();
+        Listener listener = new Listener();
+        List<Runnable> queued = new ArrayList<>();
+        Task task = new TestTask(handler, listener) {
+            @Override
+            protected void doTask() {
+                ran.set(true);
+            }
+        };
+        task.execute(queued::add);
+        task.cancel();
+        executor.execute(queued.get(0));
+        assertTrue(listener.latch.await(1, SECONDS));
+        assertTrue(last(listener.states) instanceof Success);
+        assertFalse(ran.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotExecuteTwice() {
+        Task task = new TestTask(handler, new Listener()) {
+            @Override
+            protected void doTask() {
+            }
+        };
+        task.execute(runnable -> {
+        });
+        task.execute(runnable -> {
+        });
+    }
+
     @Test
     public void notifiesOnFailure() throws Throwable {
         TaskState state = last(capturedExecute(task -> {
@@ -86,7 +147,7 @@ public final class TaskTest {
             protected void doTask() throws FileException, InterruptedException {
                 command.execute(this);
             }
-        }.executeOnExecutor(THREAD_POOL_EXECUTOR);
+        }.execute(executor);
         assertTrue(listener.latch.await(1, SECONDS));
         return listener.states;
     }
@@ -0,0 +1,25 @@
+package l.files.operations;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+import static l.files.operations.Bandwidth.NO_LIMIT;
+
+/**
+ * Runs all the copy tests again with the transfer rate limited.
+ */
+public final class ThrottledCopyTest extends CopyTest {
+
+    @Override
+    Copy create(Set<? extends Path> sourcePaths, Path destinationDir) {
+        return new Copy(
+            sourcePaths,
+            destinationDir,
+            true,
+            Durability.NONE,
+            Bandwidth.create(1024 * 1024 * 64, NO_LIMIT),
+            null
+        );
+    }
+
+}
@@ -0,0 +1,240 @@
+package l.files.operations;
+
+import l.files.testing.fs.PathBaseTest;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.*;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class UpdateCopyTest extends PathBaseTest {
+
+    private static final FileTime TIME =
+        FileTime.fromMillis(1_500_000_000_000L);
+
+    private Path src;
+    private Path dst;
+
+    private Copy create(CopyMode mode) {
+        return new Copy(
+            singleton(src),
+            dst,
+            true,
+            mode,
+            Durability.GROUP_COMMIT,
+            Bandwidth.UNLIMITED,
+            null,
+            new MetricsRecorder()
+        );
+    }
+
+    private void setUpDirectories() throws Exception {
+        src = createDirectory(dir1().resolve("src"));
+        dst = createDirectory(dir1().resolve("dst"));
+        createDirectory(dst.resolve("src"));
+    }
+
+    private static Path write(Path file, String content, FileTime time)
+        throws Exception {
+        Files.write(file, content.getBytes(UTF_8));
+        setLastModifiedTime(file, time);
+        return file;
+    }
+
+    private static String read(Path file) throws Exception {
+        return new String(readAllBytes(file), UTF_8);
+    }
+
+    private Stream<Path> listDestination() throws Exception {
+        return list(dst.resolve("src"));
+    }
+
+    @Test
+    public void skips_unchanged_file() throws Exception {
+        setUpDirectories();
+        write(src.resolve("a"), "aaa", TIME);
+        Path dstA = write(dst.resolve("src/a"), "xxx", TIME);
+
+        Copy copy = create(CopyMode.UPDATE);
+        copy.execute();
+
+        // Same size and time, content not compared
+        assertEquals("xxx", read(dstA));
+        assertEquals(1, copy.getCopiedItemCount());
+        assertEquals(size(src), copy.getCopiedByteCount());
+    }
+
+    @Test
+    public void replaces_file_that_looks_unchanged_if_verified()
+        throws Exception {
+        setUpDirectories();
+        write(src.resolve("a"), "aaa", TIME);
+        Path dstA = write(dst.resolve("src/a"), "xxx", TIME);
+
+        create(CopyMode.UPDATE_VERIFIED).execute();
+
+        assertEquals("aaa", read(dstA));
+    }
+
+    @Test
+    public void replaces_changed_file_without_new_name() throws Exception {
+        setUpDirectories();
+        write(src.resolve("a"), "new content", FileTime.fromMillis(
+            TIME.toMillis() + 10_000));
+        Path dstA = write(dst.resolve("src/a"), "old", TIME);
+
+        Copy copy = create(CopyMode.UPDATE);
+        copy.execute();
+
+        assertEquals("new content", read(dstA));
+        assertEquals(
+            TIME.toMillis() + 10_000,
+            getLastModifiedTime(dstA).toMillis()
+        );
+        try (Stream<Path> stream = listDestination()) {
+            assertEquals(singleton(dstA), stream.collect(toSet()));
+        }
+        try (Stream<Path> stream = list(dst)) {
+            assertEquals(
+                singleton(dst.resolve("src")),
+                stream.collect(toSet())
+            );
+        }
+    }
+
+    @Test
+    public void treats_time_within_tolerance_as_unchanged() throws Exception {
+        setUpDirectories();
+        write(src.resolve("a"), "aaa", TIME);
+        Path dstA = write(
+            dst.resolve("src/a"),
+            "xxx",
+            FileTime.fromMillis(TIME.toMillis() - 1000)
+        );
+
+        create(CopyMode.UPDATE).execute();
+
+        assertEquals("xxx", read(dstA));
+    }
+
+    @Test
+    public void merges_into_existing_directories() throws Exception {
+        setUpDirectories();
+        createDirectory(src.resolve("sub"));
+        write(src.resolve("sub/new"), "new", TIME);
+        createDirectory(dst.resolve("src/sub"));
+        Path kept = write(dst.resolve("src/sub/kept"), "kept", TIME);
+
+        create(CopyMode.UPDATE).execute();
+
+        assertEquals("new", read(dst.resolve("src/sub/new")));
+        assertEquals("kept", read(kept));
+        try (Stream<Path> stream = listDestination()) {
+            assertEquals(
+                singleton(dst.resolve("src/sub")),
+                stream.collect(toSet())
+            );
+        }
+    }
+
+    @Test
+    public void copies_into_missing_destination() throws Exception {
+        src = createDirectory(dir1().resolve("src"));
+        dst = createDirectory(dir1().resolve("dst"));
+        write(src.resolve("a"), "aaa", TIME);
+
+        create(CopyMode.UPDATE).execute();
+
+        assertEquals("aaa", read(dst.resolve("src/a")));
+    }
+
+    @Test
+    public void skips_unchanged_link_and_replaces_changed_one()
+        throws Exception {
+        setUpDirectories();
+        createSymbolicLink(src.resolve("same"), src.resolve("a"));
+        createSymbolicLink(src.resolve("changed"), src.resolve("b"));
+        createSymbolicLink(dst.resolve("src/same"), src.resolve("a"));
+        createSymbolicLink(dst.resolve("src/changed"), src.resolve("x"));
+
+        create(CopyMode.UPDATE).execute();
+
+        assertEquals(
+            src.resolve("a"),
+            readSymbolicLink(dst.resolve("src/same"))
+        );
+        assertEquals(
+            src.resolve("b"),
+            readSymbolicLink(dst.resolve("src/changed"))
+        );
+    }
+
+    @Test
+    public void fails_to_replace_directory_with_file() throws Exception {
+        setUpDirectories();
+        write(src.resolve("a"), "aaa", TIME);
+        Path dir = createDirectory(dst.resolve("src/a"));
+        createFile(dir.resolve("child"));
+
+        try {
+            create(CopyMode.UPDATE).execute();
+            fail();
+        } catch (FileException e) {
+            assertEquals(1, e.failures().size());
+        }
+
+        assertTrue(isDirectory(dir));
+        try (Stream<Path> stream = listDestination()) {
+            assertEquals(singleton(dir), stream.collect(toSet()));
+        }
+    }
+
+    @Test
+    public void size_counts_only_changed_files() throws Exception {
+        setUpDirectories();
+        write(src.resolve("same"), "same", TIME);
+        write(src.resolve("changed"), "changed", TIME);
+        write(src.resolve("new"), "new!", TIME);
+        write(dst.resolve("src/same"), "same", TIME);
+        write(dst.resolve("src/changed"), "old", TIME);
+
+        Size size = new ChangedSize(singleton(src), dst, CopyMode.UPDATE);
+        size.execute();
+
+        // The directory, "changed" and "new"
+        assertEquals(3, size.getCount());
+        assertEquals(
+            size(src) + size(src.resolve("changed")) + size(src.resolve("new")),
+            size.getSize()
+        );
+    }
+
+    @Test
+    public void copied_counts_match_changed_size() throws Exception {
+        setUpDirectories();
+        write(src.resolve("same"), "same", TIME);
+        write(src.resolve("changed"), "changed", TIME);
+        write(dst.resolve("src/same"), "same", TIME);
+        write(dst.resolve("src/changed"), "old", TIME);
+
+        Size size = new ChangedSize(singleton(src), dst, CopyMode.UPDATE);
+        size.execute();
+        Copy copy = create(CopyMode.UPDATE);
+        copy.execute();
+
+        assertEquals(size.getCount(), copy.getCopiedItemCount());
+        assertEquals(size.getSize(), copy.getCopiedByteCount());
+        assertFalse(exists(dst.resolve("src 2")));
+    }
+
+}
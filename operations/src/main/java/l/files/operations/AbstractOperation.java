@@ -1,12 +1,16 @@
 package l.files.operations;
 
+import androidx.annotation.Nullable;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 import static java.lang.Thread.currentThread;
@@ -22,11 +26,15 @@ abstract class AbstractOperation implements FileOperation {
      */
     private static final int ERROR_LIMIT = 20;
 
-    private final Set<Path> paths;
+    private final Collection<Path> paths;
     private final FailureRecorder recorder;
 
     AbstractOperation(Collection<? extends Path> paths) {
-        this.paths = unmodifiableSet(new HashSet<>(paths));
+        // A manifest has distinct paths, and is read as it's iterated
+        // instead of being held in memory
+        this.paths = paths instanceof Manifest
+            ? (Manifest) paths
+            : unmodifiableSet(new HashSet<>(paths));
         this.recorder = new FailureRecorder(ERROR_LIMIT);
     }
 
@@ -94,12 +102,28 @@ abstract class AbstractOperation implements FileOperation {
 
     @Override
     public void execute() throws InterruptedException {
-        for (Path path : paths) {
+        Iterator<Path> it = paths.iterator();
+        for (Path path = next(it); path != null; path = next(it)) {
             process(path);
         }
         recorder.throwIfNotEmpty();
     }
 
+    /**
+     * Returns the next path, or null if there are no more. A manifest that
+     * fails to be read is recorded as a failure of the manifest file, and
+     * the paths after it are not processed.
+     */
+    @Nullable
+    private Path next(Iterator<Path> it) {
+        try {
+            return it.hasNext() ? it.next() : null;
+        } catch (UncheckedIOException e) {
+            record(((Manifest) paths).file(), e.getCause());
+            return null;
+        }
+    }
+
     abstract void process(Path path) throws InterruptedException;
 
 }
@@ -0,0 +1,89 @@
+package l.files.operations;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Limits on how fast a task reads and writes file content, so that it
+ * doesn't take all of the storage's throughput away from the user browsing
+ * files at the same time.
+ */
+public final class Bandwidth {
+
+    /**
+     * No limit on the number of bytes per second.
+     */
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+
+    public static final Bandwidth UNLIMITED = new Bandwidth(NO_LIMIT, NO_LIMIT);
+
+    private final long maxBytesPerSecond;
+    private final long maxForegroundBytesPerSecond;
+
+    private Bandwidth(
+        long maxBytesPerSecond,
+        long maxForegroundBytesPerSecond
+    ) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxForegroundBytesPerSecond = maxForegroundBytesPerSecond;
+    }
+
+    /**
+     * The limit to use when the user is not browsing files.
+     */
+    public long maxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    /**
+     * The limit to use while the user is browsing files, such as when a
+     * directory is being loaded or previews are being decoded. The lower
+     * of this and {@link #maxBytesPerSecond()} applies.
+     */
+    public long maxForegroundBytesPerSecond() {
+        return maxForegroundBytesPerSecond;
+    }
+
+    public static Bandwidth create(
+        long maxBytesPerSecond,
+        long maxForegroundBytesPerSecond
+    ) {
+        if (maxBytesPerSecond <= 0) {
+            throw new IllegalArgumentException(
+                "maxBytesPerSecond=" + maxBytesPerSecond);
+        }
+        if (maxForegroundBytesPerSecond <= 0) {
+            throw new IllegalArgumentException(
+                "maxForegroundBytesPerSecond=" + maxForegroundBytesPerSecond);
+        }
+        return new Bandwidth(maxBytesPerSecond, maxForegroundBytesPerSecond);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Bandwidth that = (Bandwidth) o;
+        return maxBytesPerSecond == that.maxBytesPerSecond &&
+            maxForegroundBytesPerSecond == that.maxForegroundBytesPerSecond;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(maxBytesPerSecond);
+        result = 31 * result + Long.hashCode(maxForegroundBytesPerSecond);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Bandwidth{" +
+            "maxBytesPerSecond=" + maxBytesPerSecond +
+            ", maxForegroundBytesPerSecond=" + maxForegroundBytesPerSecond +
+            '}';
+    }
+
+}
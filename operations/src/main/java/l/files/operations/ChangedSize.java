@@ -0,0 +1,58 @@
+package l.files.operations;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+
+import static java.util.Objects.requireNonNull;
+import static l.files.operations.FileComparator.isUnchanged;
+import static l.files.operations.FileComparator.readAttributesIfExists;
+
+/**
+ * Counts the source items of a copy in {@link CopyMode#UPDATE} mode that
+ * will actually be copied, leaving out the ones that are unchanged at the
+ * destination, so that the progress of the copy reflects the work it has
+ * to do.
+ */
+final class ChangedSize extends Size {
+
+    private final Path destinationDir;
+    private final CopyMode mode;
+
+    ChangedSize(
+        Collection<? extends Path> sourcePaths,
+        Path destinationDir,
+        CopyMode mode
+    ) {
+        super(sourcePaths);
+        this.destinationDir = requireNonNull(destinationDir);
+        this.mode = requireNonNull(mode);
+    }
+
+    @Override
+    boolean isCounted(Path root, Path path, BasicFileAttributes attrs) {
+        // Directories are always visited by the copy
+        if (attrs.isDirectory()) {
+            return true;
+        }
+        Path destination = destinationDir
+            .resolve(root.getFileName().toString())
+            .resolve(root.relativize(path).toString());
+        try {
+            BasicFileAttributes destinationAttrs =
+                readAttributesIfExists(destination);
+            return destinationAttrs == null || !isUnchanged(
+                mode,
+                path,
+                attrs,
+                destination,
+                destinationAttrs
+            );
+        } catch (IOException e) {
+            // The copy will find out
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,722 @@
+package l.files.operations;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.lang.Math.max;
+import static java.lang.System.nanoTime;
+import static java.lang.Thread.currentThread;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.readSymbolicLink;
+import static java.nio.file.Files.walkFileTree;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singletonList;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.zip.Deflater.DEFAULT_COMPRESSION;
+import static java.util.zip.Deflater.SYNC_FLUSH;
+import static l.files.operations.Zip.DEFLATED;
+import static l.files.operations.Zip.DIRECTORY_MODE;
+import static l.files.operations.Zip.FILE_MODE;
+import static l.files.operations.Zip.LINK_MODE;
+import static l.files.operations.Zip.STORED;
+import static l.files.operations.Zip.combineCrc;
+
+/**
+ * Compresses the sources into a new ZIP archive, each source and its
+ * content under the source's name.
+ * <p>
+ * The tree walker hands the content of files to a pool of workers in
+ * chunks, which read and deflate them concurrently, and writes the
+ * compressed chunks to the archive in the order it walked them, so the
+ * archive is written sequentially. Reading small files concurrently hides
+ * the latency of opening them, and deflating large files in chunks uses
+ * all the cores on a single file. Each chunk is deflated with the end of
+ * the previous chunk as its dictionary and ends on a byte boundary, as
+ * pigz does, so the chunks make up a single deflate stream that compresses
+ * about as well as deflating the file in one go.
+ * <p>
+ * Sources that fail to be read are left out of the archive and reported,
+ * the archive is deleted if the operation is interrupted, or if the
+ * archive itself fails to be written.
+ */
+final class Compress extends AbstractOperation {
+
+    /**
+     * The size of the chunks of the content of files deflated by the
+     * workers, large enough for the dictionary reread from the previous
+     * chunk to cost little.
+     */
+    static final int CHUNK_SIZE = 1024 * 128;
+
+    /**
+     * The maximum distance deflate refers back to.
+     */
+    private static final int DICTIONARY_SIZE = 1024 * 32;
+
+    /**
+     * The maximum number of chunks being deflated or waiting to be written
+     * at a time by a single compress operation, which bounds the memory it
+     * uses.
+     */
+    private static final int MAX_IN_FLIGHT = 64;
+
+    /**
+     * Shared by all compress operations, as deflating is bound by the
+     * processors, there's no point having more workers than processors.
+     */
+    private static final ThreadPoolExecutor workers;
+
+    static {
+        int processors = Runtime.getRuntime().availableProcessors();
+        workers = new ThreadPoolExecutor(
+            processors,
+            processors,
+            10,
+            SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, "Compress-worker")
+        );
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    private final AtomicInteger compressedItemCount = new AtomicInteger();
+    private final AtomicLong compressedByteCount = new AtomicLong();
+    private final Path archive;
+    private final Syncer syncer;
+    private final MetricsRecorder metrics;
+
+    /**
+     * Chunks in the order they are to be written, only accessed by the
+     * walker thread, as are the fields below.
+     */
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+
+    @Nullable
+    private ZipWriter writer;
+    private boolean writeFailed;
+
+    Compress(Collection<? extends Path> sourcePaths, Path archive) {
+        this(sourcePaths, archive, Durability.NONE, new MetricsRecorder());
+    }
+
+    /**
+     * @param archive    the archive to create, which must not exist
+     * @param durability how to sync the archive to storage once written
+     * @param metrics    records the time spent syncing and opening files
+     */
+    Compress(
+        Collection<? extends Path> sourcePaths,
+        Path archive,
+        Durability durability,
+        MetricsRecorder metrics
+    ) {
+        super(sourcePaths);
+        this.archive = requireNonNull(archive);
+        this.syncer = new Syncer(durability, metrics);
+        this.metrics = requireNonNull(metrics);
+    }
+
+    int getCompressedItemCount() {
+        return compressedItemCount.get();
+    }
+
+    /**
+     * The number of bytes of the sources written to the archive so far,
+     * before compression.
+     */
+    long getCompressedByteCount() {
+        return compressedByteCount.get();
+    }
+
+    /**
+     * An item being added to the archive.
+     */
+    private static final class Entry {
+
+        final Path path;
+        final String name;
+        final BasicFileAttributes attrs;
+        final int mode;
+
+        /**
+         * For a file with more than one chunk, shared by the workers.
+         */
+        @Nullable
+        FileChannel channel;
+
+        boolean started;
+        boolean failed;
+        long crc;
+        long size;
+
+        Entry(Path path, String name, BasicFileAttributes attrs, int mode) {
+            this.path = path;
+            this.name = name;
+            this.attrs = attrs;
+            this.mode = mode;
+        }
+
+        void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.w(Compress.class.getSimpleName(),
+                        "Failed to close " + path, e);
+                }
+            }
+        }
+    }
+
+    private static final class Chunk {
+
+        final Entry entry;
+        final Future<Deflated> result;
+        final boolean first;
+        final boolean last;
+
+        Chunk(
+            Entry entry,
+            Future<Deflated> result,
+            boolean first,
+            boolean last
+        ) {
+            this.entry = entry;
+            this.result = result;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * A chunk of content ready to be written.
+     */
+    private static final class Deflated {
+
+        final byte[] data;
+        final int length;
+        final long crc;
+        final int inputLength;
+        final boolean stored;
+
+        Deflated(
+            byte[] data,
+            int length,
+            long crc,
+            int inputLength,
+            boolean stored
+        ) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.inputLength = inputLength;
+            this.stored = stored;
+        }
+
+        static Deflated stored(byte[] data) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            return new Deflated(
+                data,
+                data.length,
+                crc.getValue(),
+                data.length,
+                true
+            );
+        }
+    }
+
+    @Override
+    public void execute() throws FileException, InterruptedException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(archive, CREATE_NEW, WRITE);
+        } catch (IOException e) {
+            throw new FileException(singletonList(
+                Failure.create(archive, e)));
+        }
+
+        FileException failures = null;
+        boolean complete = false;
+        try {
+
+            writer = new ZipWriter(channel);
+            try {
+                super.execute();
+            } catch (FileException e) {
+                // Sources that failed are left out, the archive is still
+                // finished with the rest
+                failures = e;
+            }
+            complete = !writeFailed && finish(channel);
+
+        } catch (IOException e) {
+            if (isInterruption(e)) {
+                return;
+            }
+            List<Failure> all = new ArrayList<>();
+            if (failures != null) {
+                all.addAll(failures.failures());
+            }
+            all.add(Failure.create(archive, e));
+            failures = new FileException(all);
+
+        } finally {
+            for (Chunk chunk : pending) {
+                chunk.result.cancel(true);
+                chunk.entry.close();
+            }
+            pending.clear();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(),
+                    "Failed to close " + archive, e);
+            }
+            if (!complete) {
+                try {
+                    deleteIfExists(archive);
+                } catch (IOException e) {
+                    Log.w(getClass().getSimpleName(),
+                        "Failed to delete archive on failure " + archive, e);
+                }
+            }
+        }
+
+        if (failures != null) {
+            throw failures;
+        }
+    }
+
+    /**
+     * Writes the rest of the chunks and the central directory, then syncs
+     * the archive. Returns false if interrupted.
+     */
+    private boolean finish(FileChannel channel) throws IOException {
+        while (!pending.isEmpty()) {
+            if (!writeNext()) {
+                return false;
+            }
+        }
+        if (isInterrupted()) {
+            return false;
+        }
+        requireNonNull(writer).finish();
+        syncer.onFileWritten(channel, archive, channel.size());
+        syncer.sync();
+        // An archive that is not synced is not complete
+        List<Failure> failed = syncer.takeFailures();
+        if (!failed.isEmpty()) {
+            throw failed.get(0).cause();
+        }
+        return true;
+    }
+
+    @Override
+    void process(Path sourcePath) {
+        if (writeFailed) {
+            return;
+        }
+
+        // Entries are named relative to the parent of the source
+        String root = String.valueOf(sourcePath.getFileName());
+        try {
+            walkFileTree(sourcePath, new OperationVisitor() {
+
+                @Override
+                public FileVisitResult preVisitDirectory(
+                    Path dir,
+                    BasicFileAttributes attrs
+                ) throws IOException {
+                    addStored(
+                        dir,
+                        name(root, sourcePath, dir) + "/",
+                        attrs,
+                        DIRECTORY_MODE,
+                        new byte[0]
+                    );
+                    return super.preVisitDirectory(dir, attrs);
+                }
+
+                @Override
+                public FileVisitResult visitFile(
+                    Path file,
+                    BasicFileAttributes attrs
+                ) throws IOException {
+                    String name = name(root, sourcePath, file);
+                    if (file.equals(archive)) {
+                        // Inside of a source directory
+                    } else if (attrs.isSymbolicLink()) {
+                        addLink(file, name, attrs);
+                    } else if (attrs.isRegularFile()) {
+                        addFile(file, name, attrs);
+                    } else {
+                        record(file, new IOException("Not file or directory"));
+                    }
+                    return super.visitFile(file, attrs);
+                }
+            });
+
+        } catch (IOException e) {
+            // Failures to read the sources are recorded by the visitor,
+            // only failures to write the archive get here
+            writeFailed = true;
+            if (!isInterruption(e)) {
+                record(archive, e);
+            }
+        }
+    }
+
+    private static String name(String root, Path sourcePath, Path path) {
+        String relative = sourcePath.relativize(path).toString();
+        return relative.isEmpty() ? root : root + "/" + relative;
+    }
+
+    private void addLink(Path link, String name, BasicFileAttributes attrs)
+        throws IOException {
+        byte[] target;
+        try {
+            target = readSymbolicLink(link).toString().getBytes(UTF_8);
+        } catch (IOException e) {
+            record(link, e);
+            return;
+        }
+        addStored(link, name, attrs, LINK_MODE, target);
+    }
+
+    private void addStored(
+        Path path,
+        String name,
+        BasicFileAttributes attrs,
+        int mode,
+        byte[] data
+    ) throws IOException {
+        if (!makeRoom()) {
+            return;
+        }
+        pending.add(new Chunk(
+            new Entry(path, name, attrs, mode),
+            CompletableFuture.completedFuture(Deflated.stored(data)),
+            true,
+            true
+        ));
+    }
+
+    private void addFile(Path file, String name, BasicFileAttributes attrs)
+        throws IOException {
+
+        Entry entry = new Entry(file, name, attrs, FILE_MODE);
+        if (attrs.size() <= CHUNK_SIZE) {
+            if (makeRoom()) {
+                pending.add(new Chunk(
+                    entry,
+                    workers.submit(() -> deflateFile(file, attrs.size())),
+                    true,
+                    true
+                ));
+            }
+            return;
+        }
+
+        long opening = nanoTime();
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, READ);
+        } catch (IOException e) {
+            record(file, e);
+            return;
+        }
+        metrics.recordOpen(nanoTime() - opening);
+        entry.channel = channel;
+
+        long chunks = (attrs.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (long i = 0; i < chunks; i++) {
+            if (!makeRoom()) {
+                entry.close();
+                return;
+            }
+            long start = i * CHUNK_SIZE;
+            boolean last = i == chunks - 1;
+            pending.add(new Chunk(
+                entry,
+                workers.submit(() -> deflateChunk(channel, start, last)),
+                i == 0,
+                last
+            ));
+        }
+    }
+
+    /**
+     * Writes the chunks that are next in line while too many are in
+     * flight. Returns false if interrupted, in which case nothing more
+     * should be added.
+     */
+    private boolean makeRoom() throws IOException {
+        while (pending.size() >= MAX_IN_FLIGHT) {
+            if (!writeNext()) {
+                return false;
+            }
+        }
+        return !isInterrupted();
+    }
+
+    /**
+     * Writes the next chunk, waiting for it to be deflated. If the chunk
+     * failed to be read, its entry is left out. Returns false if
+     * interrupted while waiting, with the interrupt status of the calling
+     * thread set.
+     */
+    private boolean writeNext() throws IOException {
+        Chunk chunk = requireNonNull(pending.peek());
+        Entry entry = chunk.entry;
+
+        Deflated deflated;
+        try {
+            deflated = chunk.result.get();
+        } catch (InterruptedException e) {
+            currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            pending.poll();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                fail(chunk, (IOException) cause);
+                return true;
+            }
+            if (chunk.last) {
+                entry.close();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        pending.poll();
+
+        if (entry.failed) {
+            if (chunk.last) {
+                entry.close();
+            }
+            return true;
+        }
+
+        ZipWriter writer = requireNonNull(this.writer);
+        if (chunk.first) {
+            writer.startEntry(
+                entry.name,
+                deflated.stored ? STORED : DEFLATED,
+                entry.attrs.lastModifiedTime().toMillis(),
+                entry.mode,
+                entry.attrs.size()
+            );
+            entry.started = true;
+        }
+        writer.write(deflated.data, 0, deflated.length);
+        entry.crc = combineCrc(entry.crc, deflated.crc, deflated.inputLength);
+        entry.size += deflated.inputLength;
+        if (entry.attrs.isRegularFile()) {
+            compressedByteCount.addAndGet(deflated.inputLength);
+        }
+
+        if (chunk.last) {
+            entry.close();
+            writer.finishEntry(entry.crc, entry.size);
+            if (!entry.attrs.isRegularFile()) {
+                compressedByteCount.addAndGet(entry.attrs.size());
+            }
+            compressedItemCount.incrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Leaves out the entry of the chunk that failed to be read.
+     */
+    private void fail(Chunk chunk, IOException e) throws IOException {
+        Entry entry = chunk.entry;
+        if (chunk.last) {
+            entry.close();
+        }
+        if (entry.failed) {
+            return;
+        }
+        entry.failed = true;
+        if (entry.started) {
+            requireNonNull(writer).abortEntry();
+        }
+        if (!isInterruption(e)) {
+            record(entry.path, e);
+        }
+    }
+
+    private static boolean isInterruption(IOException e) {
+        return e instanceof ClosedByInterruptException ||
+            e instanceof InterruptedIOException;
+    }
+
+    /**
+     * Reads and deflates a file that fits in a chunk, the file is stored
+     * instead if it doesn't get smaller, such as a file that's already
+     * compressed.
+     */
+    private Deflated deflateFile(Path file, long size) throws IOException {
+        long opening = nanoTime();
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            metrics.recordOpen(nanoTime() - opening);
+            // One more byte to find the end without growing the buffer
+            ByteBuffer buffer = read(channel, 0, (int) size + 1, true);
+            byte[] data = buffer.array();
+            int length = buffer.position();
+            Deflated deflated = deflate(data, 0, length, true);
+            if (deflated.length < length) {
+                return deflated;
+            }
+            return Deflated.stored(Arrays.copyOf(data, length));
+        }
+    }
+
+    /**
+     * Reads and deflates a chunk of a large file, the last chunk reads
+     * until the end of the file, in case the file has grown.
+     */
+    private static Deflated deflateChunk(
+        FileChannel channel,
+        long start,
+        boolean last
+    ) throws IOException {
+
+        // If the file changes while being read, the dictionary may not
+        // match what the previous chunk has read, then the entry will fail
+        // its checksum when extracted, as a file changed while being
+        // copied would be a mix of old and new content
+        long dictionaryStart = max(0, start - DICTIONARY_SIZE);
+        int dictionaryLength = (int) (start - dictionaryStart);
+        ByteBuffer buffer = read(
+            channel,
+            dictionaryStart,
+            dictionaryLength + CHUNK_SIZE,
+            last
+        );
+        int end = buffer.position();
+        if (end < dictionaryLength) {
+            // Shrunk since the size was read
+            return deflate(buffer.array(), end, end, last);
+        }
+        return deflate(buffer.array(), dictionaryLength, end, last);
+    }
+
+    /**
+     * Reads from the position until a buffer of the given size is full,
+     * or until the end of the file if {@code toEnd}, growing the buffer as
+     * needed.
+     */
+    private static ByteBuffer read(
+        FileChannel channel,
+        long position,
+        int size,
+        boolean toEnd
+    ) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (true) {
+            if (currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            if (!buffer.hasRemaining()) {
+                if (!toEnd) {
+                    break;
+                }
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2)
+                    .put((ByteBuffer) buffer.flip());
+            }
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Deflates {@code data[offset..end)}, using {@code data[0..offset)}
+     * as the dictionary. A chunk that's not last is ended with a sync
+     * flush, so the next chunk's data can follow it.
+     */
+    private static Deflated deflate(
+        byte[] data,
+        int offset,
+        int end,
+        boolean last
+    ) {
+        int length = end - offset;
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+
+        byte[] output = new byte[length + (length >>> 10) + 64];
+        int outputLength = 0;
+        Deflater deflater = new Deflater(DEFAULT_COMPRESSION, true);
+        try {
+            if (offset > 0) {
+                deflater.setDictionary(data, 0, offset);
+            }
+            deflater.setInput(data, offset, length);
+            if (last) {
+                deflater.finish();
+            }
+            while (true) {
+                if (outputLength == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                int space = output.length - outputLength;
+                int n = last
+                    ? deflater.deflate(output, outputLength, space)
+                    : deflater.deflate(output, outputLength, space, SYNC_FLUSH);
+                outputLength += n;
+                if (last ? deflater.finished() : n < space) {
+                    break;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Deflated(
+            output,
+            outputLength,
+            crc.getValue(),
+            length,
+            false
+        );
+    }
+
+}
@@ -0,0 +1,66 @@
+package l.files.operations;
+
+import android.os.Handler;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+import static java.lang.System.nanoTime;
+import static l.files.operations.Metrics.Phase.COMPRESSING;
+import static l.files.operations.TaskKind.COMPRESS;
+
+final class CompressTask extends Task {
+
+    private final Size size;
+    private final Compress compress;
+
+    CompressTask(
+        int id,
+        Clock clock,
+        Callback callback,
+        Handler handler,
+        Collection<? extends Path> sources,
+        Path archive,
+        Durability durability
+    ) {
+        super(
+            TaskId.create(id, COMPRESS),
+            Target.from(sources, archive.getParent()),
+            clock,
+            callback,
+            handler
+        );
+
+        this.size = new Size(sources);
+        this.compress = new Compress(sources, archive, durability, metrics());
+    }
+
+    @Override
+    void doTask() throws FileException, InterruptedException {
+        Future<?> sizing = size.executeAsync(metrics());
+        long start = nanoTime();
+        try {
+            compress.execute();
+        } finally {
+            metrics().addPhaseTime(COMPRESSING, nanoTime() - start);
+            sizing.cancel(true);
+        }
+    }
+
+    @Override
+    TaskState.Running running(TaskState.Running state) {
+        return state.running(
+            Progress.normalize(
+                size.getCount(),
+                compress.getCompressedItemCount(),
+                size.isExact()
+            ),
+            Progress.normalize(
+                size.getSize(),
+                compress.getCompressedByteCount(),
+                size.isExact()
+            )
+        );
+    }
+}
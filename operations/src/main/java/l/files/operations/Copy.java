@@ -1,34 +1,196 @@
 package l.files.operations;
 
 import android.util.Log;
+import androidx.annotation.Nullable;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static java.lang.Thread.currentThread;
 import static java.nio.file.Files.*;
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.UUID.randomUUID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static l.files.operations.FileComparator.isUnchanged;
+import static l.files.operations.FileComparator.readAttributesIfExists;
 
 final class Copy extends Paste {
 
     // TODO copy file/directory permissions
 
-    private static final int BUFFER_SIZE = 1024 * 8;
+    private static final int BUFFER_SIZE = 1024 * 64;
+
+    /**
+     * The maximum number of bytes to transfer at a time, so that progress
+     * can be reported and cancellation checked in between.
+     */
+    static final long TRANSFER_SLICE_SIZE = 1024 * 1024 * 8;
+
+    /**
+     * Direct buffers for when the channel transfer is not possible, reused
+     * as allocating direct buffers is expensive. Bounded by the number of
+     * concurrent copies.
+     */
+    private static final Queue<ByteBuffer> buffers =
+        new ConcurrentLinkedQueue<>();
+
+    /**
+     * In pipelined mode, files smaller than this are copied concurrently,
+     * as copying them is dominated by the latency of opening and closing
+     * the files. Larger files are copied one at a time by the tree walker.
+     */
+    private static final long PIPELINE_MAX_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * In pipelined mode, the maximum number of files queued or being
+     * copied at a time by a single copy operation.
+     */
+    private static final int PIPELINE_MAX_IN_FLIGHT = 64;
+
+    /**
+     * Shared by all copy operations so the number of concurrent file copies
+     * stays bounded regardless of how many copy tasks are running.
+     */
+    private static final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+        4,
+        4,
+        10,
+        SECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> new Thread(runnable, "Copy-worker")
+    );
+
+    static {
+        workers.allowCoreThreadTimeOut(true);
+    }
 
     private final AtomicLong copiedByteCount = new AtomicLong();
     private final AtomicInteger copiedItemCount = new AtomicInteger();
+    private final boolean pipelined;
+    private final CopyMode mode;
+    private final Syncer syncer;
+    private final Throttle throttle;
+    private final MetricsRecorder metrics;
 
     Copy(Collection<? extends Path> sourcePaths, Path destinationDir) {
-        super(sourcePaths, destinationDir);
+        this(
+            sourcePaths,
+            destinationDir,
+            false,
+            Durability.NONE,
+            Bandwidth.UNLIMITED,
+            null
+        );
+    }
+
+    Copy(
+        Collection<? extends Path> sourcePaths,
+        Path destinationDir,
+        boolean pipelined
+    ) {
+        this(
+            sourcePaths,
+            destinationDir,
+            pipelined,
+            Durability.NONE,
+            Bandwidth.UNLIMITED,
+            null
+        );
+    }
+
+    /**
+     * @param pipelined  if true, small files will be copied concurrently by
+     *                   a worker pool while the tree walker creates
+     *                   directories in order and feeds it files
+     * @param durability how to sync the copied items to storage
+     * @param bandwidth  how fast to copy the content of files
+     * @param journal    if not null, records the progress so that the copy
+     *                   can be resumed from there if it doesn't finish
+     */
+    Copy(
+        Collection<? extends Path> sourcePaths,
+        Path destinationDir,
+        boolean pipelined,
+        Durability durability,
+        Bandwidth bandwidth,
+        @Nullable Journal journal
+    ) {
+        this(
+            sourcePaths,
+            destinationDir,
+            pipelined,
+            CopyMode.RENAME,
+            durability,
+            bandwidth,
+            journal,
+            new MetricsRecorder()
+        );
+    }
+
+    /**
+     * @param mode    what to do with existing items of the same names at
+     *                the destination
+     * @param metrics records the time spent syncing and opening files
+     */
+    Copy(
+        Collection<? extends Path> sourcePaths,
+        Path destinationDir,
+        boolean pipelined,
+        CopyMode mode,
+        Durability durability,
+        Bandwidth bandwidth,
+        @Nullable Journal journal,
+        MetricsRecorder metrics
+    ) {
+        super(sourcePaths, destinationDir, journal);
+        this.pipelined = pipelined;
+        this.mode = requireNonNull(mode);
+        this.syncer = new Syncer(durability, metrics);
+        this.throttle = new Throttle(bandwidth);
+        this.metrics = requireNonNull(metrics);
+    }
+
+    @Override
+    Syncer syncer() {
+        return syncer;
+    }
+
+    @Override
+    boolean mergesIntoExisting() {
+        return mode != CopyMode.RENAME;
     }
 
     int getCopiedItemCount() {
@@ -43,44 +205,164 @@ final class Copy extends Paste {
     void paste(Path sourcePath, Path destinationPath)
         throws IOException {
 
-        walkFileTree(sourcePath, new OperationVisitor() {
-            @Override
-            public FileVisitResult visitFile(
-                Path file,
-                BasicFileAttributes attrs
-            ) throws IOException {
-                copyItems(file, sourcePath, destinationPath);
-                return super.visitFile(file, attrs);
-            }
-
-            @Override
-            public FileVisitResult preVisitDirectory(
-                Path dir,
-                BasicFileAttributes attrs
-            ) throws IOException {
-                copyItems(dir, sourcePath, destinationPath);
-                return super.preVisitDirectory(dir, attrs);
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path dir, IOException e)
-                throws IOException {
-                if (e == null) {
-                    updateDirectoryLastModifiedTime(
-                        dir,
-                        sourcePath,
-                        destinationPath
-                    );
+        boolean resumed =
+            isDestinationOfPreviousRun(sourcePath, destinationPath);
+        Deque<Future<?>> pending = new ArrayDeque<>();
+        List<Path> copiedDirs = new ArrayList<>();
+        try {
+
+            walkFileTree(sourcePath, new OperationVisitor() {
+                @Override
+                public FileVisitResult visitFile(
+                    Path file,
+                    BasicFileAttributes attrs
+                ) throws IOException {
+                    if (pipelined
+                        && attrs.isRegularFile()
+                        && attrs.size() < PIPELINE_MAX_FILE_SIZE) {
+                        submit(
+                            pending,
+                            file,
+                            attrs,
+                            rebase(file, sourcePath, destinationPath),
+                            resumed
+                        );
+                    } else {
+                        copyItems(file, sourcePath, destinationPath, resumed);
+                    }
+                    return super.visitFile(file, attrs);
+                }
+
+                @Override
+                public FileVisitResult preVisitDirectory(
+                    Path dir,
+                    BasicFileAttributes attrs
+                ) throws IOException {
+                    copyItems(dir, sourcePath, destinationPath, resumed);
+                    return super.preVisitDirectory(dir, attrs);
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(
+                    Path dir,
+                    IOException e
+                ) throws IOException {
+                    if (e == null && pipelined) {
+                        copiedDirs.add(dir);
+                    } else if (e == null) {
+                        updateDirectoryLastModifiedTime(
+                            dir,
+                            sourcePath,
+                            destinationPath
+                        );
+                    }
+                    return super.postVisitDirectory(dir, e);
+                }
+            });
+
+            while (!pending.isEmpty()) {
+                if (!await(pending.poll())) {
+                    return;
                 }
-                return super.postVisitDirectory(dir, e);
             }
-        });
+
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        // In pipelined mode, directories are fixed up last, as creating
+        // files in a directory changes its last modified time, which may
+        // happen after the walker has finished with the directory
+        for (Path dir : copiedDirs) {
+            updateDirectoryLastModifiedTime(
+                dir,
+                sourcePath,
+                destinationPath
+            );
+        }
+
+        syncer.sync();
+    }
+
+    /**
+     * Submits the file to be copied by the worker pool, waiting for earlier
+     * files to finish first if there are too many in flight.
+     */
+    private void submit(
+        Deque<Future<?>> pending,
+        Path sourcePath,
+        BasicFileAttributes sourceAttrs,
+        Path destinationPath,
+        boolean resumed
+    ) throws IOException {
+
+        while (pending.size() >= PIPELINE_MAX_IN_FLIGHT) {
+            if (!await(pending.poll())) {
+                return;
+            }
+        }
+
+        pending.add(workers.submit(() -> {
+            copyFile(sourcePath, sourceAttrs, destinationPath, resumed);
+            return null;
+        }));
+    }
+
+    /**
+     * Waits for the copy to finish, rethrowing its failure as if the file
+     * was copied by the calling thread. Returns false if interrupted while
+     * waiting, with the interrupt status of the calling thread set.
+     */
+    private boolean await(Future<?> future) throws IOException {
+        try {
+            future.get();
+            return true;
+        } catch (InterruptedException e) {
+            currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
     }
 
     private void copyItems(
         Path sourcePath,
         Path sourceRoot,
-        Path destinationRoot
+        Path destinationRoot,
+        boolean resumed
+    ) throws IOException {
+        copyItem(
+            sourcePath,
+            rebase(sourcePath, sourceRoot, destinationRoot),
+            resumed
+        );
+    }
+
+    /**
+     * Copies a single item, if {@code sourcePath} is a directory, only an
+     * empty directory is created at {@code destinationPath}. If interrupted
+     * while copying a file, returns without the file being copied.
+     *
+     * @param resumed true if the destination is under a destination chosen
+     *                by a previous run, only then may it already exist
+     *                from that run and be overwritten
+     */
+    void copyItem(
+        Path sourcePath,
+        Path destinationPath,
+        boolean resumed
     ) throws IOException {
 
         BasicFileAttributes sourceAttrs = readAttributes(
@@ -89,17 +371,14 @@ final class Copy extends Paste {
             NOFOLLOW_LINKS
         );
 
-        Path destinationPath =
-            rebase(sourcePath, sourceRoot, destinationRoot);
-
         if (sourceAttrs.isSymbolicLink()) {
-            copyLink(sourcePath, sourceAttrs, destinationPath);
+            copyLink(sourcePath, sourceAttrs, destinationPath, resumed);
 
         } else if (sourceAttrs.isDirectory()) {
-            createDirectory(sourceAttrs, destinationPath);
+            createDirectory(sourceAttrs, destinationPath, resumed);
 
         } else if (sourceAttrs.isRegularFile()) {
-            copyFile(sourcePath, sourceAttrs, destinationPath);
+            copyFile(sourcePath, sourceAttrs, destinationPath, resumed);
 
         } else {
             throw new IOException("Not file or directory");
@@ -120,28 +399,55 @@ final class Copy extends Paste {
         Path sourceRoot,
         Path destinationRoot
     ) throws IOException {
+        copyLastModifiedTime(
+            source,
+            rebase(source, sourceRoot, destinationRoot)
+        );
+    }
+
+    void copyLastModifiedTime(Path source, Path destinationPath)
+        throws IOException {
         BasicFileAttributes sourceAttrs =
             readAttributes(source, BasicFileAttributes.class, NOFOLLOW_LINKS);
-        Path destinationPath = rebase(source, sourceRoot, destinationRoot);
         updateLastModifiedTime(sourceAttrs, destinationPath);
     }
 
     private void copyLink(
         Path source,
         BasicFileAttributes sourceAttrs,
-        Path destinationPath
+        Path destinationPath,
+        boolean resumed
     ) throws IOException {
         Path sourceLinkTarget = readSymbolicLink(source);
+        if (mergesIntoExisting()) {
+            BasicFileAttributes destinationAttrs =
+                readAttributesIfExists(destinationPath);
+            if (destinationAttrs != null &&
+                isUnchanged(mode, source, sourceAttrs,
+                    destinationPath, destinationAttrs)) {
+                return;
+            }
+            // Not atomic, but links are cheap to recreate
+            deleteIfExists(destinationPath);
+        } else if (resumed) {
+            deleteIfExists(destinationPath);
+        }
         Files.createSymbolicLink(destinationPath, sourceLinkTarget);
+        syncer.onEntryCreated(destinationPath);
         copiedByteCount.addAndGet(sourceAttrs.size());
         copiedItemCount.incrementAndGet();
     }
 
     private void createDirectory(
         BasicFileAttributes sourceAttrs,
-        Path destinationPath
+        Path destinationPath,
+        boolean resumed
     ) throws IOException {
-        Files.createDirectory(destinationPath);
+        boolean mayExist = resumed || mergesIntoExisting();
+        if (!mayExist || !isDirectory(destinationPath, NOFOLLOW_LINKS)) {
+            Files.createDirectory(destinationPath);
+            syncer.onEntryCreated(destinationPath);
+        }
         copiedByteCount.addAndGet(sourceAttrs.size());
         copiedItemCount.incrementAndGet();
     }
@@ -149,32 +455,60 @@ final class Copy extends Paste {
     private void copyFile(
         Path sourcePath,
         BasicFileAttributes sourceAttrs,
-        Path destinationPath
+        Path destinationPath,
+        boolean resumed
     ) throws IOException {
 
         if (isInterrupted()) {
             return;
         }
 
-        try (InputStream source = newInputStream(sourcePath);
-             OutputStream sink = newOutputStream(destinationPath)) {
+        if (mergesIntoExisting()) {
+            BasicFileAttributes destinationAttrs =
+                readAttributesIfExists(destinationPath);
+            if (destinationAttrs != null) {
+                // Not counted as copied, as it's not counted in the total
+                if (!isUnchanged(mode, sourcePath, sourceAttrs,
+                    destinationPath, destinationAttrs)) {
+                    replaceFile(sourcePath, sourceAttrs, destinationPath);
+                }
+                return;
+            }
+        }
+
+        Journal journal = journal();
+        if (journal != null &&
+            journal.isCompleted(destinationPath, sourceAttrs)) {
+            copiedByteCount.addAndGet(sourceAttrs.size());
+            copiedItemCount.incrementAndGet();
+            return;
+        }
 
+        // Only overwrite files left by a previous run, otherwise fail if the
+        // file exists, a destination name may be taken after it was chosen
+        Set<StandardOpenOption> options = resumed
+            ? EnumSet.of(CREATE, TRUNCATE_EXISTING, WRITE)
+            : EnumSet.of(CREATE_NEW, WRITE);
 
-            // TODO perform sync to disk
-            byte[] buf = new byte[BUFFER_SIZE];
-            int n;
-            while ((n = source.read(buf)) > 0) {
+        long opening = nanoTime();
+        try (FileChannel source = FileChannel.open(sourcePath, READ);
+             FileChannel sink = FileChannel.open(destinationPath, options)) {
 
-                if (isInterrupted()) {
-                    throw new InterruptedIOException();
-                }
+            metrics.recordOpen(nanoTime() - opening);
 
-                sink.write(buf, 0, n);
-                copiedByteCount.addAndGet(n);
-            }
+            long position = transfer(source, sink);
+            copyWithBuffer(source, sink, position);
+            syncer.onFileWritten(sink, destinationPath, sourceAttrs.size());
             copiedItemCount.incrementAndGet();
 
             updateLastModifiedTime(sourceAttrs, destinationPath);
+            if (journal != null) {
+                journal.recordCompleted(destinationPath, sourceAttrs);
+            }
+
+        } catch (FileAlreadyExistsException e) {
+            // Not created by this copy, don't delete
+            throw e;
 
         } catch (IOException e) {
 
@@ -192,6 +526,129 @@ final class Copy extends Paste {
             }
 
         }
+
+        syncer.syncIfFull();
+    }
+
+    /**
+     * Replaces an existing file with a copy of the source, by copying to a
+     * temporary file next to it and renaming that over it, so the existing
+     * file stays intact if the copy fails or is interrupted.
+     */
+    private void replaceFile(
+        Path sourcePath,
+        BasicFileAttributes sourceAttrs,
+        Path destinationPath
+    ) throws IOException {
+
+        Path temp = destinationPath.resolveSibling(
+            "." + destinationPath.getFileName() + "." + randomUUID() + ".tmp");
+
+        long opening = nanoTime();
+        try {
+            try (FileChannel source = FileChannel.open(sourcePath, READ);
+                 FileChannel sink = FileChannel.open(temp, CREATE_NEW, WRITE)) {
+
+                metrics.recordOpen(nanoTime() - opening);
+
+                long position = transfer(source, sink);
+                copyWithBuffer(source, sink, position);
+                syncer.onFileWrittenForReplace(sink);
+            }
+
+            updateLastModifiedTime(sourceAttrs, temp);
+            move(temp, destinationPath, ATOMIC_MOVE);
+            syncer.onEntryCreated(destinationPath);
+            copiedItemCount.incrementAndGet();
+
+            Journal journal = journal();
+            if (journal != null) {
+                journal.recordCompleted(destinationPath, sourceAttrs);
+            }
+
+        } catch (IOException e) {
+
+            try {
+                deleteIfExists(temp);
+            } catch (IOException ex) {
+                Log.w(getClass().getSimpleName(),
+                    "Failed to delete file on failure " + temp, ex
+                );
+            }
+
+            if (!(e instanceof ClosedByInterruptException) &&
+                !(e instanceof InterruptedIOException)) {
+                throw e;
+            }
+        }
+
+        syncer.syncIfFull();
+    }
+
+    /**
+     * Transfers the content of {@code source} in slices, letting the kernel
+     * copy the data without going through user space buffers where
+     * possible. Returns the number of bytes transferred, which is less than
+     * the size of the source if the transfer stopped making progress.
+     */
+    private long transfer(FileChannel source, FileChannel sink)
+        throws IOException {
+
+        long size = source.size();
+        long position = 0;
+        while (position < size) {
+            if (isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+            long slice = throttle.sliceSize(
+                min(TRANSFER_SLICE_SIZE, size - position));
+            throttle.acquire(slice);
+            long n = source.transferTo(position, slice, sink);
+            if (n <= 0) {
+                break;
+            }
+            position += n;
+            copiedByteCount.addAndGet(n);
+        }
+        return position;
+    }
+
+    /**
+     * Copies the rest of {@code source} starting at {@code position} through
+     * a direct buffer, until the end of the source is reached. This is also
+     * needed for when the source has grown since the transfer started.
+     */
+    private void copyWithBuffer(
+        FileChannel source,
+        FileChannel sink,
+        long position
+    ) throws IOException {
+
+        ByteBuffer buf = buffers.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        try {
+            int n;
+            while ((n = source.read(buf, position)) > 0) {
+
+                if (isInterrupted()) {
+                    throw new InterruptedIOException();
+                }
+
+                throttle.acquire(n);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    sink.write(buf);
+                }
+                buf.clear();
+                position += n;
+                copiedByteCount.addAndGet(n);
+            }
+        } finally {
+            buf.clear();
+            buffers.offer(buf);
+        }
     }
 
     private void updateLastModifiedTime(
@@ -0,0 +1,30 @@
+package l.files.operations;
+
+/**
+ * What a copy does when a pasted item has the same name as an item that
+ * already exists at the destination.
+ */
+public enum CopyMode {
+
+    /**
+     * Keep the existing item and give the copy a new name, such as
+     * "a 2".
+     */
+    RENAME,
+
+    /**
+     * Merge directories into the existing ones, skip files that have the
+     * same size and last modified time as the existing file, and replace
+     * the others. For updating an earlier copy, such as a backup, with what
+     * has changed since.
+     */
+    UPDATE,
+
+    /**
+     * Like {@link #UPDATE}, but also compare samples of the content of
+     * files that look unchanged, to catch changes that kept the size and
+     * the last modified time, at the cost of reading parts of both files.
+     */
+    UPDATE_VERIFIED
+
+}
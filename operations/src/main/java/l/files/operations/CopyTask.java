@@ -1,10 +1,14 @@
 package l.files.operations;
 
 import android.os.Handler;
+import androidx.annotation.Nullable;
 
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.concurrent.Future;
 
+import static java.lang.System.nanoTime;
+import static l.files.operations.Metrics.Phase.COPYING;
 import static l.files.operations.TaskKind.COPY;
 
 final class CopyTask extends Task {
@@ -12,13 +16,20 @@ final class CopyTask extends Task {
     private final Size size;
     private final Copy copy;
 
+    @Nullable
+    private final Journal journal;
+
     CopyTask(
         int id,
         Clock clock,
         Callback callback,
         Handler handler,
         Collection<? extends Path> sources,
-        Path destination
+        Path destination,
+        CopyMode mode,
+        Durability durability,
+        Bandwidth bandwidth,
+        @Nullable Journal journal
     ) {
 
         super(
@@ -29,21 +40,55 @@ final class CopyTask extends Task {
             handler
         );
 
-        this.size = new Size(sources);
-        this.copy = new Copy(sources, destination);
+        // Only what needs to be copied counts towards the progress
+        this.size = mode == CopyMode.RENAME
+            ? new Size(sources)
+            : new ChangedSize(sources, destination, mode);
+        this.journal = journal;
+        this.copy = new Copy(
+            sources,
+            destination,
+            true,
+            mode,
+            durability,
+            bandwidth,
+            journal,
+            metrics()
+        );
     }
 
     @Override
     void doTask() throws FileException, InterruptedException {
-        size.execute();
-        copy.execute();
+        if (journal != null) {
+            journal.open();
+        }
+        Future<?> sizing = size.executeAsync(metrics());
+        long start = nanoTime();
+        try {
+            copy.execute();
+        } finally {
+            metrics().addPhaseTime(COPYING, nanoTime() - start);
+            sizing.cancel(true);
+            // Only kept for when the process dies before getting here
+            if (journal != null) {
+                journal.delete();
+            }
+        }
     }
 
     @Override
     TaskState.Running running(TaskState.Running state) {
         return state.running(
-            Progress.normalize(size.getCount(), copy.getCopiedItemCount()),
-            Progress.normalize(size.getSize(), copy.getCopiedByteCount())
+            Progress.normalize(
+                size.getCount(),
+                copy.getCopiedItemCount(),
+                size.isExact()
+            ),
+            Progress.normalize(
+                size.getSize(),
+                copy.getCopiedByteCount(),
+                size.isExact()
+            )
         );
     }
 }
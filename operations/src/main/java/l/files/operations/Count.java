@@ -5,11 +5,25 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static l.files.operations.Metrics.Phase.SIZING;
+
 class Count extends AbstractOperation {
 
+    private static final ExecutorService executor = newCachedThreadPool(
+        runnable -> new Thread(runnable, "Count")
+    );
+
     private final AtomicInteger count = new AtomicInteger();
+    private final Map<Path, Integer> rootCounts = new ConcurrentHashMap<>();
+    private volatile boolean exact;
 
     Count(Collection<? extends Path> sourcePaths) {
         super(sourcePaths);
@@ -19,15 +33,55 @@ class Count extends AbstractOperation {
         return count.get();
     }
 
+    /**
+     * Returns true if every source has been counted without failures, only
+     * then are the counts the totals, otherwise they are lower bounds.
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Returns the count of the given source path, or 0 if it has not been
+     * fully counted yet.
+     */
+    int getCount(Path sourcePath) {
+        return rootCounts.getOrDefault(sourcePath, 0);
+    }
+
+    /**
+     * Counts in the background, so that an operation over the same files
+     * can start straight away, using the growing count as an estimate of
+     * its total. Running ahead of the operation also warms up the file
+     * system caches for the operation's own traversal. Failures end up in
+     * the returned future, and leave the count as an estimate, see
+     * {@link #isExact()}. Cancel the returned future to stop counting. The
+     * time taken is recorded as {@link Metrics.Phase#SIZING}.
+     */
+    final Future<Void> executeAsync(MetricsRecorder metrics) {
+        return executor.submit(() -> {
+            long start = nanoTime();
+            try {
+                execute();
+                // An interrupted walk stops early without failing
+                exact = !isInterrupted();
+                return null;
+            } finally {
+                metrics.addPhaseTime(SIZING, nanoTime() - start);
+            }
+        });
+    }
+
     @Override
     void process(Path path) {
+        int before = count.get();
         traverse(path, new OperationVisitor() {
 
             @Override
             public FileVisitResult preVisitDirectory(
                 Path dir, BasicFileAttributes attrs
             ) throws IOException {
-                count(attrs);
+                count(dir, attrs);
                 return super.preVisitDirectory(dir, attrs);
             }
 
@@ -35,15 +89,28 @@ class Count extends AbstractOperation {
             public FileVisitResult visitFile(
                 Path file, BasicFileAttributes attrs
             ) throws IOException {
-                count(attrs);
+                count(file, attrs);
                 return super.visitFile(file, attrs);
             }
 
-            private void count(BasicFileAttributes attrs) {
-                count.incrementAndGet();
-                onCount(attrs);
+            private void count(Path item, BasicFileAttributes attrs) {
+                if (isCounted(path, item, attrs)) {
+                    count.incrementAndGet();
+                    onCount(attrs);
+                }
             }
         });
+        if (!isInterrupted()) {
+            rootCounts.put(path, count.get() - before);
+        }
+    }
+
+    /**
+     * Returns true if the item found under the given source path should be
+     * counted, all items are by default.
+     */
+    boolean isCounted(Path root, Path item, BasicFileAttributes attrs) {
+        return true;
     }
 
     void onCount(BasicFileAttributes attrs) {
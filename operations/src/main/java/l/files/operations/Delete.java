@@ -1,22 +1,78 @@
 package l.files.operations;
 
+import androidx.annotation.Nullable;
+
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
-import static java.nio.file.Files.readAttributes;
-import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
+/**
+ * Deletes files using a pool of workers while the tree walker lists the
+ * directories, using the attributes from the walker to count the deleted
+ * bytes instead of reading them again. A directory is deleted by whichever
+ * thread finishes last with it, either the walker finishing listing it, or
+ * a worker finishing deleting its last batch of children.
+ */
 final class Delete extends AbstractOperation {
 
+    /**
+     * The number of files of the same directory to delete in a single
+     * task, to keep the overhead of handing the files to the workers small
+     * compared to the cost of deleting them.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * The maximum number of batches queued or being deleted at a time by a
+     * single delete operation.
+     */
+    private static final int MAX_IN_FLIGHT = 16;
+
+    /**
+     * Shared by all delete operations so the number of concurrent deletes
+     * stays bounded regardless of how many delete tasks are running.
+     */
+    private static final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+        4,
+        4,
+        10,
+        SECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> new Thread(runnable, "Delete-worker")
+    );
+
+    static {
+        workers.allowCoreThreadTimeOut(true);
+    }
+
     private final AtomicInteger deletedItemCount = new AtomicInteger();
     private final AtomicLong deletedByteCount = new AtomicLong();
 
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    /**
+     * Failures from the workers, to be recorded by the walker thread as
+     * the failure recorder is not thread safe.
+     */
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean cancelled;
+
     Delete(Collection<? extends Path> sourcePaths) {
         super(sourcePaths);
     }
@@ -29,40 +85,194 @@ final class Delete extends AbstractOperation {
         return deletedByteCount.get();
     }
 
+    /**
+     * A directory being deleted, it can be deleted when the walker has
+     * finished listing it and all its children have been deleted.
+     */
+    private final class Directory {
+
+        final Path path;
+        final long size;
+
+        @Nullable
+        final Directory parent;
+
+        /**
+         * Number of children batches and sub directories not yet deleted,
+         * plus one for the walker until it has finished listing this.
+         */
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        /**
+         * Set if a child can't be deleted, then this can't be deleted
+         * either.
+         */
+        volatile boolean failed;
+
+        /**
+         * Files to be deleted that haven't been handed to the workers, only
+         * accessed by the walker.
+         */
+        final Path[] batchPaths = new Path[BATCH_SIZE];
+        final long[] batchSizes = new long[BATCH_SIZE];
+        int batchCount;
+
+        Directory(Path path, long size, @Nullable Directory parent) {
+            this.path = path;
+            this.size = size;
+            this.parent = parent;
+        }
+
+        void fail() {
+            for (Directory dir = this; dir != null; dir = dir.parent) {
+                dir.failed = true;
+            }
+        }
+
+        void childDeleted() {
+            if (pending.decrementAndGet() == 0) {
+                if (!failed && !cancelled) {
+                    delete(path, size, parent);
+                }
+                if (parent != null) {
+                    parent.childDeleted();
+                }
+            }
+        }
+    }
+
     @Override
     void process(Path path) {
-        traverse(path, new OperationVisitor() {
+        Deque<Directory> dirs = new ArrayDeque<>();
+        try {
+            traverse(path, newVisitor(dirs));
+        } catch (RuntimeException | Error e) {
+            cancelled = true;
+            throw e;
+        } finally {
+            // Wait for the workers to finish with this tree
+            if (isInterrupted()) {
+                cancelled = true;
+            }
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+            inFlight.release(MAX_IN_FLIGHT);
+        }
+        recordFailures();
+    }
+
+    private OperationVisitor newVisitor(Deque<Directory> dirs) {
+        return new OperationVisitor() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(
+                Path dir,
+                BasicFileAttributes attrs
+            ) throws IOException {
+                Directory parent = dirs.peek();
+                if (parent != null) {
+                    parent.pending.incrementAndGet();
+                }
+                dirs.push(new Directory(dir, attrs.size(), parent));
+                return super.preVisitDirectory(dir, attrs);
+            }
 
             @Override
             public FileVisitResult visitFile(
                 Path file,
                 BasicFileAttributes attrs
             ) throws IOException {
-                delete(file);
+                recordFailures();
+                Directory parent = dirs.peek();
+                if (parent == null) {
+                    delete(file, attrs.size(), null);
+                } else {
+                    int i = parent.batchCount++;
+                    parent.batchPaths[i] = file;
+                    parent.batchSizes[i] = attrs.size();
+                    if (parent.batchCount == BATCH_SIZE) {
+                        submit(parent);
+                    }
+                }
                 return super.visitFile(file, attrs);
             }
 
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                Directory parent = dirs.peek();
+                if (parent != null) {
+                    parent.fail();
+                }
+                return super.visitFileFailed(file, e);
+            }
+
             @Override
             public FileVisitResult postVisitDirectory(Path dir, IOException e)
                 throws IOException {
-                if (e == null) {
-                    delete(dir);
+                Directory directory = dirs.pop();
+                if (e != null) {
+                    directory.fail();
                 }
+                if (directory.batchCount > 0) {
+                    submit(directory);
+                }
+                directory.childDeleted();
                 return super.postVisitDirectory(dir, e);
             }
 
-        });
+        };
+    }
+
+    /**
+     * Hands the pending files of the directory to the workers, waiting for
+     * earlier batches to finish first if there are too many in flight.
+     */
+    private void submit(Directory dir) {
+        Path[] paths = Arrays.copyOf(dir.batchPaths, dir.batchCount);
+        long[] sizes = Arrays.copyOf(dir.batchSizes, dir.batchCount);
+        Arrays.fill(dir.batchPaths, null);
+        dir.batchCount = 0;
+        dir.pending.incrementAndGet();
+
+        inFlight.acquireUninterruptibly();
+        try {
+            workers.execute(() -> {
+                try {
+                    for (int i = 0; i < paths.length && !cancelled; i++) {
+                        delete(paths[i], sizes[i], dir);
+                    }
+                    dir.childDeleted();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the file or empty directory. If it fails, the failure will be
+     * recorded and the parent will not be deleted.
+     */
+    private void delete(Path path, long size, @Nullable Directory parent) {
+        try {
+            Files.delete(path);
+            deletedByteCount.addAndGet(size);
+            deletedItemCount.incrementAndGet();
+        } catch (IOException e) {
+            failures.add(Failure.create(path, e));
+            if (parent != null) {
+                parent.fail();
+            }
+        }
     }
 
-    private void delete(Path path) throws IOException {
-        long size = readAttributes(
-            path,
-            BasicFileAttributes.class,
-            NOFOLLOW_LINKS
-        ).size();
-        Files.delete(path);
-        deletedByteCount.addAndGet(size);
-        deletedItemCount.incrementAndGet();
+    private void recordFailures() {
+        Failure failure;
+        while ((failure = failures.poll()) != null) {
+            record(failure.path(), failure.cause());
+        }
     }
 
 }
@@ -4,7 +4,10 @@ import android.os.Handler;
 
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.concurrent.Future;
 
+import static java.lang.System.nanoTime;
+import static l.files.operations.Metrics.Phase.DELETING;
 import static l.files.operations.TaskKind.DELETE;
 
 final class DeleteTask extends Task {
@@ -33,15 +36,29 @@ final class DeleteTask extends Task {
 
     @Override
     void doTask() throws FileException, InterruptedException {
-        count.execute();
-        delete.execute();
+        Future<?> sizing = count.executeAsync(metrics());
+        long start = nanoTime();
+        try {
+            delete.execute();
+        } finally {
+            metrics().addPhaseTime(DELETING, nanoTime() - start);
+            sizing.cancel(true);
+        }
     }
 
     @Override
     TaskState.Running running(TaskState.Running state) {
         return state.running(
-            Progress.normalize(count.getCount(), delete.getDeletedItemCount()),
-            Progress.normalize(count.getSize(), delete.getDeletedByteCount())
+            Progress.normalize(
+                count.getCount(),
+                delete.getDeletedItemCount(),
+                count.isExact()
+            ),
+            Progress.normalize(
+                count.getSize(),
+                delete.getDeletedByteCount(),
+                count.isExact()
+            )
         );
     }
 
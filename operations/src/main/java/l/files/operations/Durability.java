@@ -0,0 +1,29 @@
+package l.files.operations;
+
+/**
+ * How much effort to make to have pasted items written to storage before
+ * considering them done, instead of leaving it to the system to write them
+ * out eventually, such as before a removable storage is pulled out.
+ */
+public enum Durability {
+
+    /**
+     * Never sync, fastest, but items may be lost or incomplete if the
+     * storage is removed or the device loses power soon after.
+     */
+    NONE,
+
+    /**
+     * Sync files and their parent directories in batches, bounded by the
+     * number of files and bytes written since the last sync, and at the
+     * end of the operation.
+     */
+    GROUP_COMMIT,
+
+    /**
+     * Sync each file and its parent directory as soon as it's written,
+     * slowest, especially for many small files.
+     */
+    PER_FILE
+
+}
@@ -0,0 +1,456 @@
+package l.files.operations;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
+
+import static java.lang.System.nanoTime;
+import static java.lang.Thread.currentThread;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createSymbolicLink;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.isSymbolicLink;
+import static java.nio.file.Files.setLastModifiedTime;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Extracts each ZIP archive into a new directory named after the archive
+ * in the destination directory, such as "a.zip" into "a", or "a 2" if "a"
+ * exists.
+ * <p>
+ * Entries are extracted in the order of the archive's central directory,
+ * which is read as it goes. As with a pipelined copy, small files are
+ * extracted concurrently by a pool of workers, hiding the latency of
+ * creating them, while larger files are extracted one at a time by the
+ * thread going through the entries. Entries that would end up outside of
+ * the directory are reported as failures. Symbolic links are created last,
+ * so no entry is ever written through a link from the archive, and a link
+ * under another link from the archive is reported as a failure.
+ */
+final class Extract extends AbstractOperation {
+
+    /**
+     * Files smaller than this are extracted by the workers.
+     */
+    private static final long PIPELINE_MAX_FILE_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum number of files queued or being extracted by the workers
+     * at a time by a single extract operation.
+     */
+    private static final int PIPELINE_MAX_IN_FLIGHT = 64;
+
+    /**
+     * Longer link targets are rejected rather than read into memory, this
+     * is PATH_MAX on Linux.
+     */
+    private static final long MAX_LINK_TARGET_SIZE = 4096;
+
+    /**
+     * Shared by all extract operations so the number of concurrent file
+     * writes stays bounded regardless of how many extract tasks are
+     * running.
+     */
+    private static final ThreadPoolExecutor workers = new ThreadPoolExecutor(
+        4,
+        4,
+        10,
+        SECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> new Thread(runnable, "Extract-worker")
+    );
+
+    static {
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    private final AtomicInteger totalItemCount = new AtomicInteger();
+    private final AtomicLong totalByteCount = new AtomicLong();
+    private final AtomicInteger extractedItemCount = new AtomicInteger();
+    private final AtomicLong extractedByteCount = new AtomicLong();
+
+    private final Path destinationDir;
+    private final Syncer syncer;
+    private final MetricsRecorder metrics;
+
+    /**
+     * Failures from the workers, to be recorded by the calling thread as
+     * the failure recorder is not thread safe.
+     */
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+    Extract(Collection<? extends Path> archives, Path destinationDir) {
+        this(
+            archives,
+            destinationDir,
+            Durability.NONE,
+            new MetricsRecorder()
+        );
+    }
+
+    /**
+     * @param durability how to sync the extracted items to storage
+     * @param metrics    records the time spent syncing and creating files
+     */
+    Extract(
+        Collection<? extends Path> archives,
+        Path destinationDir,
+        Durability durability,
+        MetricsRecorder metrics
+    ) {
+        super(archives);
+        this.destinationDir = requireNonNull(destinationDir);
+        this.syncer = new Syncer(durability, metrics);
+        this.metrics = requireNonNull(metrics);
+    }
+
+    /**
+     * The number of entries in the archives opened so far, known as soon
+     * as an archive is opened, from its central directory.
+     */
+    int getTotalItemCount() {
+        return totalItemCount.get();
+    }
+
+    /**
+     * The uncompressed size of the entries in the archives opened so far.
+     */
+    long getTotalByteCount() {
+        return totalByteCount.get();
+    }
+
+    int getExtractedItemCount() {
+        return extractedItemCount.get();
+    }
+
+    long getExtractedByteCount() {
+        return extractedByteCount.get();
+    }
+
+    @Override
+    void process(Path archive) throws InterruptedException {
+        checkInterrupt();
+        try (ZipReader reader = ZipReader.open(archive)) {
+            addTotals(reader);
+            Path root = createRoot(archive);
+            syncer.onEntryCreated(root);
+            extract(archive, reader, root);
+        } catch (IOException e) {
+            record(archive, e);
+        }
+        recordFailures();
+    }
+
+    private void addTotals(ZipReader reader) throws IOException {
+        ZipReader.Entries entries = reader.entries();
+        long bytes = 0;
+        for (ZipReader.Entry entry; (entry = entries.next()) != null; ) {
+            if (!entry.isDirectory() && !entry.isSymbolicLink()) {
+                bytes += entry.size();
+            }
+        }
+        totalItemCount.addAndGet((int) reader.entryCount());
+        totalByteCount.addAndGet(bytes);
+    }
+
+    private Path createRoot(Path archive) throws IOException {
+        String name = archive.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        for (int i = 1; ; i++) {
+            Path root = destinationDir.resolve(i == 1 ? base : base + " " + i);
+            try {
+                return Files.createDirectory(root);
+            } catch (FileAlreadyExistsException e) {
+                // Try the next name
+            }
+        }
+    }
+
+    private void extract(Path archive, ZipReader reader, Path root)
+        throws IOException {
+
+        Deque<Future<?>> pending = new ArrayDeque<>();
+        List<Path> dirs = new ArrayList<>();
+        List<FileTime> dirTimes = new ArrayList<>();
+        List<ZipReader.Entry> links = new ArrayList<>();
+        List<Path> linkPaths = new ArrayList<>();
+        try {
+
+            ZipReader.Entries entries = reader.entries();
+            for (ZipReader.Entry entry; (entry = entries.next()) != null; ) {
+                if (isInterrupted()) {
+                    return;
+                }
+                recordFailures();
+
+                Path path = resolve(root, entry.name());
+                if (path == null) {
+                    record(archive, new ZipException(
+                        "Entry outside of destination: " + entry.name()));
+                    continue;
+                }
+
+                if (entry.isDirectory()) {
+                    try {
+                        createDirectories(path);
+                        syncer.onEntryCreated(path);
+                        extractedItemCount.incrementAndGet();
+                        long time = entry.lastModifiedMillis();
+                        if (time != -1) {
+                            dirs.add(path);
+                            dirTimes.add(FileTime.fromMillis(time));
+                        }
+                    } catch (IOException e) {
+                        record(path, e);
+                    }
+
+                } else if (entry.isSymbolicLink()) {
+                    links.add(entry);
+                    linkPaths.add(path);
+
+                } else if (entry.size() < PIPELINE_MAX_FILE_SIZE) {
+                    submit(pending, reader, entry, path);
+
+                } else {
+                    try {
+                        extractFile(reader, entry, path);
+                    } catch (IOException e) {
+                        record(path, e);
+                    }
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                if (!await(pending.poll())) {
+                    return;
+                }
+            }
+
+        } finally {
+            for (Future<?> future : pending) {
+                future.cancel(true);
+            }
+        }
+
+        for (int i = 0; i < links.size() && !isInterrupted(); i++) {
+            try {
+                extractLink(reader, root, links.get(i), linkPaths.get(i));
+            } catch (IOException e) {
+                record(linkPaths.get(i), e);
+            }
+        }
+
+        // Done last, as creating items in a directory changes its last
+        // modified time
+        for (int i = 0; i < dirs.size() && !isInterrupted(); i++) {
+            try {
+                setLastModifiedTime(dirs.get(i), dirTimes.get(i));
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(),
+                    "Failed to set last modified time " + dirs.get(i), e);
+            }
+        }
+
+        syncer.sync();
+    }
+
+    /**
+     * Resolves the entry name against the root, returns null if it would
+     * end up outside of the root, such as with ".." or an absolute path.
+     */
+    @Nullable
+    static Path resolve(Path root, String name) {
+        if (name.startsWith("/") || name.indexOf('\0') != -1) {
+            return null;
+        }
+        Path path = root;
+        for (String segment : name.split("/")) {
+            if (segment.equals("..")) {
+                return null;
+            }
+            if (!segment.isEmpty() && !segment.equals(".")) {
+                path = path.resolve(segment);
+            }
+        }
+        return path.equals(root) ? null : path;
+    }
+
+    /**
+     * Submits the file to be extracted by the worker pool, waiting for
+     * earlier files to finish first if there are too many in flight.
+     */
+    private void submit(
+        Deque<Future<?>> pending,
+        ZipReader reader,
+        ZipReader.Entry entry,
+        Path path
+    ) throws IOException {
+
+        while (pending.size() >= PIPELINE_MAX_IN_FLIGHT) {
+            if (!await(pending.poll())) {
+                return;
+            }
+        }
+
+        pending.add(workers.submit(() -> {
+            try {
+                extractFile(reader, entry, path);
+            } catch (IOException e) {
+                failures.add(Failure.create(path, e));
+            }
+        }));
+    }
+
+    /**
+     * Waits for the extraction to finish. Returns false if interrupted
+     * while waiting, with the interrupt status of the calling thread set.
+     */
+    private boolean await(Future<?> future) {
+        try {
+            future.get();
+            return true;
+        } catch (InterruptedException e) {
+            currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void recordFailures() {
+        for (Failure failure; (failure = failures.poll()) != null; ) {
+            record(failure.path(), failure.cause());
+        }
+        for (Failure failure : syncer.takeFailures()) {
+            record(failure.path(), failure.cause());
+        }
+    }
+
+    /**
+     * Extracts the file, if interrupted, returns without the file being
+     * extracted.
+     */
+    private void extractFile(
+        ZipReader reader,
+        ZipReader.Entry entry,
+        Path path
+    ) throws IOException {
+
+        if (isInterrupted()) {
+            return;
+        }
+
+        createDirectories(path.getParent());
+
+        long opening = nanoTime();
+        try (FileChannel sink = FileChannel.open(path, CREATE_NEW, WRITE)) {
+
+            metrics.recordOpen(nanoTime() - opening);
+            reader.extract(entry, sink, extractedByteCount);
+            syncer.onFileWritten(sink, path, entry.size());
+            extractedItemCount.incrementAndGet();
+
+        } catch (FileAlreadyExistsException e) {
+            // Such as a duplicate entry, not created by this
+            throw e;
+
+        } catch (IOException e) {
+
+            try {
+                deleteIfExists(path);
+            } catch (IOException ex) {
+                Log.w(getClass().getSimpleName(),
+                    "Failed to delete file on failure " + path, ex);
+            }
+
+            if (!(e instanceof ClosedByInterruptException) &&
+                !(e instanceof InterruptedIOException)) {
+                throw e;
+            }
+            return;
+        }
+
+        long time = entry.lastModifiedMillis();
+        if (time != -1) {
+            try {
+                setLastModifiedTime(path, FileTime.fromMillis(time));
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(),
+                    "Failed to set last modified time " + path, e);
+            }
+        }
+
+        syncer.syncIfFull();
+    }
+
+    private void extractLink(
+        ZipReader reader,
+        Path root,
+        ZipReader.Entry entry,
+        Path path
+    ) throws IOException {
+        if (entry.size() > MAX_LINK_TARGET_SIZE) {
+            throw new ZipException("Link target too long: " + entry.name());
+        }
+        // Links are created in the order of the archive, an earlier one may
+        // be a parent of this one, creating this one would then follow it
+        // to wherever it points
+        Path relative = root.relativize(path);
+        Path parent = root;
+        for (int i = 0; i < relative.getNameCount() - 1; i++) {
+            parent = parent.resolve(relative.getName(i));
+            if (isSymbolicLink(parent)) {
+                throw new ZipException("Entry under a link: " + entry.name());
+            }
+        }
+        // The reader writes no more than the size of the entry
+        ByteArrayOutputStream target =
+            new ByteArrayOutputStream((int) entry.size());
+        reader.extract(entry, Channels.newChannel(target), new AtomicLong());
+        createDirectories(path.getParent());
+        createSymbolicLink(path, Paths.get(new String(
+            target.toByteArray(),
+            UTF_8
+        )));
+        syncer.onEntryCreated(path);
+        extractedItemCount.incrementAndGet();
+    }
+
+}
@@ -0,0 +1,65 @@
+package l.files.operations;
+
+import android.os.Handler;
+
+import java.nio.file.Path;
+import java.util.Collection;
+
+import static java.lang.System.nanoTime;
+import static l.files.operations.Metrics.Phase.EXTRACTING;
+import static l.files.operations.TaskKind.EXTRACT;
+
+final class ExtractTask extends Task {
+
+    private final Extract extract;
+
+    ExtractTask(
+        int id,
+        Clock clock,
+        Callback callback,
+        Handler handler,
+        Collection<? extends Path> archives,
+        Path destination,
+        Durability durability
+    ) {
+        super(
+            TaskId.create(id, EXTRACT),
+            Target.from(archives, destination),
+            clock,
+            callback,
+            handler
+        );
+
+        this.extract = new Extract(
+            archives,
+            destination,
+            durability,
+            metrics()
+        );
+    }
+
+    @Override
+    void doTask() throws FileException, InterruptedException {
+        long start = nanoTime();
+        try {
+            extract.execute();
+        } finally {
+            metrics().addPhaseTime(EXTRACTING, nanoTime() - start);
+        }
+    }
+
+    @Override
+    TaskState.Running running(TaskState.Running state) {
+        // The totals come from the central directories, no need to size
+        return state.running(
+            Progress.normalize(
+                extract.getTotalItemCount(),
+                extract.getExtractedItemCount()
+            ),
+            Progress.normalize(
+                extract.getTotalByteCount(),
+                extract.getExtractedByteCount()
+            )
+        );
+    }
+}
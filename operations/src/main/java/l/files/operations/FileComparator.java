@@ -0,0 +1,138 @@
+package l.files.operations;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.min;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.readSymbolicLink;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Decides whether an existing item at the destination of a copy in {@link
+ * CopyMode#UPDATE} mode is already a copy of its source.
+ */
+final class FileComparator {
+
+    /**
+     * FAT file systems, common on SD cards, store last modified times in
+     * units of two seconds.
+     */
+    static final long MODIFIED_TIME_TOLERANCE_MILLIS = 2000;
+
+    /**
+     * For {@link CopyMode#UPDATE_VERIFIED}, the number of blocks compared,
+     * evenly spaced from the start to the end of the files.
+     */
+    static final int SAMPLE_COUNT = 4;
+
+    static final int SAMPLE_SIZE = 1024 * 4;
+
+    private FileComparator() {
+    }
+
+    /**
+     * Returns the attributes of the path without following links, or null
+     * if it doesn't exist.
+     */
+    @Nullable
+    static BasicFileAttributes readAttributesIfExists(Path path)
+        throws IOException {
+        try {
+            return readAttributes(
+                path,
+                BasicFileAttributes.class,
+                NOFOLLOW_LINKS
+            );
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the destination doesn't need to be copied over again.
+     * Directories are never unchanged, as their content needs to be
+     * compared item by item.
+     */
+    static boolean isUnchanged(
+        CopyMode mode,
+        Path source,
+        BasicFileAttributes sourceAttrs,
+        Path destination,
+        BasicFileAttributes destinationAttrs
+    ) throws IOException {
+
+        if (sourceAttrs.isSymbolicLink()) {
+            return destinationAttrs.isSymbolicLink() &&
+                readSymbolicLink(source).equals(readSymbolicLink(destination));
+        }
+
+        if (!sourceAttrs.isRegularFile() ||
+            !destinationAttrs.isRegularFile() ||
+            sourceAttrs.size() != destinationAttrs.size()) {
+            return false;
+        }
+
+        long sourceTime = sourceAttrs.lastModifiedTime().toMillis();
+        long destinationTime = destinationAttrs.lastModifiedTime().toMillis();
+        if (abs(sourceTime - destinationTime) >=
+            MODIFIED_TIME_TOLERANCE_MILLIS) {
+            return false;
+        }
+
+        return mode != CopyMode.UPDATE_VERIFIED ||
+            samplesEqual(source, destination, sourceAttrs.size());
+    }
+
+    private static boolean samplesEqual(Path a, Path b, long size)
+        throws IOException {
+
+        ByteBuffer bufferA = ByteBuffer.allocate(SAMPLE_SIZE);
+        ByteBuffer bufferB = ByteBuffer.allocate(SAMPLE_SIZE);
+        try (FileChannel channelA = FileChannel.open(a, READ);
+             FileChannel channelB = FileChannel.open(b, READ)) {
+
+            long last = Math.max(0, size - SAMPLE_SIZE);
+            for (int i = 0; i < SAMPLE_COUNT; i++) {
+                long position = last * i / (SAMPLE_COUNT - 1);
+                int length = (int) min(SAMPLE_SIZE, size - position);
+                if (!read(channelA, bufferA, position, length) ||
+                    !read(channelB, bufferB, position, length) ||
+                    !bufferA.equals(bufferB)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the given number of bytes at the position into the buffer,
+     * returns false if the file ends before that.
+     */
+    private static boolean read(
+        FileChannel channel,
+        ByteBuffer buffer,
+        long position,
+        int length
+    ) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+}
@@ -0,0 +1,347 @@
+package l.files.operations;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.lang.System.nanoTime;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.newInputStream;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Append-only record of the progress of a paste operation, so that if the
+ * process dies, the operation can be started again and pick up from where
+ * it was, instead of starting over.
+ * <p>
+ * Records the destination chosen for each source, and each file that has
+ * been completely copied, along with the size and last modified time of its
+ * source. When resumed, files that have been recorded and not changed since
+ * are skipped, other files are copied again, truncating any partial copy.
+ * <p>
+ * Records are buffered and written in batches, at most a second apart,
+ * losing the last batch only means copying those files again. Failure to
+ * write the journal doesn't fail the operation, it only disables resuming
+ * it.
+ */
+final class Journal implements Closeable {
+
+    private static final byte DESTINATION = 'D';
+    private static final byte COMPLETED = 'C';
+
+    private static final int BUFFER_SIZE = 1024 * 64;
+
+    /**
+     * Two paths of at most 64 KB each in modified UTF-8 plus the fixed size
+     * fields, anything larger is corrupted.
+     */
+    private static final int MAX_RECORD_SIZE = 1024 * 129;
+
+    /**
+     * The maximum time a record stays in the buffer, when records are not
+     * written fast enough to fill it up. Records that are not followed by
+     * another within this time are flushed by {@link #flusher}.
+     */
+    private static final long FLUSH_INTERVAL_NANOS = SECONDS.toNanos(1);
+
+    /**
+     * Shared by all journals, flushes are short and infrequent.
+     */
+    private static final ScheduledExecutorService flusher =
+        newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private static final class Completion {
+        final long size;
+        final long lastModifiedMillis;
+
+        Completion(long size, long lastModifiedMillis) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+        }
+    }
+
+    private final Path file;
+
+    /**
+     * Recovered from the existing journal when opened, not updated by new
+     * records as each source and file is only processed once per run.
+     */
+    private final Map<Path, Path> destinations = new HashMap<>();
+    private final Map<Path, Completion> completions = new HashMap<>();
+
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    @Nullable
+    private DataOutputStream out;
+    private long lastFlushNanos;
+    private boolean flushScheduled;
+    private boolean resumed;
+
+    Journal(Path file) {
+        this.file = requireNonNull(file);
+    }
+
+    /**
+     * Reads the existing records, if any, and prepares for appending new
+     * ones. Must be called before anything else. If the journal can't be
+     * read, the operation will start over.
+     */
+    synchronized void open() {
+        try {
+            long length = read();
+            try (FileChannel channel = FileChannel.open(file, CREATE, WRITE)) {
+                // Remove the last record if it was partially written
+                if (channel.size() > length) {
+                    channel.truncate(length);
+                }
+            }
+            out = new DataOutputStream(new BufferedOutputStream(
+                newOutputStream(file, CREATE, APPEND),
+                BUFFER_SIZE
+            ));
+            lastFlushNanos = nanoTime();
+            resumed = !destinations.isEmpty();
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to open " + file, e);
+            destinations.clear();
+            completions.clear();
+            resumed = false;
+        }
+    }
+
+    /**
+     * Reads all complete records, returns the length of the file they take
+     * up, excluding the trailing partial record if any.
+     */
+    private long read() throws IOException {
+        long length = 0;
+        try (InputStream in = newInputStream(file)) {
+            DataInputStream data = new DataInputStream(
+                new BufferedInputStream(in, BUFFER_SIZE));
+            while (true) {
+                byte[] bytes;
+                try {
+                    int size = data.readInt();
+                    if (size <= 0 || size > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    bytes = new byte[size];
+                    data.readFully(bytes);
+                } catch (EOFException e) {
+                    break;
+                }
+                readRecord(new DataInputStream(
+                    new ByteArrayInputStream(bytes)));
+                length += Integer.BYTES + bytes.length;
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        return length;
+    }
+
+    private void readRecord(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == DESTINATION) {
+            Path source = Paths.get(in.readUTF());
+            destinations.put(source, Paths.get(in.readUTF()));
+        } else if (type == COMPLETED) {
+            Path destination = Paths.get(in.readUTF());
+            completions.put(
+                destination,
+                new Completion(in.readLong(), in.readLong())
+            );
+        } else {
+            throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * True if the journal has records from a previous run. Destination files
+     * may exist from that run, and can be overwritten.
+     */
+    synchronized boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Returns the destination recorded for the source from a previous run,
+     * or null if none.
+     */
+    @Nullable
+    synchronized Path getDestination(Path source) {
+        return destinations.get(source);
+    }
+
+    /**
+     * Records the destination chosen for the source, written immediately as
+     * it's needed to find the partially copied items again.
+     */
+    synchronized void recordDestination(Path source, Path destination) {
+        try {
+            recordOut.writeByte(DESTINATION);
+            recordOut.writeUTF(source.toString());
+            recordOut.writeUTF(destination.toString());
+            append();
+            flush();
+        } catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    /**
+     * True if the destination has been recorded as completely copied from a
+     * source with the same size and last modified time as the given one.
+     */
+    boolean isCompleted(Path destination, BasicFileAttributes sourceAttrs) {
+        Completion completion;
+        synchronized (this) {
+            completion = completions.get(destination);
+        }
+        if (completion == null ||
+            completion.size != sourceAttrs.size() ||
+            completion.lastModifiedMillis !=
+                sourceAttrs.lastModifiedTime().toMillis()) {
+            return false;
+        }
+        try {
+            return readAttributes(
+                destination,
+                BasicFileAttributes.class,
+                NOFOLLOW_LINKS
+            ).size() == completion.size;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records the destination as completely copied from a source with the
+     * given attributes.
+     */
+    synchronized void recordCompleted(
+        Path destination,
+        BasicFileAttributes sourceAttrs
+    ) {
+        try {
+            recordOut.writeByte(COMPLETED);
+            recordOut.writeUTF(destination.toString());
+            recordOut.writeLong(sourceAttrs.size());
+            recordOut.writeLong(sourceAttrs.lastModifiedTime().toMillis());
+            append();
+            long elapsed = nanoTime() - lastFlushNanos;
+            if (elapsed >= FLUSH_INTERVAL_NANOS) {
+                flush();
+            } else if (!flushScheduled && out != null) {
+                flushScheduled = true;
+                flusher.schedule(
+                    this::scheduledFlush,
+                    FLUSH_INTERVAL_NANOS - elapsed,
+                    NANOSECONDS
+                );
+            }
+        } catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    private synchronized void scheduledFlush() {
+        flushScheduled = false;
+        try {
+            flush();
+        } catch (IOException e) {
+            disable(e);
+        }
+    }
+
+    private void append() throws IOException {
+        try {
+            if (out != null) {
+                out.writeInt(record.size());
+                record.writeTo(out);
+            }
+        } finally {
+            record.reset();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+            lastFlushNanos = nanoTime();
+        }
+    }
+
+    private void disable(IOException e) {
+        Log.w(getClass().getSimpleName(), "Failed to write " + file, e);
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        OutputStream stream = out;
+        out = null;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Failed to close " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Writes out the buffered records, the journal can't be written after
+     * this.
+     */
+    @Override
+    public synchronized void close() {
+        closeQuietly();
+    }
+
+    /**
+     * Closes and deletes the journal, for when the operation has finished
+     * and will not need to be resumed.
+     */
+    synchronized void delete() {
+        closeQuietly();
+        try {
+            deleteIfExists(file);
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to delete " + file, e);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package l.files.operations;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Counts of latencies in power of two buckets of microseconds. Bucket 0
+ * counts latencies under a microsecond, bucket {@code i} counts latencies
+ * from {@code 2^(i-1)} up to {@code 2^i} microseconds, and the last bucket
+ * counts everything longer than that.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The last bucket starts at about 8 seconds.
+     */
+    public static final int BUCKET_COUNT = 25;
+
+    public static final LatencyHistogram EMPTY =
+        new LatencyHistogram(new long[BUCKET_COUNT]);
+
+    private final long[] counts;
+
+    LatencyHistogram(long[] counts) {
+        if (counts.length != BUCKET_COUNT) {
+            throw new IllegalArgumentException("length=" + counts.length);
+        }
+        this.counts = counts.clone();
+    }
+
+    static int bucketOf(long micros) {
+        int bucket = Long.SIZE - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * The exclusive upper bound of the bucket, {@link Long#MAX_VALUE} for
+     * the last bucket.
+     */
+    public static long bucketUpperBoundMicros(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long count(int bucket) {
+        return counts[bucket];
+    }
+
+    public long totalCount() {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the upper bound of the bucket the given percentile of
+     * latencies falls into, or 0 if nothing has been recorded.
+     *
+     * @param percentile between 0 and 100
+     */
+    public long percentileMicros(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile=" + percentile);
+        }
+        long total = totalCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketUpperBoundMicros(i);
+            }
+        }
+        throw new AssertionError();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return Arrays.equals(counts, ((LatencyHistogram) o).counts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(counts);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{" +
+            "count=" + totalCount() +
+            ", p50=" + percentileMicros(50) + "us" +
+            ", p90=" + percentileMicros(90) + "us" +
+            ", p99=" + percentileMicros(99) + "us" +
+            '}';
+    }
+
+}
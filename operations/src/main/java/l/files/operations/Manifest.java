@@ -0,0 +1,240 @@
+package l.files.operations;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newInputStream;
+import static java.nio.file.Files.newOutputStream;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The source paths of a task, stored in a file instead of in the intent
+ * starting the task, as an intent has a size limit that large selections
+ * go over.
+ * <p>
+ * Each path is stored as the number of leading bytes it shares with the
+ * previous path, followed by the rest of it, so paths from the same
+ * directory take little space. The paths are read from the file each time
+ * this is iterated, instead of being kept in memory.
+ */
+final class Manifest extends AbstractCollection<Path> {
+
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int ENTRY_HEADER_SIZE = Short.BYTES * 2;
+
+    /**
+     * Far longer than any path the system supports, the limit is so that an
+     * entry always fits in the read buffer.
+     */
+    private static final int MAX_PATH_BYTES = 1024 * 32;
+
+    private static final int BUFFER_SIZE = 1024 * 64;
+
+    private final Path file;
+    private final int size;
+
+    private Manifest(Path file, int size) {
+        this.file = requireNonNull(file);
+        this.size = size;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the distinct paths to a new file.
+     */
+    static Manifest write(Path file, Collection<? extends Path> paths)
+        throws IOException {
+
+        Set<? extends Path> distinct = paths instanceof Set
+            ? (Set<? extends Path>) paths
+            : new LinkedHashSet<>(paths);
+
+        int size = 0;
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(
+                newOutputStream(file, CREATE_NEW, WRITE),
+                BUFFER_SIZE
+            ))) {
+
+            out.writeInt(VERSION);
+            out.writeInt(distinct.size());
+            byte[] previous = new byte[0];
+            for (Path path : distinct) {
+                byte[] bytes = path.toString().getBytes(UTF_8);
+                if (bytes.length > MAX_PATH_BYTES) {
+                    throw new IOException("Path too long: " + path);
+                }
+                int shared = sharedPrefixLength(previous, bytes);
+                out.writeShort(shared);
+                out.writeShort(bytes.length - shared);
+                out.write(bytes, shared, bytes.length - shared);
+                previous = bytes;
+                size++;
+            }
+        }
+
+        if (size != distinct.size()) {
+            throw new IllegalStateException(
+                "Paths changed while being written");
+        }
+        return new Manifest(file, size);
+    }
+
+    private static int sharedPrefixLength(byte[] a, byte[] b) {
+        int length = min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Opens an existing manifest, reading only its header.
+     */
+    static Manifest read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(newInputStream(file))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Invalid size " + size);
+            }
+            return new Manifest(file, size);
+        }
+    }
+
+    /**
+     * Iterates the paths by reading the file a block at a time, the file is
+     * only kept open while a block is being read, so an iterator that is
+     * not run to the end doesn't leave it open.
+     *
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override
+    public Iterator<Path> iterator() {
+        return new Iterator<Path>() {
+
+            private final ByteBuffer buffer =
+                (ByteBuffer) ByteBuffer.allocate(BUFFER_SIZE).flip();
+
+            private byte[] path = new byte[256];
+            private long offset = HEADER_SIZE;
+            private int remaining = size;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                require(ENTRY_HEADER_SIZE);
+                int position = buffer.position();
+                int shared = buffer.getShort(position) & 0xffff;
+                int suffix = buffer.getShort(position + Short.BYTES) & 0xffff;
+                require(ENTRY_HEADER_SIZE + suffix);
+
+                int length = shared + suffix;
+                if (length > path.length) {
+                    path = Arrays.copyOf(path, max(length, path.length * 2));
+                }
+                buffer.position(buffer.position() + ENTRY_HEADER_SIZE);
+                buffer.get(path, shared, suffix);
+                remaining--;
+                return Paths.get(new String(path, 0, length, UTF_8));
+            }
+
+            /**
+             * Ensures the buffer has at least the given number of bytes
+             * remaining, reading more of the file if needed.
+             */
+            private void require(int bytes) {
+                if (buffer.remaining() >= bytes) {
+                    return;
+                }
+                buffer.compact();
+                try (FileChannel channel = FileChannel.open(file, READ)) {
+                    while (buffer.hasRemaining()) {
+                        int n = channel.read(buffer, offset);
+                        if (n < 0) {
+                            break;
+                        }
+                        offset += n;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    buffer.flip();
+                }
+                if (buffer.remaining() < bytes) {
+                    throw new UncheckedIOException(
+                        new IOException("Truncated manifest " + file));
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Manifest that = (Manifest) o;
+        return size == that.size && file.equals(that.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * file.hashCode() + size;
+    }
+
+    @Override
+    public String toString() {
+        return "Manifest{" +
+            "file=" + file +
+            ", size=" + size +
+            '}';
+    }
+
+}
@@ -0,0 +1,149 @@
+package l.files.operations;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Measurements of a running task, for estimating its remaining time and
+ * for finding slow storage.
+ */
+public final class Metrics {
+
+    /**
+     * Parts of a task that are timed separately. Phases may run at the same
+     * time, such as sizing while copying, so their times may add up to more
+     * than the time the task has been running for.
+     */
+    public enum Phase {
+        SIZING,
+        COPYING,
+        MOVING,
+        SYNCING,
+        DELETING,
+        COMPRESSING,
+        EXTRACTING,
+    }
+
+    public static final Metrics NONE = new Metrics(
+        0,
+        0,
+        new long[Phase.values().length],
+        LatencyHistogram.EMPTY
+    );
+
+    private final double bytesPerSecond;
+    private final double itemsPerSecond;
+    private final long[] phaseNanos;
+    private final LatencyHistogram openLatency;
+
+    Metrics(
+        double bytesPerSecond,
+        double itemsPerSecond,
+        long[] phaseNanos,
+        LatencyHistogram openLatency
+    ) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.itemsPerSecond = itemsPerSecond;
+        this.phaseNanos = phaseNanos.clone();
+        this.openLatency = requireNonNull(openLatency);
+    }
+
+    /**
+     * Creates metrics with the given rates and nothing else measured.
+     */
+    public static Metrics create(double bytesPerSecond, double itemsPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException(
+                "bytesPerSecond=" + bytesPerSecond);
+        }
+        if (itemsPerSecond < 0) {
+            throw new IllegalArgumentException(
+                "itemsPerSecond=" + itemsPerSecond);
+        }
+        return new Metrics(
+            bytesPerSecond,
+            itemsPerSecond,
+            new long[Phase.values().length],
+            LatencyHistogram.EMPTY
+        );
+    }
+
+    /**
+     * Recent rate of bytes processed, weighted towards the last few
+     * seconds, so it follows changes such as going from large files to
+     * small ones. 0 if not known yet.
+     */
+    public double bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Recent rate of items processed, weighted the same way as {@link
+     * #bytesPerSecond()}. 0 if not known yet.
+     */
+    public double itemsPerSecond() {
+        return itemsPerSecond;
+    }
+
+    /**
+     * Time spent in the given phase so far.
+     */
+    public long phaseMillis(Phase phase) {
+        return NANOSECONDS.toMillis(phaseNanos[phase.ordinal()]);
+    }
+
+    /**
+     * Time taken to open the source and create the destination of each
+     * file whose content has been copied.
+     */
+    public LatencyHistogram openLatency() {
+        return openLatency;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Metrics that = (Metrics) o;
+        return Double.compare(bytesPerSecond, that.bytesPerSecond) == 0 &&
+            Double.compare(itemsPerSecond, that.itemsPerSecond) == 0 &&
+            Arrays.equals(phaseNanos, that.phaseNanos) &&
+            openLatency.equals(that.openLatency);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(bytesPerSecond);
+        result = 31 * result + Double.hashCode(itemsPerSecond);
+        result = 31 * result + Arrays.hashCode(phaseNanos);
+        result = 31 * result + openLatency.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Metrics{")
+            .append("bytesPerSecond=").append((long) bytesPerSecond)
+            .append(", itemsPerSecond=").append((long) itemsPerSecond);
+        for (Phase phase : Phase.values()) {
+            long millis = phaseMillis(phase);
+            if (millis > 0) {
+                builder.append(", ").append(phase).append('=')
+                    .append(millis).append("ms");
+            }
+        }
+        return builder
+            .append(", openLatency=").append(openLatency)
+            .append('}')
+            .toString();
+    }
+
+}
@@ -0,0 +1,122 @@
+package l.files.operations;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.Math.exp;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Collects the {@link Metrics} of a task from the operations it runs.
+ * Thread safe, recording is cheap enough to be done for each file.
+ */
+final class MetricsRecorder {
+
+    /**
+     * How quickly the rates follow changes, a sample this old has about a
+     * third of the weight of the latest one.
+     */
+    static final long RATE_TIME_CONSTANT_NANOS = SECONDS.toNanos(5);
+
+    private static final double NANOS_PER_SECOND = SECONDS.toNanos(1);
+
+    private final LongAdder[] phaseNanos =
+        new LongAdder[Metrics.Phase.values().length];
+
+    private final AtomicLongArray openLatency =
+        new AtomicLongArray(LatencyHistogram.BUCKET_COUNT);
+
+    // Guarded by this
+    private boolean started;
+    private boolean hasRates;
+    private long lastSampleNanos;
+    private long lastItems;
+    private long lastBytes;
+    private double itemsPerSecond;
+    private double bytesPerSecond;
+
+    MetricsRecorder() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    void addPhaseTime(Metrics.Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Records the time taken to open or create a file.
+     */
+    void recordOpen(long nanos) {
+        long micros = NANOSECONDS.toMicros(Math.max(0, nanos));
+        openLatency.incrementAndGet(LatencyHistogram.bucketOf(micros));
+    }
+
+    /**
+     * Sets the time the processing started, when nothing has been
+     * processed yet.
+     */
+    synchronized void start(long nowNanos) {
+        started = true;
+        lastSampleNanos = nowNanos;
+    }
+
+    /**
+     * Updates the rates with the total number of items and bytes processed
+     * so far, expected to be called periodically, such as each time the
+     * task reports its progress.
+     */
+    synchronized void sample(long nowNanos, long items, long bytes) {
+        if (!started) {
+            start(nowNanos);
+        }
+        long elapsed = nowNanos - lastSampleNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        double seconds = elapsed / NANOS_PER_SECOND;
+        double itemsRate = (items - lastItems) / seconds;
+        double bytesRate = (bytes - lastBytes) / seconds;
+        if (hasRates) {
+            double alpha =
+                1 - exp(-(double) elapsed / RATE_TIME_CONSTANT_NANOS);
+            itemsPerSecond += alpha * (itemsRate - itemsPerSecond);
+            bytesPerSecond += alpha * (bytesRate - bytesPerSecond);
+        } else {
+            itemsPerSecond = itemsRate;
+            bytesPerSecond = bytesRate;
+            hasRates = true;
+        }
+
+        lastSampleNanos = nowNanos;
+        lastItems = items;
+        lastBytes = bytes;
+    }
+
+    Metrics snapshot() {
+        long[] phases = new long[phaseNanos.length];
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = phaseNanos[i].sum();
+        }
+        long[] latencies = new long[openLatency.length()];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = openLatency.get(i);
+        }
+        double bytesRate;
+        double itemsRate;
+        synchronized (this) {
+            bytesRate = bytesPerSecond;
+            itemsRate = itemsPerSecond;
+        }
+        return new Metrics(
+            Math.max(0, bytesRate),
+            Math.max(0, itemsRate),
+            phases,
+            new LatencyHistogram(latencies)
+        );
+    }
+
+}
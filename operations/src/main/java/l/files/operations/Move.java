@@ -1,32 +1,242 @@
 package l.files.operations;
 
+import androidx.annotation.Nullable;
+
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.nio.file.Files.exists;
 import static java.nio.file.Files.move;
+import static java.nio.file.Files.walkFileTree;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.Collections.unmodifiableSet;
 
+/**
+ * Moves each item by renaming it if possible. If an item can't be renamed,
+ * such as when the destination is on a different file system, it's copied
+ * then deleted file by file, so that at most one extra copy of a file is
+ * needed at a time, instead of the whole item.
+ */
 final class Move extends Paste {
 
     private final AtomicInteger movedItemCount = new AtomicInteger();
+    private final Set<Path> renamedPaths = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Used for copying items that can't be renamed, its counts are the
+     * files and bytes that have been moved by copying.
+     */
+    private final Copy copy;
 
     Move(Collection<? extends Path> sourcePaths, Path destinationPath) {
-        super(sourcePaths, destinationPath);
+        this(
+            sourcePaths,
+            destinationPath,
+            Durability.NONE,
+            Bandwidth.UNLIMITED,
+            null
+        );
+    }
+
+    /**
+     * @param durability how to sync the items that are moved by copying, a
+     *                   source is only deleted after its copy is synced
+     * @param bandwidth  how fast to copy the content of files that are
+     *                   moved by copying
+     * @param journal    if not null, records the progress so that the move
+     *                   can be resumed from there if it doesn't finish
+     */
+    Move(
+        Collection<? extends Path> sourcePaths,
+        Path destinationPath,
+        Durability durability,
+        Bandwidth bandwidth,
+        @Nullable Journal journal
+    ) {
+        this(
+            sourcePaths,
+            destinationPath,
+            durability,
+            bandwidth,
+            journal,
+            new MetricsRecorder()
+        );
     }
 
+    /**
+     * @param metrics records the time spent syncing and opening files that
+     *                are moved by copying
+     */
+    Move(
+        Collection<? extends Path> sourcePaths,
+        Path destinationPath,
+        Durability durability,
+        Bandwidth bandwidth,
+        @Nullable Journal journal,
+        MetricsRecorder metrics
+    ) {
+        super(sourcePaths, destinationPath, journal);
+        this.copy = new Copy(
+            sourcePaths,
+            destinationPath,
+            false,
+            CopyMode.RENAME,
+            durability,
+            bandwidth,
+            journal,
+            metrics
+        );
+    }
+
+    /**
+     * Number of source items that have been moved completely.
+     */
     int getMovedItemCount() {
         return movedItemCount.get();
     }
 
+    /**
+     * Source items that have been moved by renaming them.
+     */
+    Set<Path> getRenamedPaths() {
+        return unmodifiableSet(renamedPaths);
+    }
+
+    /**
+     * Number of files and directories moved by copying them.
+     */
+    int getCopiedItemCount() {
+        return copy.getCopiedItemCount();
+    }
+
+    /**
+     * Number of bytes moved by copying them.
+     */
+    long getCopiedByteCount() {
+        return copy.getCopiedByteCount();
+    }
+
+    @Override
+    Syncer syncer() {
+        return copy.syncer();
+    }
+
     @Override
     void paste(Path sourcePath, Path destinationPath) throws IOException {
-        try {
-            move(sourcePath, destinationPath);
+        if (isMovedByPreviousRun(sourcePath, destinationPath)) {
+            renamedPaths.add(sourcePath);
             movedItemCount.incrementAndGet();
-        } catch (IOException e) {
-            record(sourcePath, e);
+            return;
         }
+        // A rename replaces an existing file instead of failing
+        if (!isDestinationOfPreviousRun(sourcePath, destinationPath) &&
+            exists(destinationPath, NOFOLLOW_LINKS)) {
+            throw new FileAlreadyExistsException(destinationPath.toString());
+        }
+        try {
+            move(sourcePath, destinationPath, ATOMIC_MOVE);
+            renamedPaths.add(sourcePath);
+        } catch (AtomicMoveNotSupportedException e) {
+            if (!moveByCopying(sourcePath, destinationPath)) {
+                return;
+            }
+        }
+        movedItemCount.incrementAndGet();
+    }
+
+    /**
+     * True if the item has been renamed by a previous run that didn't
+     * finish.
+     */
+    private boolean isMovedByPreviousRun(
+        Path sourcePath,
+        Path destinationPath
+    ) {
+        return isDestinationOfPreviousRun(sourcePath, destinationPath)
+            && !exists(sourcePath, NOFOLLOW_LINKS)
+            && exists(destinationPath, NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Copies each file to the destination then deletes it once the copy is
+     * synced, directories are deleted after their content. Returns true if
+     * everything is moved, false if interrupted.
+     */
+    boolean moveByCopying(Path sourcePath, Path destinationPath)
+        throws IOException {
+
+        Syncer syncer = syncer();
+        boolean resumed =
+            isDestinationOfPreviousRun(sourcePath, destinationPath);
+        try {
+            walkFileTree(sourcePath, newMoveByCopyingVisitor(
+                sourcePath,
+                destinationPath,
+                resumed,
+                syncer
+            ));
+        } finally {
+            // Finish deleting the sources that have been copied, even if
+            // interrupted, so they don't end up in both places
+            syncer.sync();
+        }
+        return !isInterrupted();
+    }
+
+    private OperationVisitor newMoveByCopyingVisitor(
+        Path sourcePath,
+        Path destinationPath,
+        boolean resumed,
+        Syncer syncer
+    ) {
+        return new OperationVisitor() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(
+                Path dir,
+                BasicFileAttributes attrs
+            ) throws IOException {
+                copy.copyItem(dir, rebase(dir), resumed);
+                return super.preVisitDirectory(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(
+                Path file,
+                BasicFileAttributes attrs
+            ) throws IOException {
+                copy.copyItem(file, rebase(file), resumed);
+                // Copying is abandoned if interrupted, don't delete source
+                if (!isInterrupted()) {
+                    syncer.deleteWhenSynced(file);
+                    syncer.syncIfFull();
+                }
+                return super.visitFile(file, attrs);
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                throws IOException {
+                if (e == null && !isInterrupted()) {
+                    copy.copyLastModifiedTime(dir, rebase(dir));
+                    syncer.deleteWhenSynced(dir);
+                }
+                return super.postVisitDirectory(dir, e);
+            }
+
+            private Path rebase(Path path) {
+                return destinationPath.resolve(sourcePath.relativize(path));
+            }
+        };
     }
 
 }
@@ -1,19 +1,23 @@
 package l.files.operations;
 
 import android.os.Handler;
+import androidx.annotation.Nullable;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.concurrent.Future;
 
+import static java.lang.System.nanoTime;
+import static l.files.operations.Metrics.Phase.MOVING;
 import static l.files.operations.TaskKind.MOVE;
 
 final class MoveTask extends Task {
 
     private final Move move;
-    private final Size count;
-    private final Copy copy;
+    private final Size size;
+
+    @Nullable
+    private final Journal journal;
 
     MoveTask(
         int id,
@@ -21,7 +25,10 @@ final class MoveTask extends Task {
         Callback callback,
         Handler handler,
         Collection<? extends Path> sources,
-        Path destination
+        Path destination,
+        Durability durability,
+        Bandwidth bandwidth,
+        @Nullable Journal journal
     ) {
 
         super(
@@ -32,37 +39,48 @@ final class MoveTask extends Task {
             handler
         );
 
-        this.move = new Move(sources, destination);
-        this.count = new Size(sources);
-        this.copy = new Copy(sources, destination);
+        this.move = new Move(
+            sources,
+            destination,
+            durability,
+            bandwidth,
+            journal,
+            metrics()
+        );
+        this.size = new Size(sources);
+        this.journal = journal;
     }
 
     @Override
     void doTask() throws FileException, InterruptedException {
+        if (journal != null) {
+            journal.open();
+        }
+        Future<?> sizing = size.executeAsync(metrics());
+        long start = nanoTime();
         try {
             move.execute();
-        } catch (FileException e) {
-            copyThenDelete(e.failures());
-        }
-    }
-
-    private void copyThenDelete(List<Failure> failures)
-        throws FileException, InterruptedException {
-
-        List<Path> files = new ArrayList<>();
-        for (Failure failure : failures) {
-            files.add(failure.path());
+        } finally {
+            metrics().addPhaseTime(MOVING, nanoTime() - start);
+            sizing.cancel(true);
+            // Only kept for when the process dies before getting here
+            if (journal != null) {
+                journal.delete();
+            }
         }
-        count.execute();
-        copy.execute();
-        new Delete(files).execute();
     }
 
     @Override
     TaskState.Running running(TaskState.Running state) {
+        int movedCount = move.getCopiedItemCount();
+        long movedSize = move.getCopiedByteCount();
+        for (Path path : move.getRenamedPaths()) {
+            movedCount += size.getCount(path);
+            movedSize += size.getSize(path);
+        }
         return state.running(
-            Progress.normalize(count.getCount(), copy.getCopiedItemCount()),
-            Progress.normalize(count.getSize(), copy.getCopiedByteCount())
+            Progress.normalize(size.getCount(), movedCount, size.isExact()),
+            Progress.normalize(size.getSize(), movedSize, size.isExact())
         );
     }
 }
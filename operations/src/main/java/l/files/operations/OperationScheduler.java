@@ -0,0 +1,311 @@
+package l.files.operations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
+
+import static java.util.Collections.singleton;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Runs tasks on a bounded number of threads, grouping them by the file
+ * stores they read and write.
+ * <p>
+ * Tasks that transfer data hold a slot on each of their stores while they
+ * run, and wait for a free slot on all of them before starting. Concurrent
+ * transfers on the same device compete with each other, which is
+ * especially slow on storage such as SD cards. Tasks on different devices
+ * don't wait for each other.
+ * <p>
+ * Tasks that only change metadata, deletes and moves within a store, don't
+ * need store slots and are started ahead of waiting transfers, so they
+ * don't sit behind long copies.
+ */
+final class OperationScheduler {
+
+    /**
+     * A task to be scheduled.
+     */
+    interface Job {
+
+        TaskId id();
+
+        Target target();
+
+        /**
+         * Called while the job is waiting to start, each time the number of
+         * jobs queued ahead of it changes. Called while the scheduler is
+         * locked, so must not block.
+         */
+        void onQueued(int position);
+    }
+
+    /**
+     * Each data transferring task already keeps its device busy with
+     * concurrent reads and writes of its own.
+     */
+    static final int DEFAULT_MAX_TRANSFERS_PER_STORE = 1;
+
+    static final int DEFAULT_MAX_RUNNING = 5;
+
+    private static final class Entry {
+
+        final Job job;
+        final Runnable runnable;
+
+        Set<Object> stores;
+        boolean metadataOnly;
+        int position = -1;
+
+        Entry(Job job, Runnable runnable) {
+            this.job = requireNonNull(job);
+            this.runnable = requireNonNull(runnable);
+        }
+
+        void queued(int position) {
+            if (this.position != position) {
+                this.position = position;
+                job.onQueued(position);
+            }
+        }
+    }
+
+    private final int maxRunning;
+    private final int maxTransfersPerStore;
+    private final Function<Path, Object> storeOf;
+
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * Finds the stores of the jobs before queueing them, one at a time so
+     * that jobs are queued in the order they are submitted.
+     */
+    private final ThreadPoolExecutor classifier;
+
+    // Guarded by this
+    private final Set<Entry> classifying = new HashSet<>();
+    private final Deque<Entry> metadataQueue = new ArrayDeque<>();
+    private final Deque<Entry> transferQueue = new ArrayDeque<>();
+    private final Map<Object, Integer> transfers = new HashMap<>();
+    private int running;
+
+    OperationScheduler() {
+        this(
+            DEFAULT_MAX_RUNNING,
+            DEFAULT_MAX_TRANSFERS_PER_STORE,
+            OperationScheduler::fileStoreOf
+        );
+    }
+
+    /**
+     * @param storeOf returns an object identifying the storage device of
+     *                the given path, called on a background thread
+     */
+    OperationScheduler(
+        int maxRunning,
+        int maxTransfersPerStore,
+        Function<Path, Object> storeOf
+    ) {
+        if (maxRunning <= 0) {
+            throw new IllegalArgumentException("maxRunning=" + maxRunning);
+        }
+        if (maxTransfersPerStore <= 0) {
+            throw new IllegalArgumentException(
+                "maxTransfersPerStore=" + maxTransfersPerStore);
+        }
+        this.maxRunning = maxRunning;
+        this.maxTransfersPerStore = maxTransfersPerStore;
+        this.storeOf = requireNonNull(storeOf);
+        this.workers = newExecutor(maxRunning, "OperationScheduler-worker");
+        this.classifier = newExecutor(1, "OperationScheduler-classifier");
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads,
+            threads,
+            10,
+            SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> new Thread(runnable, name)
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the file store of the path, or of its closest existing
+     * ancestor, falling back to the file system if none can be found.
+     */
+    private static Object fileStoreOf(Path path) {
+        for (Path p = path; p != null; p = p.getParent()) {
+            try {
+                return Files.getFileStore(p);
+            } catch (IOException | SecurityException e) {
+                // Try parent, this one may not exist
+            }
+        }
+        return path.getFileSystem();
+    }
+
+    /**
+     * Queues the job to be run when there is a free thread and its stores
+     * are not busy, returns without waiting.
+     */
+    void execute(Job job, Runnable runnable) {
+        Entry entry = new Entry(job, runnable);
+        synchronized (this) {
+            classifying.add(entry);
+        }
+        classifier.execute(() -> {
+            classify(entry);
+            synchronized (this) {
+                if (!classifying.remove(entry)) {
+                    return; // Removed while being classified
+                }
+                if (entry.metadataOnly) {
+                    metadataQueue.add(entry);
+                } else {
+                    transferQueue.add(entry);
+                }
+                dispatch();
+            }
+        });
+    }
+
+    /**
+     * Removes the job if it's still waiting to start, such as when it has
+     * been cancelled, so it doesn't take the place of other jobs. Returns
+     * true if removed, false if it has been started.
+     */
+    synchronized boolean remove(Job job) {
+        if (classifying.removeIf(entry -> entry.job == job)) {
+            return true;
+        }
+        if (metadataQueue.removeIf(entry -> entry.job == job) ||
+            transferQueue.removeIf(entry -> entry.job == job)) {
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    private void classify(Entry entry) {
+        Target target = entry.job.target();
+
+        // Items of a task are usually from the same few directories,
+        // checking the parents avoids looking up the store for each item
+        Map<Path, Object> cache = new HashMap<>();
+        Set<Object> sources = new HashSet<>();
+        try {
+            for (Path source : target.srcFiles()) {
+                Path parent = source.getParent();
+                Path key = parent != null ? parent : source;
+                sources.add(cache.computeIfAbsent(key, storeOf));
+            }
+        } catch (UncheckedIOException e) {
+            // Manifest failed to be read, the job still needs to run, to
+            // fail reading it again and report it
+        }
+
+        Object destination = storeOf.apply(target.dstDir());
+        switch (entry.job.id().kind()) {
+            case DELETE:
+                entry.stores = sources;
+                entry.metadataOnly = true;
+                break;
+            case MOVE:
+                entry.stores = new HashSet<>(sources);
+                entry.stores.add(destination);
+                entry.metadataOnly = sources.equals(singleton(destination));
+                break;
+            default:
+                entry.stores = new HashSet<>(sources);
+                entry.stores.add(destination);
+                entry.metadataOnly = false;
+                break;
+        }
+    }
+
+    /**
+     * Starts the waiting jobs that can be started, then updates the queue
+     * positions of the rest. Must hold the lock.
+     */
+    private void dispatch() {
+        start(metadataQueue);
+        start(transferQueue);
+        int position = 0;
+        for (Entry entry : metadataQueue) {
+            entry.queued(position++);
+        }
+        for (Entry entry : transferQueue) {
+            entry.queued(position++);
+        }
+    }
+
+    private void start(Deque<Entry> queue) {
+        // Stores wanted by a job that can't start yet are not given to jobs
+        // queued after it, so it's not starved by them
+        Set<Object> reserved = new HashSet<>();
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext() && running < maxRunning) {
+            Entry entry = it.next();
+            if (!entry.metadataOnly && !acquire(entry.stores, reserved)) {
+                reserved.addAll(entry.stores);
+                continue;
+            }
+            it.remove();
+            running++;
+            workers.execute(() -> run(entry));
+        }
+    }
+
+    private boolean acquire(Set<Object> stores, Set<Object> reserved) {
+        for (Object store : stores) {
+            if (reserved.contains(store) ||
+                transfers.getOrDefault(store, 0) >= maxTransfersPerStore) {
+                return false;
+            }
+        }
+        for (Object store : stores) {
+            transfers.merge(store, 1, Integer::sum);
+        }
+        return true;
+    }
+
+    private void release(Set<Object> stores) {
+        for (Object store : stores) {
+            transfers.computeIfPresent(
+                store,
+                (key, count) -> count > 1 ? count - 1 : null
+            );
+        }
+    }
+
+    private void run(Entry entry) {
+        try {
+            entry.runnable.run();
+        } finally {
+            synchronized (this) {
+                running--;
+                if (!entry.metadataOnly) {
+                    release(entry.stores);
+                }
+                dispatch();
+            }
+        }
+    }
+
+}
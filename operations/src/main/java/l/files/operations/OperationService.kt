@@ -6,23 +6,42 @@ import android.app.NotificationManager.IMPORTANCE_DEFAULT
 import android.app.PendingIntent
 import android.app.PendingIntent.FLAG_UPDATE_CURRENT
 import android.app.Service
+import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
-import android.os.AsyncTask
+import android.content.IntentFilter
 import android.os.Build
 import android.os.Handler
 import android.os.Looper
+import android.util.Log
 import androidx.annotation.RequiresApi
 import androidx.core.app.NotificationCompat
 import androidx.core.content.getSystemService
+import l.files.base.io.FOREGROUND_IO_ACTION
+import l.files.operations.Bandwidth.NO_LIMIT
+import java.io.IOException
+import java.io.UncheckedIOException
+import java.nio.file.Files.createDirectories
+import java.nio.file.Files.createFile
+import java.nio.file.Files.deleteIfExists
+import java.nio.file.Files.exists
+import java.nio.file.Files.getLastModifiedTime
+import java.nio.file.Files.list
+import java.nio.file.NoSuchFileException
 import java.nio.file.Path
 import java.nio.file.Paths
 import java.util.*
+import java.util.concurrent.Executor
 import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import kotlin.collections.ArrayList
 
 class OperationService internal constructor(
-  private val foreground: Boolean, listener: (Context) -> TaskListener
+  private val foreground: Boolean,
+  listener: (Context) -> TaskListener,
+  journalDir: (Context) -> Path = {
+    it.filesDir.toPath().resolve("journals")
+  }
 ) : Service() {
 
   @Suppress("unused") // Used by Android
@@ -32,32 +51,123 @@ class OperationService internal constructor(
   })
 
   private val handler = Handler(Looper.getMainLooper())
-  private val tasks = HashMap<Int, AsyncTask<*, *, *>>()
+  private val tasks = HashMap<Int, Task>()
+  private val journals = HashMap<Int, Path>()
+  private val manifests = HashMap<Int, Path>()
   private val listener: TaskListener by lazy { listener(this) }
+  private val journalDir: Path by lazy { journalDir(this) }
 
   override fun onBind(intent: Intent) = null
 
+  private val foregroundIoReceiver = object : BroadcastReceiver() {
+    override fun onReceive(context: Context, intent: Intent) {
+      Throttle.onForegroundActive()
+    }
+  }
+
+  override fun onCreate() {
+    super.onCreate()
+    registerReceiver(foregroundIoReceiver, IntentFilter(FOREGROUND_IO_ACTION))
+    executor.execute {
+      deleteStaleFiles(journalDir)
+      deleteStaleFiles(manifestDir(this))
+    }
+  }
+
+  /**
+   * Deletes journals and manifests of tasks that were never resumed, such
+   * as when the system has given up redelivering them. Journals of active
+   * tasks are updated as they progress, and tasks don't run for this long,
+   * so files of active tasks never get this old.
+   */
+  private fun deleteStaleFiles(dir: Path) {
+    val now = System.currentTimeMillis()
+    try {
+      list(dir).use { files ->
+        files
+          .filter {
+            now - getLastModifiedTime(it).toMillis() > STALE_FILE_MILLIS
+          }
+          .forEach { deleteIfExists(it) }
+      }
+    } catch (e: NoSuchFileException) {
+    } catch (e: IOException) {
+      Log.w(javaClass.simpleName, "Failed to delete stale files in $dir", e)
+    }
+  }
+
   override fun onDestroy() {
     super.onDestroy()
+    unregisterReceiver(foregroundIoReceiver)
     stopForeground(true)
   }
 
   override fun onStartCommand(intent: Intent, flags: Int, startId: Int): Int {
     if (ACTION_CANCEL == intent.action) {
       cancelTask(intent)
+      return START_NOT_STICKY
+    }
+
+    val journalId = intent.getStringExtra(EXTRA_JOURNAL_ID)
+    if (journalId == null) {
+      executeTask(intent, startId, null)
+      // Return START_NOT_STICKY because this service shouldn't be
+      // automatically restarted, after the process died, especially if the
+      // cause of the crash was programming error
+      return START_NOT_STICKY
+    }
+
+    val journalFile = journalDir.resolve(journalId)
+    if (flags and START_FLAG_REDELIVERY == 0) {
+      // Created before the task is queued, so that a task that is yet to
+      // start is also resumed, a missing journal on redelivery means the
+      // task has finished before the process died
+      try {
+        createDirectories(journalDir)
+        createFile(journalFile)
+      } catch (e: IOException) {
+        Log.w(javaClass.simpleName, "Failed to create $journalFile", e)
+      }
+    }
+    if (exists(journalFile)) {
+      executeTask(intent, startId, journalFile)
+    } else if (flags and START_FLAG_REDELIVERY != 0) {
+      stopIfIdle()
     } else {
-      executeTask(intent, startId)
+      executeTask(intent, startId, null)
     }
-    // Return START_NOT_STICKY because this service shouldn't be automatically
-    // restarted, after the process died, especially if the cause of the crash
-    // was programming error
-    return START_NOT_STICKY
+
+    // Have the intent redelivered if the process dies so the task can be
+    // resumed from its journal, the system stops redelivering an intent
+    // that keeps crashing the service
+    return START_REDELIVER_INTENT
   }
 
-  private fun executeTask(intent: Intent, startId: Int) {
+  private fun executeTask(intent: Intent, startId: Int, journal: Path?) {
     val data = Intent(intent)
     data.putExtra(EXTRA_TASK_ID, startId)
 
+    val task = try {
+      newTask(data, startId, handler, journal?.let(::Journal)) { state ->
+        if (state.isFinished) {
+          tasks.remove(state.task().id())
+          journals.remove(state.task().id())
+          manifests.remove(state.task().id())?.let(::deleteInBackground)
+          stopIfIdle()
+        }
+        listener.onUpdate(this@OperationService, state)
+      }
+    } catch (e: IOException) {
+      // Such as when the manifest has been deleted, nothing to resume
+      onCreateTaskFailed(e, journal)
+      return
+    } catch (e: UncheckedIOException) {
+      // Such as when the manifest is truncated, as a delete task reads its
+      // first path for the target
+      onCreateTaskFailed(e, journal)
+      return
+    }
+
     // A dummy notification so that the service can use startForeground, making
     // it less likely to be destroy, the notification will be replaced with ones
     // from operations-ui
@@ -75,30 +185,64 @@ class OperationService internal constructor(
       )
     }
 
-    val task = newTask(
-      data, startId, handler
-    ) { state ->
-      if (state.isFinished) {
-        tasks.remove(state.task().id())
-        if (tasks.isEmpty()) {
-          stopSelf()
-        }
-      }
-      listener.onUpdate(this@OperationService, state)
+    task.execute(Executor { scheduler.execute(task, it) })
+    tasks[startId] = task
+    if (journal != null) {
+      journals[startId] = journal
+    }
+    intent.getStringExtra(EXTRA_MANIFEST)?.let {
+      manifests[startId] = Paths.get(it)
     }
-    tasks[startId] = task.executeOnExecutor(executor)
+  }
+
+  private fun onCreateTaskFailed(e: Exception, journal: Path?) {
+    Log.w(javaClass.simpleName, "Failed to create task", e)
+    journal?.let(::deleteInBackground)
+    stopIfIdle()
   }
 
   private fun newTask(
-    intent: Intent, id: Int, handler: Handler, callback: Task.Callback
-  ): Task =
-    fileActionFromIntent(intent.action!!).newTask(intent, id, handler, callback)
+    intent: Intent,
+    id: Int,
+    handler: Handler,
+    journal: Journal?,
+    callback: Task.Callback
+  ): Task = fileActionFromIntent(intent.action!!)
+    .newTask(intent, id, handler, journal, callback)
 
   private fun cancelTask(intent: Intent) {
     val startId = intent.getIntExtra(EXTRA_TASK_ID, -1)
-    tasks.remove(startId)?.cancel(true) ?: listener.onNotFound(
-      this, TaskNotFound.create(startId)
-    )
+    val task = tasks.remove(startId)
+    if (task != null) {
+      task.cancel()
+      // A started task will still report that it has finished, its
+      // manifest is deleted then, as it may still be reading it. A task
+      // that never started reports nothing more, so its pending
+      // notification is removed as for an unknown task
+      if (scheduler.remove(task)) {
+        manifests.remove(startId)?.let(::deleteInBackground)
+        listener.onNotFound(this, TaskNotFound.create(startId))
+      }
+    } else {
+      listener.onNotFound(this, TaskNotFound.create(startId))
+    }
+    // The task deletes its journal when it stops, but not if it's cancelled
+    // before it starts, don't resume a cancelled task
+    journals.remove(startId)?.let(::deleteInBackground)
+    stopIfIdle()
+  }
+
+  private fun deleteInBackground(file: Path) {
+    executor.execute {
+      try {
+        deleteIfExists(file)
+      } catch (e: IOException) {
+        Log.w(javaClass.simpleName, "Failed to delete $file", e)
+      }
+    }
+  }
+
+  private fun stopIfIdle() {
     if (tasks.isEmpty()) {
       stopSelf()
     }
@@ -125,44 +269,103 @@ internal enum class FileAction(val action: String) {
 
   DELETE("l.files.operations.DELETE") {
     override fun newTask(
-      intent: Intent, id: Int, handler: Handler, callback: Task.Callback
+      intent: Intent,
+      id: Int,
+      handler: Handler,
+      journal: Journal?,
+      callback: Task.Callback
     ) = DeleteTask(
       id,
       Clock.system(),
       callback,
       handler,
-      intent.getStringArrayListExtra(EXTRA_PATHS).map(Paths::get)
+      sourcesFromIntent(intent)
     )
   },
 
   COPY("l.files.operations.COPY") {
     override fun newTask(
-      intent: Intent, id: Int, handler: Handler, callback: Task.Callback
+      intent: Intent,
+      id: Int,
+      handler: Handler,
+      journal: Journal?,
+      callback: Task.Callback
     ) = CopyTask(
       id,
       Clock.system(),
       callback,
       handler,
-      intent.getStringArrayListExtra(EXTRA_PATHS).map(Paths::get),
-      Paths.get(intent.getStringExtra(EXTRA_DESTINATION))
+      sourcesFromIntent(intent),
+      Paths.get(intent.getStringExtra(EXTRA_DESTINATION)),
+      copyModeFromIntent(intent),
+      durabilityFromIntent(intent),
+      bandwidthFromIntent(intent),
+      journal
     )
   },
 
   MOVE("l.files.operations.MOVE") {
     override fun newTask(
-      intent: Intent, id: Int, handler: Handler, callback: Task.Callback
+      intent: Intent,
+      id: Int,
+      handler: Handler,
+      journal: Journal?,
+      callback: Task.Callback
     ) = MoveTask(
       id,
       Clock.system(),
       callback,
       handler,
-      intent.getStringArrayListExtra(EXTRA_PATHS).map(Paths::get),
-      Paths.get(intent.getStringExtra(EXTRA_DESTINATION))
+      sourcesFromIntent(intent),
+      Paths.get(intent.getStringExtra(EXTRA_DESTINATION)),
+      durabilityFromIntent(intent),
+      bandwidthFromIntent(intent),
+      journal
+    )
+  },
+
+  COMPRESS("l.files.operations.COMPRESS") {
+    override fun newTask(
+      intent: Intent,
+      id: Int,
+      handler: Handler,
+      journal: Journal?,
+      callback: Task.Callback
+    ) = CompressTask(
+      id,
+      Clock.system(),
+      callback,
+      handler,
+      sourcesFromIntent(intent),
+      Paths.get(intent.getStringExtra(EXTRA_DESTINATION)),
+      durabilityFromIntent(intent)
+    )
+  },
+
+  EXTRACT("l.files.operations.EXTRACT") {
+    override fun newTask(
+      intent: Intent,
+      id: Int,
+      handler: Handler,
+      journal: Journal?,
+      callback: Task.Callback
+    ) = ExtractTask(
+      id,
+      Clock.system(),
+      callback,
+      handler,
+      sourcesFromIntent(intent),
+      Paths.get(intent.getStringExtra(EXTRA_DESTINATION)),
+      durabilityFromIntent(intent)
     )
   };
 
   abstract fun newTask(
-    intent: Intent, id: Int, handler: Handler, callback: Task.Callback
+    intent: Intent,
+    id: Int,
+    handler: Handler,
+    journal: Journal?,
+    callback: Task.Callback
   ): Task
 }
 
@@ -174,42 +377,197 @@ interface TaskListener {
 internal fun fileActionFromIntent(action: String): FileAction =
   FileAction.values().first { it.action == action }
 
+private fun durabilityFromIntent(intent: Intent): Durability =
+  intent.getStringExtra(EXTRA_DURABILITY)
+    ?.let(Durability::valueOf)
+    ?: Durability.NONE
+
+private fun copyModeFromIntent(intent: Intent): CopyMode =
+  intent.getStringExtra(EXTRA_COPY_MODE)
+    ?.let(CopyMode::valueOf)
+    ?: CopyMode.RENAME
+
+private fun bandwidthFromIntent(intent: Intent): Bandwidth {
+  val max = intent.getLongExtra(EXTRA_MAX_BYTES_PER_SECOND, NO_LIMIT)
+  val maxForeground = intent.getLongExtra(
+    EXTRA_MAX_FOREGROUND_BYTES_PER_SECOND, NO_LIMIT
+  )
+  return if (max == NO_LIMIT && maxForeground == NO_LIMIT) {
+    Bandwidth.UNLIMITED
+  } else {
+    Bandwidth.create(max, maxForeground)
+  }
+}
+
 const val OPERATIONS_NOTIFICATION_CHANNEL_ID = "l.files.operations"
 const val ACTION_CANCEL = "l.files.operations.CANCEL"
 const val EXTRA_TASK_ID = "task_id"
 
 private const val EXTRA_PATHS = "paths"
 private const val EXTRA_DESTINATION = "destination"
+private const val EXTRA_JOURNAL_ID = "journal_id"
+private const val EXTRA_DURABILITY = "durability"
+private const val EXTRA_COPY_MODE = "copy_mode"
+internal const val EXTRA_MANIFEST = "manifest"
+private const val EXTRA_MAX_BYTES_PER_SECOND = "max_bytes_per_second"
+private const val EXTRA_MAX_FOREGROUND_BYTES_PER_SECOND =
+  "max_foreground_bytes_per_second"
+
+/**
+ * Syncing in batches costs little over not syncing at all, while making
+ * sure items are on storage soon after they are pasted.
+ */
+val DEFAULT_DURABILITY = Durability.GROUP_COMMIT
 
-private val executor = Executors.newFixedThreadPool(5)
+/**
+ * Copies at full speed unless the user is browsing files, then leaves most
+ * of the storage's throughput to loading directories and previews.
+ */
+val DEFAULT_BANDWIDTH: Bandwidth = Bandwidth.create(NO_LIMIT, 1024 * 1024 * 4)
+
+private val scheduler = OperationScheduler()
+
+/**
+ * For housekeeping outside of tasks, such as deleting journals.
+ */
+private val executor = Executors.newSingleThreadExecutor()
+
+private val STALE_FILE_MILLIS = TimeUnit.DAYS.toMillis(7)
+
+/**
+ * Selections of this many items or more are passed to the service in a
+ * manifest file instead of in the intent.
+ */
+internal const val MANIFEST_MIN_PATHS = 256
+
+/**
+ * Creates the intent on a background thread, then starts the service with
+ * it. Use this instead of starting the service with an intent created on
+ * the main thread, as creating the intent for a large selection writes a
+ * manifest file. Operations started this way start in the order of the
+ * calls.
+ */
+fun startOperation(context: Context, newIntent: (Context) -> Intent) {
+  val appContext = context.applicationContext
+  executor.execute {
+    appContext.startService(newIntent(appContext))
+  }
+}
 
 fun newDeleteIntent(
   context: Context, files: Collection<Path>
 ): Intent = Intent(
   context, OperationService::class.java
-).setAction(FileAction.DELETE.action).putStringArrayListExtra(
-  EXTRA_PATHS, files.mapTo(ArrayList(), Path::toString)
-)
+).setAction(FileAction.DELETE.action).putSources(context, files)
 
 fun newCopyIntent(
-  context: Context, sources: Collection<Path>, destination: Path
+  context: Context,
+  sources: Collection<Path>,
+  destination: Path,
+  durability: Durability = DEFAULT_DURABILITY,
+  bandwidth: Bandwidth = DEFAULT_BANDWIDTH,
+  mode: CopyMode = CopyMode.RENAME
 ): Intent = newPasteIntent(
-  FileAction.COPY.action, context, sources, destination
-)
+  FileAction.COPY.action, context, sources, destination, durability, bandwidth
+).putExtra(EXTRA_COPY_MODE, mode.name)
 
 fun newMoveIntent(
-  context: Context, sources: Collection<Path>, destination: Path
+  context: Context,
+  sources: Collection<Path>,
+  destination: Path,
+  durability: Durability = DEFAULT_DURABILITY,
+  bandwidth: Bandwidth = DEFAULT_BANDWIDTH
 ): Intent = newPasteIntent(
-  FileAction.MOVE.action, context, sources, destination
+  FileAction.MOVE.action, context, sources, destination, durability, bandwidth
 )
 
+/**
+ * Compresses the sources into a new ZIP archive, the task fails if the
+ * archive already exists.
+ */
+fun newCompressIntent(
+  context: Context,
+  sources: Collection<Path>,
+  archive: Path,
+  durability: Durability = DEFAULT_DURABILITY
+): Intent = Intent(context, OperationService::class.java)
+  .setAction(FileAction.COMPRESS.action)
+  .putExtra(EXTRA_DESTINATION, archive.toString())
+  .putExtra(EXTRA_DURABILITY, durability.name)
+  .putSources(context, sources)
+
+/**
+ * Extracts each ZIP archive into a new directory named after it in the
+ * destination directory.
+ */
+fun newExtractIntent(
+  context: Context,
+  archives: Collection<Path>,
+  destination: Path,
+  durability: Durability = DEFAULT_DURABILITY
+): Intent = Intent(context, OperationService::class.java)
+  .setAction(FileAction.EXTRACT.action)
+  .putExtra(EXTRA_DESTINATION, destination.toString())
+  .putExtra(EXTRA_DURABILITY, durability.name)
+  .putSources(context, archives)
+
 private fun newPasteIntent(
-  action: String, context: Context, sources: Collection<Path>, destination: Path
+  action: String,
+  context: Context,
+  sources: Collection<Path>,
+  destination: Path,
+  durability: Durability,
+  bandwidth: Bandwidth
 ): Intent = Intent(context, OperationService::class.java).setAction(action)
   .putExtra(EXTRA_DESTINATION, destination.toString())
-  .putStringArrayListExtra(
+  .putExtra(EXTRA_DURABILITY, durability.name)
+  .putExtra(EXTRA_MAX_BYTES_PER_SECOND, bandwidth.maxBytesPerSecond())
+  .putExtra(
+    EXTRA_MAX_FOREGROUND_BYTES_PER_SECOND,
+    bandwidth.maxForegroundBytesPerSecond()
+  )
+  .putExtra(EXTRA_JOURNAL_ID, UUID.randomUUID().toString())
+  .putSources(context, sources)
+
+/**
+ * Puts the paths in the intent if there are a few of them, otherwise writes
+ * them to a manifest and puts the manifest in the intent instead, as an
+ * intent that is too large fails to be delivered. For large selections,
+ * this writes a file to the app's private storage, so should be called
+ * through [startOperation].
+ */
+private fun Intent.putSources(
+  context: Context,
+  sources: Collection<Path>
+): Intent {
+  if (sources.size >= MANIFEST_MIN_PATHS) {
+    val file = manifestDir(context).resolve(UUID.randomUUID().toString())
+    try {
+      createDirectories(file.parent)
+      val manifest = Manifest.write(file, sources)
+      return putExtra(EXTRA_MANIFEST, manifest.file().toString())
+    } catch (e: IOException) {
+      // Smaller ones may still be delivered, try anyway
+      Log.w("OperationService", "Failed to write $file", e)
+      file.toFile().delete()
+    }
+  }
+  return putStringArrayListExtra(
     EXTRA_PATHS, sources.mapTo(ArrayList(), Path::toString)
   )
+}
+
+/**
+ * Returns a collection that reads the paths from the manifest as it's
+ * iterated if the intent has one, otherwise the paths in the intent.
+ */
+private fun sourcesFromIntent(intent: Intent): Collection<Path> =
+  intent.getStringExtra(EXTRA_MANIFEST)
+    ?.let { Manifest.read(Paths.get(it)) }
+    ?: intent.getStringArrayListExtra(EXTRA_PATHS)!!.map(Paths::get)
+
+internal fun manifestDir(context: Context): Path =
+  context.filesDir.toPath().resolve("manifests")
 
 fun newCancelPendingIntent(context: Context, id: Int): PendingIntent =
   PendingIntent.getService(
@@ -1,20 +1,60 @@
 package l.files.operations;
 
+import androidx.annotation.Nullable;
+
+import l.files.fs.DestinationNameResolver;
 
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 import java.util.Collection;
 
 import static java.util.Objects.requireNonNull;
-import static l.files.fs.PathKt.getNonExistentDestinationFile;
 
 abstract class Paste extends AbstractOperation {
 
     private final Path destinationDir;
+    private final DestinationNameResolver destinationNames;
+
+    @Nullable
+    private final Journal journal;
 
-    Paste(Collection<? extends Path> sourcePaths, Path destinationDir) {
+    Paste(
+        Collection<? extends Path> sourcePaths,
+        Path destinationDir,
+        @Nullable Journal journal
+    ) {
         super(sourcePaths);
         this.destinationDir = requireNonNull(destinationDir, "destinationDir");
+        this.destinationNames = new DestinationNameResolver(destinationDir);
+        this.journal = journal;
+    }
+
+    @Nullable
+    final Journal journal() {
+        return journal;
+    }
+
+    /**
+     * True if sources are pasted into existing items of the same names at
+     * the destination, instead of being given new names. In which case
+     * {@link #paste} must not throw {@link FileAlreadyExistsException} for
+     * an existing destination it can paste into.
+     */
+    boolean mergesIntoExisting() {
+        return false;
+    }
+
+    /**
+     * True if the destination was chosen for the source by a previous run,
+     * in which case it may already exist.
+     */
+    final boolean isDestinationOfPreviousRun(
+        Path sourcePath,
+        Path destinationPath
+    ) {
+        return journal != null &&
+            destinationPath.equals(journal.getDestination(sourcePath));
     }
 
     @Override
@@ -28,19 +68,61 @@ abstract class Paste extends AbstractOperation {
         }
 
         try {
-            Path destinationPath =
-                getNonExistentDestinationFile(sourcePath, destinationDir);
-            paste(sourcePath, destinationPath);
+            Path destinationPath = null;
+            if (journal != null) {
+                destinationPath = journal.getDestination(sourcePath);
+            }
+            if (destinationPath == null) {
+                destinationPath = newDestination(sourcePath);
+            }
+            while (true) {
+                try {
+                    paste(sourcePath, destinationPath);
+                    break;
+                } catch (FileAlreadyExistsException e) {
+                    if (mergesIntoExisting() ||
+                        !destinationPath.toString().equals(e.getFile())) {
+                        throw e;
+                    }
+                    // Created by others since the names were read
+                    destinationNames.markTaken(destinationPath);
+                    destinationPath = newDestination(sourcePath);
+                }
+            }
         } catch (IOException e) {
             record(sourcePath, e);
+        } finally {
+            for (Failure failure : syncer().takeFailures()) {
+                record(failure.path(), failure.cause());
+            }
         }
     }
 
+    private Path newDestination(Path sourcePath) throws IOException {
+        Path destinationPath = mergesIntoExisting()
+            ? destinationDir.resolve(sourcePath.getFileName().toString())
+            : destinationNames.resolve(sourcePath);
+        if (journal != null) {
+            journal.recordDestination(sourcePath, destinationPath);
+        }
+        return destinationPath;
+    }
+
     /**
      * Pastes the source to the destination. If {@code sourcePath} is a file,
      * write its content into {@code destinationPath}. If {@code sourcePath}
      * is a directory, paste its content into {@code destinationPath}.
+     *
+     * @throws FileAlreadyExistsException for {@code destinationPath} if it
+     *                                    already exists, before anything is
+     *                                    pasted
      */
     abstract void paste(Path sourcePath, Path destinationPath)
         throws IOException;
+
+    /**
+     * The syncer of the pasted items, its failures are recorded after each
+     * source.
+     */
+    abstract Syncer syncer();
 }
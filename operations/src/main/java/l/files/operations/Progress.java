@@ -51,6 +51,19 @@ public final class Progress {
         }
     }
 
+    /**
+     * Same as {@link #normalize(long, long)}, except if the total is not
+     * exact, keep it above processed, so that the progress is not done
+     * before the total is known.
+     */
+    static Progress normalize(long total, long processed, boolean exact) {
+        if (exact) {
+            return normalize(total, processed);
+        } else {
+            return normalize(Math.max(total, processed + 1), processed);
+        }
+    }
+
     public float getProcessedPercentage() {
         if (NONE == this) {
             return 1F;
@@ -3,11 +3,14 @@ package l.files.operations;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
 
-final class Size extends Count {
+class Size extends Count {
 
     private final LongAdder size = new LongAdder();
+    private final Map<Path, Long> rootSizes = new ConcurrentHashMap<>();
 
     Size(Collection<? extends Path> sourcePaths) {
         super(sourcePaths);
@@ -17,6 +20,23 @@ final class Size extends Count {
         return size.longValue();
     }
 
+    /**
+     * Returns the size of the given source path, or 0 if it has not been
+     * fully counted yet.
+     */
+    long getSize(Path sourcePath) {
+        return rootSizes.getOrDefault(sourcePath, 0L);
+    }
+
+    @Override
+    void process(Path path) {
+        long before = size.sum();
+        super.process(path);
+        if (!isInterrupted()) {
+            rootSizes.put(path, size.sum() - before);
+        }
+    }
+
     @Override
     void onCount(BasicFileAttributes attrs) {
         super.onCount(attrs);
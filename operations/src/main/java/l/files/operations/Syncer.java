@@ -0,0 +1,237 @@
+package l.files.operations;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import static java.lang.System.nanoTime;
+import static java.nio.file.Files.delete;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Collections.emptyList;
+import static java.util.Objects.requireNonNull;
+import static l.files.operations.Metrics.Phase.SYNCING;
+
+/**
+ * Syncs items written by a paste operation to storage according to its
+ * {@link Durability}. Thread safe.
+ * <p>
+ * For {@link Durability#GROUP_COMMIT}, a path that fails to sync or to be
+ * deleted is not tried again, and its failure is kept for the operation to
+ * take with {@link #takeFailures()}, so it's reported once and against that
+ * path, rather than against the item that happened to fill up the batch.
+ */
+final class Syncer {
+
+    /**
+     * For {@link Durability#GROUP_COMMIT}, the maximum number of files
+     * written between syncs.
+     */
+    static final int GROUP_COMMIT_MAX_FILES = 256;
+
+    /**
+     * For {@link Durability#GROUP_COMMIT}, the maximum number of bytes
+     * written between syncs, so that a batch of large files doesn't leave
+     * too much data to be written out at once.
+     */
+    static final long GROUP_COMMIT_MAX_BYTES = 1024 * 1024 * 64;
+
+    private final Durability durability;
+    private final MetricsRecorder metrics;
+
+    private final Queue<Path> files = new ArrayDeque<>();
+    private final Set<Path> dirs = new LinkedHashSet<>();
+    private final Queue<Path> deletions = new ArrayDeque<>();
+    private final List<Failure> failures = new ArrayList<>();
+    private long bytes;
+
+    Syncer(Durability durability) {
+        this(durability, new MetricsRecorder());
+    }
+
+    /**
+     * @param metrics records the time spent syncing as {@link
+     *                Metrics.Phase#SYNCING}
+     */
+    Syncer(Durability durability, MetricsRecorder metrics) {
+        this.durability = requireNonNull(durability);
+        this.metrics = requireNonNull(metrics);
+    }
+
+    /**
+     * Called when the content of a file has been written using the given
+     * channel, before it's closed.
+     */
+    void onFileWritten(FileChannel channel, Path file, long size)
+        throws IOException {
+
+        switch (durability) {
+            case NONE:
+                break;
+
+            case GROUP_COMMIT:
+                synchronized (this) {
+                    files.add(file);
+                    dirs.add(file.getParent());
+                    bytes += size;
+                }
+                break;
+
+            case PER_FILE:
+                long start = nanoTime();
+                try {
+                    channel.force(false);
+                    syncDirectory(file.getParent());
+                } finally {
+                    metrics.addPhaseTime(SYNCING, nanoTime() - start);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Called when the content of a temporary file that is about to be
+     * renamed over an existing file has been written, before it's closed.
+     * Unless nothing is synced, the content is synced straight away, so
+     * that the existing file is never replaced by one whose content is not
+     * on storage yet. Call {@link #onEntryCreated} after the rename.
+     */
+    void onFileWrittenForReplace(FileChannel channel) throws IOException {
+        if (durability != Durability.NONE) {
+            long start = nanoTime();
+            try {
+                channel.force(false);
+            } finally {
+                metrics.addPhaseTime(SYNCING, nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Called when a directory or symbolic link has been created, its entry
+     * in the parent directory needs to be synced.
+     */
+    void onEntryCreated(Path path) throws IOException {
+        switch (durability) {
+            case NONE:
+                break;
+
+            case GROUP_COMMIT:
+                synchronized (this) {
+                    dirs.add(path.getParent());
+                }
+                break;
+
+            case PER_FILE:
+                long start = nanoTime();
+                try {
+                    syncDirectory(path.getParent());
+                } finally {
+                    metrics.addPhaseTime(SYNCING, nanoTime() - start);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Deletes the source of an item that has been copied, once the copy has
+     * been synced, so that the item is never left with no durable copy.
+     * Paths are deleted in the order given, a directory should be given
+     * after its content.
+     */
+    void deleteWhenSynced(Path source) throws IOException {
+        if (durability == Durability.GROUP_COMMIT) {
+            synchronized (this) {
+                deletions.add(source);
+            }
+        } else {
+            delete(source);
+        }
+    }
+
+    /**
+     * Syncs if enough has been written since the last sync.
+     */
+    synchronized void syncIfFull() {
+        if (files.size() >= GROUP_COMMIT_MAX_FILES ||
+            deletions.size() >= GROUP_COMMIT_MAX_FILES ||
+            bytes >= GROUP_COMMIT_MAX_BYTES) {
+            sync();
+        }
+    }
+
+    /**
+     * Syncs everything written so far and performs the pending deletions.
+     */
+    synchronized void sync() {
+        long start = nanoTime();
+        try {
+            syncPending();
+        } finally {
+            metrics.addPhaseTime(SYNCING, nanoTime() - start);
+        }
+    }
+
+    private void syncPending() {
+        // Each path is removed before it's tried, so a failure is reported
+        // once, and later syncs don't fail on it again
+        boolean synced = true;
+        for (Path file; (file = files.poll()) != null; ) {
+            try (FileChannel channel = FileChannel.open(file, READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                failures.add(Failure.create(file, e));
+                synced = false;
+            }
+        }
+        bytes = 0;
+
+        for (Iterator<Path> it = dirs.iterator(); it.hasNext(); ) {
+            Path dir = it.next();
+            it.remove();
+            try {
+                syncDirectory(dir);
+            } catch (IOException e) {
+                failures.add(Failure.create(dir, e));
+                synced = false;
+            }
+        }
+
+        if (!synced) {
+            // Which copies failed is not known, keep all of their sources
+            deletions.clear();
+        }
+        for (Path source; (source = deletions.poll()) != null; ) {
+            try {
+                delete(source);
+            } catch (IOException e) {
+                failures.add(Failure.create(source, e));
+            }
+        }
+    }
+
+    /**
+     * Returns and forgets the failures of the syncs so far.
+     */
+    synchronized List<Failure> takeFailures() {
+        if (failures.isEmpty()) {
+            return emptyList();
+        }
+        List<Failure> taken = new ArrayList<>(failures);
+        failures.clear();
+        return taken;
+    }
+
+    private static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, READ)) {
+            channel.force(true);
+        }
+    }
+
+}
@@ -37,7 +37,13 @@ public final class Target {
         Collection<? extends Path> srcFiles,
         Path dstDir
     ) {
-        return new Target(unmodifiableList(new ArrayList<>(srcFiles)), dstDir);
+        // A manifest is immutable, and may be too large to copy
+        return new Target(
+            srcFiles instanceof Manifest
+                ? (Manifest) srcFiles
+                : unmodifiableList(new ArrayList<>(srcFiles)),
+            dstDir
+        );
     }
 
     public static Target from(Collection<? extends Path> files) {
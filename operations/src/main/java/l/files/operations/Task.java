@@ -1,14 +1,34 @@
 package l.files.operations;
 
-import android.os.AsyncTask;
 import android.os.Handler;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import l.files.operations.TaskState.Pending;
 import l.files.operations.TaskState.Running;
 
 import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.Objects.requireNonNull;
-
-abstract class Task extends AsyncTask<Void, TaskState, Void> {
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A file operation run on a background thread, reporting its state to a
+ * {@link Callback} on the thread of the given handler.
+ * <p>
+ * A task doesn't hold a thread until it starts, so any number of them can
+ * be waiting on an executor with a few threads. Cancelling a task
+ * interrupts the thread running it, which also aborts blocking reads and
+ * writes on interruptible channels.
+ * <p>
+ * States are handed to the handler at most one at a time, if the handler's
+ * thread falls behind, only the latest state is delivered. Progress while
+ * running is reported once a second, each report is scheduled after the
+ * previous one is delivered, so they don't pile up either. The final state
+ * is always delivered, once the task has started.
+ */
+abstract class Task implements OperationScheduler.Job {
 
     private static final long PROGRESS_UPDATE_DELAY_MILLIS = 1000;
 
@@ -17,21 +37,47 @@ abstract class Task extends AsyncTask<Void, TaskState, Void> {
         public void run() {
             TaskState s = Task.this.state;
             if (!s.isFinished()) {
-                s = running((Running) s);
-                callback.onUpdate(s);
+                Running r = running((Running) s);
+                metrics.sample(
+                    MILLISECONDS.toNanos(clock.tick()),
+                    r.items().processed(),
+                    r.bytes().processed()
+                );
+                deliver(r.running(r.items(), r.bytes(), metrics.snapshot()));
                 handler.postDelayed(this, PROGRESS_UPDATE_DELAY_MILLIS);
             }
         }
     };
 
+    private final Runnable deliverLatest = new Runnable() {
+        @Override
+        public void run() {
+            deliveryPosted.set(false);
+            deliver(state);
+        }
+    };
+
     private final TaskId id;
     private final Target target;
     private final Clock clock;
     private final Handler handler;
     private final Callback callback;
+    private final MetricsRecorder metrics = new MetricsRecorder();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean deliveryPosted = new AtomicBoolean();
 
     private volatile TaskState state;
 
+    // Accessed on the handler's thread only
+    @Nullable
+    private TaskState delivered;
+
+    // Guarded by this
+    @Nullable
+    private Thread runner;
+    private boolean cancelled;
+
     Task(
         TaskId id,
         Target target,
@@ -48,21 +94,87 @@ abstract class Task extends AsyncTask<Void, TaskState, Void> {
     }
 
     @Override
-    protected void onPreExecute() {
-        super.onPreExecute();
-        state = TaskState.pending(id, target, clock.read());
-        callback.onUpdate(state);
+    public TaskId id() {
+        return id;
     }
 
     @Override
-    protected Void doInBackground(Void... params) {
+    public Target target() {
+        return target;
+    }
+
+    /**
+     * For the operations of this task to record their measurements to.
+     */
+    final MetricsRecorder metrics() {
+        return metrics;
+    }
+
+    @Override
+    public void onQueued(int position) {
+        TaskState s = state;
+        if (s instanceof Pending) {
+            state = ((Pending) s).queued(position);
+            publish();
+        }
+    }
+
+    /**
+     * Reports the pending state and hands the task to the executor, must
+     * be called on the handler's thread, and only once.
+     */
+    final void execute(Executor executor) {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("Already executed: " + id);
+        }
+        state = TaskState.pending(id, target, clock.read());
+        deliver(state);
+        executor.execute(this::run);
+    }
+
+    /**
+     * Stops the task, interrupting it if it's running. A task cancelled
+     * while running still reports its final state, one cancelled before it
+     * starts reports nothing more, unless the executor starts it anyway.
+     */
+    final void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        synchronized (this) {
+            runner = Thread.currentThread();
+            if (cancelled) {
+                runner.interrupt();
+            }
+        }
+        try {
+            doInBackground();
+        } finally {
+            synchronized (this) {
+                runner = null;
+                // Don't leave the interrupt to the next task on this thread
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void doInBackground() {
         try {
 
-            state = ((TaskState.Pending) state).running(clock.read());
+            state = ((Pending) state).running(clock.read());
+            metrics.start(MILLISECONDS.toNanos(clock.tick()));
             handler.postDelayed(update, PROGRESS_UPDATE_DELAY_MILLIS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
             doTask();
             state = ((Running) state).success(clock.read());
-            return null;
 
         } catch (Throwable e) {
 
@@ -90,15 +202,27 @@ abstract class Task extends AsyncTask<Void, TaskState, Void> {
 
         } finally {
             handler.removeCallbacks(update);
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    callback.onUpdate(state);
-                }
-            });
+            // For finding slow storage from bug reports
+            Log.i(getClass().getSimpleName(), id + " " + metrics.snapshot());
+            publish();
         }
+    }
 
-        return null;
+    /**
+     * Schedules the latest state to be delivered, unless a delivery is
+     * already scheduled, which will pick it up.
+     */
+    private void publish() {
+        if (deliveryPosted.compareAndSet(false, true)) {
+            handler.post(deliverLatest);
+        }
+    }
+
+    private void deliver(TaskState s) {
+        if (s != delivered) {
+            delivered = s;
+            callback.onUpdate(s);
+        }
     }
 
     abstract void doTask() throws FileException, InterruptedException;
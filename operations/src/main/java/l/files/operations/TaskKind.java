@@ -1,5 +1,5 @@
 package l.files.operations;
 
 public enum TaskKind {
-    MOVE, COPY, DELETE
+    MOVE, COPY, DELETE, COMPRESS, EXTRACT
 }
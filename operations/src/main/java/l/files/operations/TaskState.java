@@ -54,8 +54,25 @@ public abstract class TaskState {
 
     public static final class Pending extends TaskState {
 
-        Pending(TaskId task, Target target, Time time) {
+        private final int queuePosition;
+
+        Pending(TaskId task, Target target, Time time, int queuePosition) {
             super(task, target, time);
+            this.queuePosition = queuePosition;
+        }
+
+        /**
+         * Number of waiting tasks that will be given the chance to start
+         * before this one, or -1 if the task hasn't been queued yet. Tasks
+         * on other storage may start before this one regardless.
+         */
+        public int queuePosition() {
+            return queuePosition;
+        }
+
+        public Pending queued(int position) {
+            // Do not update the time as specified by the contract on time()
+            return new Pending(task(), target(), time(), position);
         }
 
         public Running running(Time time) {
@@ -63,7 +80,14 @@ public abstract class TaskState {
         }
 
         public Running running(Time time, Progress items, Progress bytes) {
-            return new Running(task(), target(), time, items, bytes);
+            return new Running(
+                task(),
+                target(),
+                time,
+                items,
+                bytes,
+                Metrics.NONE
+            );
         }
 
     }
@@ -72,17 +96,20 @@ public abstract class TaskState {
 
         private final Progress items;
         private final Progress bytes;
+        private final Metrics metrics;
 
         Running(
             TaskId task,
             Target target,
             Time time,
             Progress items,
-            Progress bytes
+            Progress bytes,
+            Metrics metrics
         ) {
             super(task, target, time);
             this.items = requireNonNull(items);
             this.bytes = requireNonNull(bytes);
+            this.metrics = requireNonNull(metrics);
         }
 
         /**
@@ -99,9 +126,24 @@ public abstract class TaskState {
             return bytes;
         }
 
+        /**
+         * Rates and timings measured so far.
+         */
+        public Metrics metrics() {
+            return metrics;
+        }
+
         public Running running(Progress items, Progress bytes) {
+            return running(items, bytes, metrics);
+        }
+
+        public Running running(
+            Progress items,
+            Progress bytes,
+            Metrics metrics
+        ) {
             // Do not update the time as specified by the contract on time()
-            return new Running(task(), target(), time(), items, bytes);
+            return new Running(task(), target(), time(), items, bytes, metrics);
         }
 
         public Success success(Time time) {
@@ -141,7 +183,7 @@ public abstract class TaskState {
     }
 
     public static Pending pending(TaskId task, Target target, Time time) {
-        return new Pending(task, target, time);
+        return new Pending(task, target, time, -1);
     }
 
 }
@@ -0,0 +1,128 @@
+package l.files.operations;
+
+import java.io.InterruptedIOException;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static l.files.operations.Bandwidth.NO_LIMIT;
+
+/**
+ * Token bucket limiting the rate of bytes transferred by an operation to
+ * its {@link Bandwidth}, switching to the foreground limit while the user
+ * is browsing files. Shared by the threads of an operation, thread safe.
+ * <p>
+ * Bytes are acquired before they are transferred, an acquisition larger
+ * than the available tokens puts the bucket into debt, and the caller
+ * waits until the debt is paid off, so concurrent callers share the rate.
+ */
+final class Throttle {
+
+    private static final long NANOS_PER_SECOND = SECONDS.toNanos(1);
+
+    /**
+     * How long the foreground is considered active after it was last
+     * reported to be, as it's reported at most once in a while.
+     */
+    static final long FOREGROUND_TIMEOUT_NANOS = MILLISECONDS.toNanos(1500);
+
+    /**
+     * Burst size in time of the current rate, also the largest number of
+     * bytes to acquire at once, to keep the waits short.
+     */
+    private static final long BURST_NANOS = MILLISECONDS.toNanos(250);
+
+    private static final long MIN_BURST_BYTES = 1024 * 64;
+
+    private static volatile long foregroundActiveUntilNanos = nanoTime();
+
+    /**
+     * Called when the user is waiting for files to load, in this or
+     * another process.
+     */
+    static void onForegroundActive() {
+        foregroundActiveUntilNanos = nanoTime() + FOREGROUND_TIMEOUT_NANOS;
+    }
+
+    static boolean isForegroundActive() {
+        return nanoTime() - foregroundActiveUntilNanos < 0;
+    }
+
+    private final Bandwidth bandwidth;
+
+    // Guarded by this
+    private long tokens;
+    private long lastRefillNanos = nanoTime();
+
+    Throttle(Bandwidth bandwidth) {
+        this.bandwidth = requireNonNull(bandwidth);
+    }
+
+    /**
+     * The current limit in bytes per second, may be {@link
+     * Bandwidth#NO_LIMIT}.
+     */
+    long rate() {
+        long rate = bandwidth.maxBytesPerSecond();
+        if (isForegroundActive()) {
+            rate = min(rate, bandwidth.maxForegroundBytesPerSecond());
+        }
+        return rate;
+    }
+
+    /**
+     * The maximum number of bytes the caller should transfer before
+     * acquiring again, no more than {@code max}.
+     */
+    long sliceSize(long max) {
+        long rate = rate();
+        return rate == NO_LIMIT ? max : min(max, burstBytes(rate));
+    }
+
+    private static long burstBytes(long rate) {
+        long bytes = rate / (NANOS_PER_SECOND / BURST_NANOS);
+        return max(MIN_BURST_BYTES, bytes);
+    }
+
+    /**
+     * Waits until the bytes can be transferred without going over the
+     * rate. Throws {@link InterruptedIOException} if interrupted while
+     * waiting, like an interrupted transfer.
+     */
+    void acquire(long bytes) throws InterruptedIOException {
+        long rate = rate();
+        if (rate == NO_LIMIT) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long now = nanoTime();
+            // Capped as it fills up the bucket regardless
+            long elapsed = min(now - lastRefillNanos, NANOS_PER_SECOND);
+            lastRefillNanos = now;
+            tokens = min(
+                burstBytes(rate),
+                tokens + (long) ((double) elapsed * rate / NANOS_PER_SECOND)
+            );
+            tokens -= bytes;
+            waitNanos = tokens >= 0
+                ? 0
+                : (long) ((double) -tokens * NANOS_PER_SECOND / rate);
+        }
+
+        if (waitNanos > 0) {
+            try {
+                NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+}
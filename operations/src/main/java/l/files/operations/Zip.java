@@ -0,0 +1,176 @@
+package l.files.operations;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Constants and conversions of the ZIP file format shared by {@link
+ * ZipWriter} and {@link ZipReader}.
+ */
+final class Zip {
+
+    private Zip() {
+    }
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int ZIP64_END_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    static final int FLAG_ENCRYPTED = 0x0001;
+    static final int FLAG_UTF8 = 0x0800;
+
+    static final int VERSION = 20;
+    static final int VERSION_ZIP64 = 45;
+
+    /**
+     * Made by a Unix system, which is what has the external attributes
+     * hold the file mode in their upper 16 bits.
+     */
+    static final int HOST_UNIX = 3;
+
+    /**
+     * Sizes, offsets and counts stored as this mean the actual value is in
+     * the ZIP64 extensions.
+     */
+    static final long MAX_32 = 0xffffffffL;
+    static final int MAX_16 = 0xffff;
+
+    static final int S_IFMT = 0170000;
+    static final int S_IFREG = 0100000;
+    static final int S_IFDIR = 0040000;
+    static final int S_IFLNK = 0120000;
+
+    static final int FILE_MODE = S_IFREG | 0644;
+    static final int DIRECTORY_MODE = S_IFDIR | 0755;
+    static final int LINK_MODE = S_IFLNK | 0777;
+
+    /**
+     * The MS-DOS directory attribute, for readers that don't look at the
+     * Unix mode.
+     */
+    static final int DOS_DIRECTORY = 0x10;
+
+    private static final long DOS_MIN = (1 << 21) | (1 << 16);
+
+    /**
+     * Converts the time to the MS-DOS date and time the format stores, which
+     * is in local time, at 2 second resolution, from 1980 to 2107.
+     */
+    static long toDosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(
+            Instant.ofEpochMilli(millis),
+            ZoneId.systemDefault()
+        );
+        int year = time.getYear();
+        if (year < 1980) {
+            return DOS_MIN;
+        }
+        if (year > 2107) {
+            time = LocalDateTime.of(2107, 12, 31, 23, 59, 58);
+            year = 2107;
+        }
+        return (long) (year - 1980) << 25
+            | time.getMonthValue() << 21
+            | time.getDayOfMonth() << 16
+            | time.getHour() << 11
+            | time.getMinute() << 5
+            | time.getSecond() >> 1;
+    }
+
+    /**
+     * Converts the MS-DOS date and time back, returns -1 if it's invalid.
+     */
+    static long fromDosTime(long dosTime) {
+        try {
+            return LocalDateTime.of(
+                (int) ((dosTime >> 25) & 0x7f) + 1980,
+                (int) ((dosTime >> 21) & 0x0f),
+                (int) ((dosTime >> 16) & 0x1f),
+                (int) ((dosTime >> 11) & 0x1f),
+                (int) ((dosTime >> 5) & 0x3f),
+                (int) ((dosTime << 1) & 0x3e)
+            ).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the CRC-32 of two pieces of data one after the other, given
+     * the CRC-32 of each and the length of the second, so that pieces
+     * checksummed separately, such as by different threads, don't need to
+     * be read again. This is {@code crc32_combine} of zlib.
+     */
+    static long combineCrc(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // The operator for one zero bit
+        odd[0] = 0xedb88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        // For two, then four zero bits
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // Apply length2 zero bytes to crc1, the first square gives the
+        // operator for one zero byte, eight zero bits
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+}
@@ -0,0 +1,494 @@
+package l.files.operations;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static java.lang.Math.min;
+import static java.lang.Thread.currentThread;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static l.files.operations.Zip.*;
+
+/**
+ * Reads a ZIP archive through its central directory at the end of the
+ * file, which lists the entries with their sizes and the positions of
+ * their data, so each entry is read from its position directly, without
+ * reading through the entries before it, or extracting to temporary files.
+ * Reads are positional, so different threads can read different entries at
+ * the same time, and closing the channel on interrupt aborts them, as with
+ * other file channels.
+ */
+final class ZipReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1024 * 64;
+    private static final int MAX_COMMENT_SIZE = MAX_16;
+
+    static final class Entry {
+
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long dosTime;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final int mode;
+        private final long localHeaderOffset;
+
+        Entry(
+            String name,
+            int flags,
+            int method,
+            long dosTime,
+            long crc,
+            long compressedSize,
+            long size,
+            int mode,
+            long localHeaderOffset
+        ) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.mode = mode;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        /**
+         * Path of the entry as stored, separated by '/'.
+         */
+        String name() {
+            return name;
+        }
+
+        /**
+         * Uncompressed size.
+         */
+        long size() {
+            return size;
+        }
+
+        /**
+         * Last modified time, or -1 if not valid.
+         */
+        long lastModifiedMillis() {
+            return fromDosTime(dosTime);
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/") || (mode & S_IFMT) == S_IFDIR;
+        }
+
+        /**
+         * True if made on Unix as a symbolic link, the data is the target.
+         */
+        boolean isSymbolicLink() {
+            return (mode & S_IFMT) == S_IFLNK;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                "name='" + name + '\'' +
+                ", size=" + size +
+                '}';
+        }
+    }
+
+    private final FileChannel channel;
+    private final long entryCount;
+    private final long centralDirectoryOffset;
+    private final long centralDirectorySize;
+
+    private ZipReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        long fileSize = channel.size();
+        int tailSize = (int) min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        long tailOffset = fileSize - tailSize;
+        ByteBuffer tail = read(tailOffset, tailSize);
+
+        // The end record is followed by a comment of variable length
+        int end = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE &&
+                i + END_SIZE + (tail.getShort(i + 20) & MAX_16) <= tailSize) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new ZipException("Not a ZIP archive");
+        }
+
+        long count = tail.getShort(end + 10) & MAX_16;
+        long size = tail.getInt(end + 12) & MAX_32;
+        long offset = tail.getInt(end + 16) & MAX_32;
+        long endOffset = tailOffset + end;
+
+        if ((count == MAX_16 || size == MAX_32 || offset == MAX_32) &&
+            endOffset >= ZIP64_LOCATOR_SIZE) {
+            ByteBuffer locator = read(
+                endOffset - ZIP64_LOCATOR_SIZE,
+                ZIP64_LOCATOR_SIZE
+            );
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64End = read(locator.getLong(8), ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new ZipException("Bad ZIP64 end record");
+                }
+                count = zip64End.getLong(32);
+                size = zip64End.getLong(40);
+                offset = zip64End.getLong(48);
+            }
+        }
+
+        if (count < 0 || size < 0 || offset < 0 || offset + size > fileSize) {
+            throw new ZipException("Bad central directory");
+        }
+
+        this.entryCount = count;
+        this.centralDirectorySize = size;
+        this.centralDirectoryOffset = offset;
+    }
+
+    static ZipReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, READ);
+        try {
+            return new ZipReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long entryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns a new iteration of the entries in the central directory,
+     * which reads the directory as it goes, instead of holding all the
+     * entries of a large archive in memory.
+     */
+    Entries entries() {
+        return new Entries();
+    }
+
+    final class Entries {
+
+        private ByteBuffer buffer =
+            ByteBuffer.allocate(BUFFER_SIZE).order(LITTLE_ENDIAN);
+
+        private long position = centralDirectoryOffset;
+        private long remaining = entryCount;
+
+        private Entries() {
+            buffer.limit(0);
+        }
+
+        /**
+         * Returns the next entry, or null if there are no more.
+         */
+        @Nullable
+        Entry next() throws IOException {
+            if (remaining == 0) {
+                return null;
+            }
+            remaining--;
+
+            fill(CENTRAL_HEADER_SIZE);
+            if (buffer.getInt() != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Bad central directory entry");
+            }
+            int host = (buffer.getShort() & MAX_16) >> 8;
+            buffer.getShort(); // Version needed
+            int flags = buffer.getShort() & MAX_16;
+            int method = buffer.getShort() & MAX_16;
+            long dosTime = buffer.getInt() & MAX_32;
+            long crc = buffer.getInt() & MAX_32;
+            long compressedSize = buffer.getInt() & MAX_32;
+            long size = buffer.getInt() & MAX_32;
+            int nameLength = buffer.getShort() & MAX_16;
+            int extraLength = buffer.getShort() & MAX_16;
+            int commentLength = buffer.getShort() & MAX_16;
+            buffer.getShort(); // Disk number
+            buffer.getShort(); // Internal attributes
+            long external = buffer.getInt() & MAX_32;
+            long offset = buffer.getInt() & MAX_32;
+
+            fill(nameLength + extraLength + commentLength);
+
+            // Names are expected to be UTF-8 even without the flag, as
+            // legacy encodings can't be told apart
+            byte[] nameBytes = new byte[nameLength];
+            buffer.get(nameBytes);
+            String name = new String(nameBytes, UTF_8);
+
+            int extraEnd = buffer.position() + extraLength;
+            while (buffer.position() + 4 <= extraEnd) {
+                int id = buffer.getShort() & MAX_16;
+                int length = buffer.getShort() & MAX_16;
+                int dataEnd = buffer.position() + length;
+                if (dataEnd > extraEnd) {
+                    break;
+                }
+                if (id == ZIP64_EXTRA_ID) {
+                    if (size == MAX_32 && buffer.position() + 8 <= dataEnd) {
+                        size = buffer.getLong();
+                    }
+                    if (compressedSize == MAX_32 &&
+                        buffer.position() + 8 <= dataEnd) {
+                        compressedSize = buffer.getLong();
+                    }
+                    if (offset == MAX_32 && buffer.position() + 8 <= dataEnd) {
+                        offset = buffer.getLong();
+                    }
+                }
+                buffer.position(dataEnd);
+            }
+            buffer.position(extraEnd + commentLength);
+
+            if (size < 0 || compressedSize < 0 || offset < 0) {
+                throw new ZipException("Bad central directory entry");
+            }
+
+            return new Entry(
+                name,
+                flags,
+                method,
+                dosTime,
+                crc,
+                compressedSize,
+                size,
+                host == HOST_UNIX ? (int) (external >>> 16) : 0,
+                offset
+            );
+        }
+
+        /**
+         * Makes sure the buffer has at least the given number of bytes
+         * remaining, reading more of the central directory if needed.
+         */
+        private void fill(int length) throws IOException {
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            if (buffer.capacity() < length) {
+                buffer = ByteBuffer.allocate(length)
+                    .order(LITTLE_ENDIAN)
+                    .put(buffer);
+            } else {
+                buffer.compact();
+            }
+            long end = centralDirectoryOffset + centralDirectorySize;
+            while (buffer.position() < length) {
+                int limit = (int) min(
+                    buffer.capacity(),
+                    buffer.position() + (end - position)
+                );
+                if (limit <= buffer.position()) {
+                    throw new ZipException("Truncated central directory");
+                }
+                buffer.limit(limit);
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                position += n;
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Writes the uncompressed data of the entry to the sink, adding the
+     * number of bytes written to the counter as it goes, then checks the
+     * data against the size and checksum in the central directory. Fails
+     * as soon as the data exceeds the size, so at most {@link Entry#size()}
+     * bytes are ever written, however much a corrupted or crafted entry
+     * would inflate to.
+     *
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    void extract(Entry entry, WritableByteChannel sink, AtomicLong counter)
+        throws IOException {
+
+        if ((entry.flags & FLAG_ENCRYPTED) != 0) {
+            throw new ZipException("Encrypted entry: " + entry.name);
+        }
+
+        ByteBuffer local = read(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Bad local header: " + entry.name);
+        }
+        long position = entry.localHeaderOffset + LOCAL_HEADER_SIZE +
+            (local.getShort(26) & MAX_16) +
+            (local.getShort(28) & MAX_16);
+
+        CRC32 crc = new CRC32();
+        long size;
+        switch (entry.method) {
+            case STORED:
+                size = copy(entry, position, sink, crc, counter);
+                break;
+            case DEFLATED:
+                size = inflate(entry, position, sink, crc, counter);
+                break;
+            default:
+                throw new ZipException("Unsupported compression method " +
+                    entry.method + ": " + entry.name);
+        }
+
+        if (size != entry.size || crc.getValue() != entry.crc) {
+            throw new ZipException("Corrupted entry: " + entry.name);
+        }
+    }
+
+    private long copy(
+        Entry entry,
+        long position,
+        WritableByteChannel sink,
+        CRC32 crc,
+        AtomicLong counter
+    ) throws IOException {
+
+        if (entry.compressedSize != entry.size) {
+            throw new ZipException("Corrupted entry: " + entry.name);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(
+            (int) min(BUFFER_SIZE, entry.compressedSize));
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            checkInterrupt();
+            buffer.clear().limit((int) min(buffer.capacity(), remaining));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException(entry.name);
+            }
+            crc.update(buffer.array(), 0, n);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                sink.write(buffer);
+            }
+            position += n;
+            remaining -= n;
+            counter.addAndGet(n);
+        }
+        return entry.compressedSize;
+    }
+
+    private long inflate(
+        Entry entry,
+        long position,
+        WritableByteChannel sink,
+        CRC32 crc,
+        AtomicLong counter
+    ) throws IOException {
+
+        ByteBuffer input = ByteBuffer.allocate(
+            (int) min(BUFFER_SIZE, entry.compressedSize + 1));
+        byte[] output = new byte[BUFFER_SIZE];
+        long remaining = entry.compressedSize;
+        long size = 0;
+        boolean paddingGiven = false;
+
+        Inflater inflater = new Inflater(true);
+        try {
+            while (!inflater.finished()) {
+                checkInterrupt();
+
+                if (inflater.needsInput()) {
+                    if (remaining > 0) {
+                        input.clear().limit((int) min(
+                            input.capacity(),
+                            remaining
+                        ));
+                        int n = channel.read(input, position);
+                        if (n < 0) {
+                            throw new EOFException(entry.name);
+                        }
+                        position += n;
+                        remaining -= n;
+                        inflater.setInput(input.array(), 0, n);
+                    } else if (!paddingGiven) {
+                        // Older versions of zlib need an extra byte to
+                        // finish a raw stream
+                        paddingGiven = true;
+                        inflater.setInput(new byte[1]);
+                    } else {
+                        throw new ZipException("Truncated entry: " +
+                            entry.name);
+                    }
+                }
+
+                int n;
+                try {
+                    n = inflater.inflate(output);
+                } catch (DataFormatException e) {
+                    ZipException ex = new ZipException(
+                        "Corrupted entry: " + entry.name);
+                    ex.initCause(e);
+                    throw ex;
+                }
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("Corrupted entry: " + entry.name);
+                }
+                if (n > entry.size - size) {
+                    throw new ZipException("Corrupted entry: " + entry.name);
+                }
+
+                crc.update(output, 0, n);
+                ByteBuffer buffer = ByteBuffer.wrap(output, 0, n);
+                while (buffer.hasRemaining()) {
+                    sink.write(buffer);
+                }
+                size += n;
+                counter.addAndGet(n);
+            }
+        } finally {
+            inflater.end();
+        }
+        return size;
+    }
+
+    private static void checkInterrupt() throws InterruptedIOException {
+        if (currentThread().isInterrupted()) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
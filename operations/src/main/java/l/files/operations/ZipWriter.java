@@ -0,0 +1,298 @@
+package l.files.operations;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.ZipException;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static l.files.operations.Zip.*;
+
+/**
+ * Writes a ZIP archive to a file, one entry after another. The local
+ * header of an entry is written before its data, and updated with the
+ * checksum and sizes once all the data has been written, so the data can
+ * be written as it's produced without being held in memory. ZIP64
+ * extensions are only used where the sizes, offsets or number of entries
+ * need them. Not thread safe.
+ */
+final class ZipWriter {
+
+    /**
+     * Entries at least this large get ZIP64 sizes in their local headers,
+     * as the compressed size is not known when the header is written, and
+     * may be slightly larger than the original for data that doesn't
+     * compress.
+     */
+    static final long ZIP64_LOCAL_MIN_SIZE = 0xf0000000L;
+
+    private final FileChannel channel;
+    private final ByteArrayOutputStream centralDirectory =
+        new ByteArrayOutputStream();
+
+    private long position;
+    private long entryCount;
+
+    // The entry being written, if entryName is not null
+    @Nullable
+    private byte[] entryName;
+    private long entryOffset;
+    private boolean entryZip64;
+    private int entryMethod;
+    private long entryDosTime;
+    private int entryMode;
+    private long entryCompressedSize;
+
+    /**
+     * @param channel an empty file to write to, from its current position
+     */
+    ZipWriter(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.position = channel.position();
+    }
+
+    long entryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Starts an entry by writing its local header, write its data with
+     * {@link #write} then call {@link #finishEntry}.
+     *
+     * @param name         path of the entry, separated by '/', ending with
+     *                     '/' for a directory
+     * @param method       {@link Zip#STORED} or {@link Zip#DEFLATED}
+     * @param mode         the Unix file type and permissions
+     * @param expectedSize the expected uncompressed size
+     */
+    void startEntry(
+        String name,
+        int method,
+        long lastModifiedMillis,
+        int mode,
+        long expectedSize
+    ) throws IOException {
+
+        if (entryName != null) {
+            throw new IllegalStateException("Entry not finished");
+        }
+
+        entryName = name.getBytes(UTF_8);
+        entryOffset = position;
+        entryZip64 = expectedSize >= ZIP64_LOCAL_MIN_SIZE;
+        entryMethod = method;
+        entryDosTime = toDosTime(lastModifiedMillis);
+        entryMode = mode;
+        entryCompressedSize = 0;
+
+        ByteBuffer header = newBuffer(
+            LOCAL_HEADER_SIZE + entryName.length + (entryZip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) (entryZip64 ? VERSION_ZIP64 : VERSION));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) method);
+        header.putInt((int) entryDosTime);
+        header.putInt(0); // CRC-32, updated by finishEntry
+        header.putInt(entryZip64 ? (int) MAX_32 : 0);
+        header.putInt(entryZip64 ? (int) MAX_32 : 0);
+        header.putShort((short) entryName.length);
+        header.putShort((short) (entryZip64 ? 20 : 0));
+        header.put(entryName);
+        if (entryZip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(0);
+            header.putLong(0);
+        }
+        header.flip();
+        writeFully(header);
+    }
+
+    /**
+     * Writes the data of the current entry, which is either stored or
+     * deflated as given to {@link #startEntry}.
+     */
+    void write(byte[] data, int offset, int length) throws IOException {
+        if (entryName == null) {
+            throw new IllegalStateException("No entry");
+        }
+        writeFully(ByteBuffer.wrap(data, offset, length));
+        entryCompressedSize += length;
+    }
+
+    /**
+     * Finishes the current entry, updating its local header.
+     *
+     * @param crc  CRC-32 of the uncompressed data
+     * @param size size of the uncompressed data
+     */
+    void finishEntry(long crc, long size) throws IOException {
+        if (entryName == null) {
+            throw new IllegalStateException("No entry");
+        }
+        if (!entryZip64 && (size >= MAX_32 || entryCompressedSize >= MAX_32)) {
+            throw new ZipException("Entry grew too large while written: " +
+                new String(entryName, UTF_8));
+        }
+
+        ByteBuffer local = newBuffer(12);
+        local.putInt((int) crc);
+        if (entryZip64) {
+            local.flip();
+            writeFully(local, entryOffset + 14);
+            ByteBuffer extra = newBuffer(16);
+            extra.putLong(size);
+            extra.putLong(entryCompressedSize);
+            extra.flip();
+            writeFully(extra, entryOffset + LOCAL_HEADER_SIZE +
+                entryName.length + 4);
+        } else {
+            local.putInt((int) entryCompressedSize);
+            local.putInt((int) size);
+            local.flip();
+            writeFully(local, entryOffset + 14);
+        }
+
+        addCentralHeader(crc, size);
+        entryName = null;
+        entryCount++;
+    }
+
+    /**
+     * Discards the current entry, truncating the archive to before its
+     * local header, for when its data fails to be read.
+     */
+    void abortEntry() throws IOException {
+        if (entryName == null) {
+            throw new IllegalStateException("No entry");
+        }
+        channel.truncate(entryOffset);
+        channel.position(entryOffset);
+        position = entryOffset;
+        entryName = null;
+    }
+
+    private void addCentralHeader(long crc, long size) {
+        boolean sizeZip64 = size >= MAX_32;
+        boolean compressedSizeZip64 = entryCompressedSize >= MAX_32;
+        boolean offsetZip64 = entryOffset >= MAX_32;
+        int extraSize = (sizeZip64 ? 8 : 0) +
+            (compressedSizeZip64 ? 8 : 0) +
+            (offsetZip64 ? 8 : 0);
+        boolean zip64 = extraSize > 0;
+        if (zip64) {
+            extraSize += 4;
+        }
+
+        ByteBuffer header = newBuffer(
+            CENTRAL_HEADER_SIZE + entryName.length + extraSize);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) (HOST_UNIX << 8 | VERSION_ZIP64));
+        header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entryMethod);
+        header.putInt((int) entryDosTime);
+        header.putInt((int) crc);
+        header.putInt((int) (compressedSizeZip64
+            ? MAX_32
+            : entryCompressedSize));
+        header.putInt((int) (sizeZip64 ? MAX_32 : size));
+        header.putShort((short) entryName.length);
+        header.putShort((short) extraSize);
+        header.putShort((short) 0); // Comment length
+        header.putShort((short) 0); // Disk number
+        header.putShort((short) 0); // Internal attributes
+        header.putInt(entryMode << 16 |
+            ((entryMode & S_IFMT) == S_IFDIR ? DOS_DIRECTORY : 0));
+        header.putInt((int) (offsetZip64 ? MAX_32 : entryOffset));
+        header.put(entryName);
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) (extraSize - 4));
+            if (sizeZip64) {
+                header.putLong(size);
+            }
+            if (compressedSizeZip64) {
+                header.putLong(entryCompressedSize);
+            }
+            if (offsetZip64) {
+                header.putLong(entryOffset);
+            }
+        }
+        centralDirectory.write(header.array(), 0, header.position());
+    }
+
+    /**
+     * Writes the central directory and the end records, after which
+     * nothing more can be written.
+     */
+    void finish() throws IOException {
+        if (entryName != null) {
+            throw new IllegalStateException("Entry not finished");
+        }
+
+        long offset = position;
+        long size = centralDirectory.size();
+        writeFully(ByteBuffer.wrap(centralDirectory.toByteArray()));
+
+        boolean zip64 = entryCount >= MAX_16 ||
+            offset >= MAX_32 ||
+            size >= MAX_32;
+
+        if (zip64) {
+            long zip64EndOffset = position;
+            ByteBuffer end = newBuffer(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE);
+            end.putInt(ZIP64_END_SIGNATURE);
+            end.putLong(ZIP64_END_SIZE - 12);
+            end.putShort((short) (HOST_UNIX << 8 | VERSION_ZIP64));
+            end.putShort((short) VERSION_ZIP64);
+            end.putInt(0); // This disk
+            end.putInt(0); // Disk of central directory
+            end.putLong(entryCount); // On this disk
+            end.putLong(entryCount);
+            end.putLong(size);
+            end.putLong(offset);
+
+            end.putInt(ZIP64_LOCATOR_SIGNATURE);
+            end.putInt(0); // Disk of ZIP64 end record
+            end.putLong(zip64EndOffset);
+            end.putInt(1); // Total disks
+            end.flip();
+            writeFully(end);
+        }
+
+        ByteBuffer end = newBuffer(END_SIZE);
+        end.putInt(END_SIGNATURE);
+        end.putShort((short) 0); // This disk
+        end.putShort((short) 0); // Disk of central directory
+        end.putShort((short) Math.min(entryCount, MAX_16)); // On this disk
+        end.putShort((short) Math.min(entryCount, MAX_16));
+        end.putInt((int) Math.min(size, MAX_32));
+        end.putInt((int) Math.min(offset, MAX_32));
+        end.putShort((short) 0); // Comment length
+        end.flip();
+        writeFully(end);
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(LITTLE_ENDIAN);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+}
@@ -0,0 +1,52 @@
+package l.files.operations;
+
+import org.junit.Test;
+
+import static l.files.operations.LatencyHistogram.BUCKET_COUNT;
+import static l.files.operations.LatencyHistogram.bucketOf;
+import static l.files.operations.LatencyHistogram.bucketUpperBoundMicros;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class LatencyHistogramTest {
+
+    @Test
+    public void latencyIsBelowUpperBoundOfItsBucket() {
+        for (long micros : new long[]{0, 1, 2, 3, 4, 1000, 1 << 20}) {
+            int bucket = bucketOf(micros);
+            assertTrue(micros < bucketUpperBoundMicros(bucket));
+            if (bucket > 0) {
+                assertTrue(micros >= bucketUpperBoundMicros(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void longLatenciesGoToLastBucket() {
+        assertEquals(BUCKET_COUNT - 1, bucketOf(Long.MAX_VALUE));
+        assertEquals(
+            Long.MAX_VALUE,
+            bucketUpperBoundMicros(BUCKET_COUNT - 1)
+        );
+    }
+
+    @Test
+    public void percentiles() {
+        long[] counts = new long[BUCKET_COUNT];
+        counts[bucketOf(10)] = 90;
+        counts[bucketOf(1000)] = 9;
+        counts[bucketOf(100000)] = 1;
+        LatencyHistogram histogram = new LatencyHistogram(counts);
+        assertEquals(100, histogram.totalCount());
+        assertEquals(16, histogram.percentileMicros(50));
+        assertEquals(16, histogram.percentileMicros(90));
+        assertEquals(1024, histogram.percentileMicros(99));
+        assertEquals(131072, histogram.percentileMicros(100));
+    }
+
+    @Test
+    public void emptyPercentileIsZero() {
+        assertEquals(0, LatencyHistogram.EMPTY.percentileMicros(50));
+    }
+
+}
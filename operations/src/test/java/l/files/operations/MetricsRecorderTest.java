@@ -0,0 +1,87 @@
+package l.files.operations;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static l.files.operations.Metrics.Phase.COPYING;
+import static l.files.operations.Metrics.Phase.SYNCING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class MetricsRecorderTest {
+
+    private final MetricsRecorder recorder = new MetricsRecorder();
+
+    @Test
+    public void noRatesBeforeSampling() {
+        Metrics metrics = recorder.snapshot();
+        assertEquals(0, metrics.bytesPerSecond(), 0);
+        assertEquals(0, metrics.itemsPerSecond(), 0);
+    }
+
+    @Test
+    public void firstSampleIsRateSinceStart() {
+        recorder.start(0);
+        recorder.sample(SECONDS.toNanos(2), 10, 2000);
+        Metrics metrics = recorder.snapshot();
+        assertEquals(1000, metrics.bytesPerSecond(), 0.001);
+        assertEquals(5, metrics.itemsPerSecond(), 0.001);
+    }
+
+    @Test
+    public void rateFollowsChangeGradually() {
+        recorder.start(0);
+        long bytes = 0;
+        for (int i = 1; i <= 10; i++) {
+            bytes += 1000;
+            recorder.sample(SECONDS.toNanos(i), 0, bytes);
+        }
+        assertEquals(1000, recorder.snapshot().bytesPerSecond(), 0.001);
+
+        // Slows down from 1000 to 10 per second, such as going from large
+        // files to small ones
+        bytes += 10;
+        recorder.sample(SECONDS.toNanos(11), 0, bytes);
+        double afterOneSecond = recorder.snapshot().bytesPerSecond();
+        assertTrue(String.valueOf(afterOneSecond), afterOneSecond < 1000);
+        assertTrue(String.valueOf(afterOneSecond), afterOneSecond > 500);
+
+        for (int i = 12; i <= 60; i++) {
+            bytes += 10;
+            recorder.sample(SECONDS.toNanos(i), 0, bytes);
+        }
+        assertEquals(10, recorder.snapshot().bytesPerSecond(), 1);
+    }
+
+    @Test
+    public void ignoresSamplesWithoutElapsedTime() {
+        recorder.start(0);
+        recorder.sample(SECONDS.toNanos(1), 0, 100);
+        recorder.sample(SECONDS.toNanos(1), 0, 1000);
+        assertEquals(100, recorder.snapshot().bytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void addsUpPhaseTimes() {
+        recorder.addPhaseTime(COPYING, MILLISECONDS.toNanos(100));
+        recorder.addPhaseTime(COPYING, MILLISECONDS.toNanos(50));
+        recorder.addPhaseTime(SYNCING, MILLISECONDS.toNanos(20));
+        Metrics metrics = recorder.snapshot();
+        assertEquals(150, metrics.phaseMillis(COPYING));
+        assertEquals(20, metrics.phaseMillis(SYNCING));
+        assertEquals(0, metrics.phaseMillis(Metrics.Phase.SIZING));
+    }
+
+    @Test
+    public void recordsOpenLatencies() {
+        recorder.recordOpen(MILLISECONDS.toNanos(1));
+        recorder.recordOpen(MILLISECONDS.toNanos(1));
+        recorder.recordOpen(MILLISECONDS.toNanos(100));
+        LatencyHistogram latency = recorder.snapshot().openLatency();
+        assertEquals(3, latency.totalCount());
+        assertEquals(1024, latency.percentileMicros(50));
+        assertEquals(131072, latency.percentileMicros(100));
+    }
+
+}
@@ -0,0 +1,278 @@
+package l.files.operations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.delete;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static l.files.operations.TaskKind.COPY;
+import static l.files.operations.TaskKind.DELETE;
+import static l.files.operations.TaskKind.MOVE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class OperationSchedulerTest {
+
+    private final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+    private final CountDownLatch finish = new CountDownLatch(1);
+
+    private OperationScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        // Store of a path is its first name, e.g. "sd" for /sd/a
+        scheduler = new OperationScheduler(
+            3,
+            1,
+            path -> path.getNameCount() > 0 ? path.getName(0) : path
+        );
+    }
+
+    @After
+    public void tearDown() {
+        finish.countDown();
+    }
+
+    @Test
+    public void runsTransfersOnSameStoreOneAtATime() throws Exception {
+        execute(job("a", COPY, "/sd/a", "/sd/b"));
+        execute(job("b", COPY, "/sd/c", "/sd/d"));
+        assertEquals("a", started.poll(1, SECONDS));
+        assertNull(started.poll(100, MILLISECONDS));
+    }
+
+    @Test
+    public void runsTransfersOnDifferentStoresConcurrently() throws Exception {
+        execute(job("a", COPY, "/sd/a", "/sd/b"));
+        execute(job("b", COPY, "/sd/c", "/sd/d"));
+        execute(job("c", COPY, "/data/a", "/data/b"));
+        assertEquals(set("a", "c"), poll(2));
+    }
+
+    @Test
+    public void transferWaitsForAllItsStores() throws Exception {
+        execute(job("a", COPY, "/sd/a", "/sd/b"));
+        execute(job("b", COPY, "/data/a", "/sd/b"));
+        execute(job("c", COPY, "/data/a", "/data/b"));
+        assertEquals("a", started.poll(1, SECONDS));
+        // c is queued after b which is waiting for data too
+        assertNull(started.poll(100, MILLISECONDS));
+    }
+
+    @Test
+    public void metadataOnlyJobsStartAheadOfWaitingTransfers()
+        throws Exception {
+        execute(job("a", COPY, "/sd/a", "/sd/b"));
+        execute(job("b", COPY, "/sd/c", "/sd/d"));
+        execute(job("c", DELETE, "/sd/e", "/sd"));
+        execute(job("d", MOVE, "/sd/f", "/sd/g"));
+        assertEquals(set("a", "c", "d"), poll(3));
+        assertNull(started.poll(100, MILLISECONDS));
+    }
+
+    @Test
+    public void moveAcrossStoresIsTransfer() throws Exception {
+        execute(job("a", COPY, "/sd/a", "/sd/b"));
+        execute(job("b", MOVE, "/data/a", "/sd/b"));
+        assertEquals("a", started.poll(1, SECONDS));
+        assertNull(started.poll(100, MILLISECONDS));
+    }
+
+    @Test
+    public void limitsNumberOfRunningJobs() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            execute(job(String.valueOf(i), DELETE, "/sd/" + i, "/sd"));
+        }
+        assertEquals(set("0", "1", "2"), poll(3));
+        assertNull(started.poll(100, MILLISECONDS));
+    }
+
+    @Test
+    public void startsNextJobWhenOneFinishes() throws Exception {
+        TestJob a = job("a", COPY, "/sd/a", "/sd/b");
+        CountDownLatch finishA = new CountDownLatch(1);
+        scheduler.execute(a, () -> {
+            started.add(a.name);
+            await(finishA);
+        });
+        execute(job("b", COPY, "/sd/c", "/sd/d"));
+        assertEquals("a", started.poll(1, SECONDS));
+        finishA.countDown();
+        assertEquals("b", started.poll(1, SECONDS));
+    }
+
+    @Test
+    public void reportsQueuePositions() throws Exception {
+        TestJob a = job("a", COPY, "/sd/a", "/sd/b");
+        TestJob b = job("b", COPY, "/sd/c", "/sd/d");
+        TestJob c = job("c", COPY, "/sd/e", "/sd/f");
+        TestJob d = job("d", DELETE, "/data/a", "/data");
+        CountDownLatch finishA = new CountDownLatch(1);
+        scheduler.execute(a, () -> {
+            started.add(a.name);
+            await(finishA);
+        });
+        execute(b);
+        execute(c);
+        assertEquals("a", started.poll(1, SECONDS));
+        waitForPositions(c, 1);
+
+        // Starts immediately without changing the positions of the others
+        execute(d);
+        assertEquals("d", started.poll(1, SECONDS));
+
+        finishA.countDown();
+        assertEquals("b", started.poll(1, SECONDS));
+        waitForPositions(c, 1, 0);
+        synchronized (a) {
+            assertTrue(a.positions.isEmpty());
+        }
+    }
+
+    @Test
+    public void removedJobIsNotStarted() throws Exception {
+        TestJob a = job("a", COPY, "/sd/a", "/sd/b");
+        TestJob b = job("b", COPY, "/sd/c", "/sd/d");
+        TestJob c = job("c", COPY, "/sd/e", "/sd/f");
+        CountDownLatch finishA = new CountDownLatch(1);
+        scheduler.execute(a, () -> {
+            started.add(a.name);
+            await(finishA);
+        });
+        execute(b);
+        execute(c);
+        assertEquals("a", started.poll(1, SECONDS));
+        waitForPositions(c, 1);
+
+        assertTrue(scheduler.remove(b));
+        assertFalse(scheduler.remove(a));
+        waitForPositions(c, 1, 0);
+        finishA.countDown();
+        assertEquals("c", started.poll(1, SECONDS));
+        assertNull(started.poll(100, MILLISECONDS));
+    }
+
+    @Test
+    public void startsJobWithUnreadableManifest() throws Exception {
+        Path dir = createTempDirectory("OperationSchedulerTest");
+        Path file = dir.resolve("manifest");
+        try {
+            Manifest.write(file, asList(Paths.get("/sd/a"), Paths.get("/b")));
+            try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                channel.truncate(channel.size() - 1);
+            }
+            Target target = Target.from(Manifest.read(file), Paths.get("/sd"));
+            execute(new TestJob("a", COPY, target));
+            assertEquals("a", started.poll(1, SECONDS));
+        } finally {
+            deleteIfExists(file);
+            delete(dir);
+        }
+    }
+
+    private Set<String> poll(int count) throws InterruptedException {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            names.add(started.poll(1, SECONDS));
+        }
+        return names;
+    }
+
+    private static Set<String> set(String... names) {
+        return new HashSet<>(asList(names));
+    }
+
+    private void waitForPositions(TestJob job, Integer... expected)
+        throws InterruptedException {
+        List<Integer> expectedList = asList(expected);
+        long end = System.currentTimeMillis() + 1000;
+        synchronized (job) {
+            while (!job.positions.equals(expectedList) &&
+                System.currentTimeMillis() < end) {
+                job.wait(10);
+            }
+            assertEquals(expectedList, job.positions);
+        }
+    }
+
+    private void execute(TestJob job) {
+        scheduler.execute(job, () -> {
+            started.add(job.name);
+            await(finish);
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static TestJob job(
+        String name,
+        TaskKind kind,
+        String source,
+        String destination
+    ) {
+        return new TestJob(name, kind, source, destination);
+    }
+
+    private static final class TestJob implements OperationScheduler.Job {
+
+        final String name;
+        final TaskId id;
+        final Target target;
+        final List<Integer> positions = new ArrayList<>();
+
+        TestJob(String name, TaskKind kind, String source, String destination) {
+            this(name, kind, Target.from(
+                singleton(Paths.get(source)),
+                Paths.get(destination)
+            ));
+        }
+
+        TestJob(String name, TaskKind kind, Target target) {
+            this.name = name;
+            this.id = TaskId.create(name.hashCode(), kind);
+            this.target = target;
+        }
+
+        @Override
+        public TaskId id() {
+            return id;
+        }
+
+        @Override
+        public Target target() {
+            return target;
+        }
+
+        @Override
+        public synchronized void onQueued(int position) {
+            positions.add(position);
+            notifyAll();
+        }
+    }
+}
@@ -56,6 +56,14 @@ public final class ProgressTest {
         assertEquals(2, Progress.normalize(1, 2).processed());
     }
 
+    @Test
+    public void normalize_keeps_inexact_total_above_processed() {
+        assertEquals(3, Progress.normalize(1, 2, false).total());
+        assertEquals(5, Progress.normalize(5, 2, false).total());
+        assertFalse(Progress.normalize(2, 2, false).isDone());
+        assertTrue(Progress.normalize(2, 2, true).isDone());
+    }
+
     @Test
     public void processedPercentage() throws Exception {
         assertThat(0.5F, is(Progress.create(2, 1).getProcessedPercentage()));
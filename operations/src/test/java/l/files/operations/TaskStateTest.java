@@ -36,6 +36,20 @@ public final class TaskStateTest {
         assertEquals(target, pending.target());
     }
 
+    @Test
+    public void PendingIsNotQueuedInitially() {
+        assertEquals(-1, pending.queuePosition());
+    }
+
+    @Test
+    public void PendingToQueuedDoesNotChangeTime() {
+        TaskState.Pending state = pending.queued(2);
+        assertEquals(task, state.task());
+        assertEquals(time, state.time());
+        assertEquals(target, state.target());
+        assertEquals(2, state.queuePosition());
+    }
+
     @Test
     public void PendingToRunning() {
         Progress items = Progress.create(10101, 1);
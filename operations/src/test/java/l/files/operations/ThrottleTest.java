@@ -0,0 +1,74 @@
+package l.files.operations;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+
+import static java.lang.System.nanoTime;
+import static java.lang.Thread.currentThread;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static l.files.operations.Bandwidth.NO_LIMIT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ThrottleTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void unlimitedDoesNotWait() throws Exception {
+        Throttle throttle = new Throttle(Bandwidth.UNLIMITED);
+        long start = nanoTime();
+        throttle.acquire(Long.MAX_VALUE);
+        assertTrue(NANOSECONDS.toMillis(nanoTime() - start) < 100);
+        assertEquals(123, throttle.sliceSize(123));
+    }
+
+    @Test
+    public void limitsRate() throws Exception {
+        Throttle throttle = new Throttle(Bandwidth.create(8 * MB, NO_LIMIT));
+        long start = nanoTime();
+        for (int i = 0; i < 64; i++) {
+            throttle.acquire(MB / 16);
+        }
+        long millis = NANOSECONDS.toMillis(nanoTime() - start);
+        assertTrue(String.valueOf(millis), millis >= 400);
+        assertTrue(String.valueOf(millis), millis < 2000);
+    }
+
+    @Test
+    public void limitsSliceSizeToBurst() {
+        Throttle throttle = new Throttle(Bandwidth.create(8 * MB, NO_LIMIT));
+        assertEquals(2 * MB, throttle.sliceSize(8 * MB));
+        assertEquals(MB, throttle.sliceSize(MB));
+    }
+
+    @Test
+    public void usesForegroundLimitWhileForegroundIsActive() {
+        Throttle throttle = new Throttle(Bandwidth.create(NO_LIMIT, 4 * MB));
+        Throttle.onForegroundActive();
+        assertTrue(Throttle.isForegroundActive());
+        assertEquals(4 * MB, throttle.rate());
+    }
+
+    @Test
+    public void usesLowerOfLimitsWhileForegroundIsActive() {
+        Throttle throttle = new Throttle(Bandwidth.create(2 * MB, 4 * MB));
+        Throttle.onForegroundActive();
+        assertEquals(2 * MB, throttle.rate());
+    }
+
+    @Test
+    public void throwsInterruptedIOExceptionIfInterruptedWhileWaiting() {
+        Throttle throttle = new Throttle(Bandwidth.create(MB, NO_LIMIT));
+        currentThread().interrupt();
+        try {
+            throttle.acquire(10 * MB);
+            fail();
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+}
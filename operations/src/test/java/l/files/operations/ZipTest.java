@@ -0,0 +1,67 @@
+package l.files.operations;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static l.files.operations.Zip.combineCrc;
+import static l.files.operations.Zip.fromDosTime;
+import static l.files.operations.Zip.toDosTime;
+import static org.junit.Assert.assertEquals;
+
+public final class ZipTest {
+
+    private static long crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    @Test
+    public void combinedCrcIsCrcOfConcatenation() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            byte[] data = new byte[random.nextInt(5000)];
+            random.nextBytes(data);
+            int split = data.length == 0 ? 0 : random.nextInt(data.length);
+            long first = crc(data, 0, split);
+            long second = crc(data, split, data.length - split);
+            assertEquals(
+                crc(data, 0, data.length),
+                combineCrc(first, second, data.length - split)
+            );
+        }
+    }
+
+    @Test
+    public void combinesChunksInOrder() {
+        byte[] data = new byte[10_000];
+        new Random(2).nextBytes(data);
+        long combined = 0;
+        for (int offset = 0; offset < data.length; offset += 1234) {
+            int length = Math.min(1234, data.length - offset);
+            combined = combineCrc(combined, crc(data, offset, length), length);
+        }
+        assertEquals(crc(data, 0, data.length), combined);
+    }
+
+    @Test
+    public void dosTimeKeepsTimeToTwoSeconds() {
+        long millis = 1_500_000_001_000L;
+        assertEquals(millis - 1000, fromDosTime(toDosTime(millis)));
+        assertEquals(millis + 1000, fromDosTime(toDosTime(millis + 1999)));
+    }
+
+    @Test
+    public void dosTimeStartsFrom1980() {
+        assertEquals(toDosTime(0), toDosTime(-1_000_000_000_000L));
+        assertEquals((1 << 21) | (1 << 16), toDosTime(0));
+    }
+
+    @Test
+    public void invalidDosTimeIsMinusOne() {
+        assertEquals(-1, fromDosTime(0));
+    }
+
+}
@@ -0,0 +1,237 @@
+package l.files.ui.base.widget;
+
+import android.view.ViewGroup;
+import androidx.recyclerview.widget.RecyclerView.AdapterDataObserver;
+import androidx.recyclerview.widget.RecyclerView.ViewHolder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class StableAdapterTest {
+
+    private Queue<Runnable> differ;
+    private Queue<Runnable> main;
+    private TestAdapter adapter;
+    private CountingObserver observer;
+
+    @Before
+    public void setUp() {
+        differ = new ArrayDeque<>();
+        main = new ArrayDeque<>();
+        adapter = new TestAdapter(differ::add, main::add);
+        observer = new CountingObserver();
+        adapter.registerAdapterDataObserver(observer);
+    }
+
+    private static void runNext(Queue<Runnable> tasks) {
+        Runnable task = tasks.poll();
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    private void runAll() {
+        while (!differ.isEmpty() || !main.isEmpty()) {
+            runNext(differ);
+            runNext(main);
+        }
+    }
+
+    private void assertItems(List<String> expected) {
+        assertEquals(expected, adapter.items());
+        assertEquals(expected.size(), adapter.getItemCount());
+        assertEquals(expected.size(), observer.count);
+    }
+
+    @Test
+    public void applies_first_items_immediately() {
+        adapter.submitItems(asList("a1", "b1"));
+        assertTrue(differ.isEmpty());
+        assertItems(asList("a1", "b1"));
+    }
+
+    @Test
+    public void applies_differences_computed_in_background() {
+        adapter.submitItems(asList("a1", "b1"));
+        adapter.submitItems(asList("b2", "c1"));
+
+        // Still the old items until the differences are notified
+        assertItems(asList("a1", "b1"));
+        runNext(differ);
+        assertItems(asList("a1", "b1"));
+        runNext(main);
+        assertItems(asList("b2", "c1"));
+    }
+
+    @Test
+    public void skips_computing_superseded_differences() {
+        adapter.submitItems(asList("a1", "b1"));
+        adapter.submitItems(asList("b1", "c1"));
+        adapter.submitItems(asList("c1", "d1"));
+
+        runNext(differ);
+        assertTrue(main.isEmpty());
+        runNext(differ);
+        assertEquals(1, main.size());
+        runNext(main);
+        assertItems(asList("c1", "d1"));
+    }
+
+    @Test
+    public void drops_differences_superseded_while_computing() {
+        adapter.submitItems(asList("a1", "b1"));
+        adapter.submitItems(asList("b1", "c1"));
+        runNext(differ);
+        adapter.submitItems(asList("c1", "d1"));
+
+        runNext(main);
+        assertItems(asList("a1", "b1"));
+        runAll();
+        assertItems(asList("c1", "d1"));
+    }
+
+    @Test
+    public void set_items_drops_pending_differences() {
+        adapter.submitItems(asList("a1", "b1"));
+        adapter.submitItems(asList("b1", "c1"));
+        adapter.setItems(asList("x1"));
+        runAll();
+        assertItems(asList("x1"));
+    }
+
+    @Test
+    public void applies_changes_based_on_current_items_directly() {
+        List<String> base = asList("a1", "b1");
+        adapter.submitItems(base);
+        ListChanges changes = new ListChanges(base);
+        changes.remove(0);
+        changes.insert(1);
+
+        adapter.submitItems(asList("b1", "c1"), changes);
+        assertTrue(differ.isEmpty());
+        assertItems(asList("b1", "c1"));
+    }
+
+    @Test
+    public void computes_differences_if_changes_are_based_on_other_items() {
+        adapter.submitItems(asList("a1", "b1"));
+        ListChanges changes = new ListChanges(asList("a1", "b1"));
+        changes.insert(2);
+
+        adapter.submitItems(asList("a1", "b1", "c1"), changes);
+        assertEquals(1, differ.size());
+        runAll();
+        assertItems(asList("a1", "b1", "c1"));
+    }
+
+    @Test
+    public void ends_with_last_items_however_submissions_interleave() {
+        Random random = new Random(0);
+        List<String> last = emptyList();
+        for (int i = 0; i < 500; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    last = randomItems(random);
+                    adapter.submitItems(last);
+                    break;
+                case 1:
+                    runNext(differ);
+                    break;
+                case 2:
+                    runNext(main);
+                    break;
+                default:
+                    // Items shown are always a complete submission
+                    assertEquals(adapter.getItemCount(), observer.count);
+                    break;
+            }
+        }
+        runAll();
+        assertItems(last);
+    }
+
+    private static List<String> randomItems(Random random) {
+        List<String> items = new ArrayList<>();
+        for (char id = 'a'; id <= 'j'; id++) {
+            if (random.nextBoolean()) {
+                items.add(id + String.valueOf(random.nextInt(3)));
+            }
+        }
+        Collections.shuffle(items, random);
+        return items;
+    }
+
+    /**
+     * Items are identified by their first character, the rest is their
+     * content.
+     */
+    private static final class TestAdapter
+        extends StableAdapter<String, ViewHolder> {
+
+        TestAdapter(Executor differ, Executor main) {
+            super(differ, main);
+        }
+
+        @Override
+        protected Object getItemIdObject(String item) {
+            return item.charAt(0);
+        }
+
+        @Override
+        public ViewHolder onCreateViewHolder(ViewGroup parent, int type) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Keeps count of the items from the notifications, which matches the
+     * item count only if every change has been notified.
+     */
+    private final class CountingObserver extends AdapterDataObserver {
+
+        int count;
+
+        @Override
+        public void onChanged() {
+            count = adapter.getItemCount();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            count += itemCount;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            assertTrue(positionStart + itemCount <= count);
+            count -= itemCount;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            assertTrue(positionStart + itemCount <= count);
+        }
+
+        @Override
+        public void onItemRangeMoved(int from, int to, int itemCount) {
+            assertTrue(from < count && to < count);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package l.files.ui.base.widget;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Changes that turn one list into another, recorded as single item
+ * inserts, removes, moves and changes, each relative to the list as left
+ * by the ones before it, the same way {@link ListUpdateCallback} receives
+ * them. For when the producer of the lists knows exactly what it changed,
+ * so a {@link StableAdapter} can be updated without computing a diff.
+ * <p>
+ * Not thread safe, should not be changed after given to an adapter.
+ */
+public final class ListChanges {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int MOVE = 2;
+    private static final int CHANGE = 3;
+
+    private final List<?> base;
+
+    /**
+     * Each change takes three ints: the type, and one or two positions.
+     */
+    private int[] changes = new int[3 * 8];
+    private int size;
+
+    /**
+     * @param base the list these changes will be applied to, identified by
+     *             reference, not by equality, as equal lists may still be
+     *             different versions of the items
+     */
+    public ListChanges(List<?> base) {
+        this.base = requireNonNull(base);
+    }
+
+    /**
+     * Returns true if these changes turn {@code list} into the next list.
+     */
+    public boolean isBasedOn(List<?> list) {
+        return base == list;
+    }
+
+    public void insert(int position) {
+        add(INSERT, position, 0);
+    }
+
+    public void remove(int position) {
+        add(REMOVE, position, 0);
+    }
+
+    public void move(int fromPosition, int toPosition) {
+        add(MOVE, fromPosition, toPosition);
+    }
+
+    public void change(int position) {
+        add(CHANGE, position, 0);
+    }
+
+    private void add(int type, int a, int b) {
+        if (size + 3 > changes.length) {
+            changes = Arrays.copyOf(changes, changes.length * 2);
+        }
+        changes[size++] = type;
+        changes[size++] = a;
+        changes[size++] = b;
+    }
+
+    public void dispatchTo(ListUpdateCallback callback) {
+        for (int i = 0; i < size; i += 3) {
+            int a = changes[i + 1];
+            switch (changes[i]) {
+                case INSERT:
+                    callback.onInserted(a, 1);
+                    break;
+                case REMOVE:
+                    callback.onRemoved(a, 1);
+                    break;
+                case MOVE:
+                    callback.onMoved(a, changes[i + 2]);
+                    break;
+                case CHANGE:
+                    callback.onChanged(a, 1, null);
+                    break;
+                default:
+                    throw new AssertionError(changes[i]);
+            }
+        }
+    }
+
+}
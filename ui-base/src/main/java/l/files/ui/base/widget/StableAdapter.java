@@ -1,5 +1,10 @@
 package l.files.ui.base.widget;
 
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.DiffUtil.DiffResult;
 import androidx.recyclerview.widget.RecyclerView.Adapter;
 import androidx.recyclerview.widget.RecyclerView.ViewHolder;
 
@@ -7,26 +12,139 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
+import static android.os.Looper.getMainLooper;
 import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
 
 public abstract class StableAdapter<T, VH extends ViewHolder> extends Adapter<VH> {
 
+    private static final Handler mainHandler = new Handler(getMainLooper());
+
+    private static final ExecutorService diffExecutor =
+        newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "StableAdapter-diff")
+        );
+
+    private final Executor differ;
+    private final Executor main;
+
     private long seq = 0;
     private final Map<Object, Long> ids = new WeakHashMap<>();
     private final List<T> items = new ArrayList<>();
 
+    /**
+     * The list last given to {@link #setItems(List)} or
+     * {@link #submitItems(List)} that is now in {@link #items}, for checking
+     * whether {@link ListChanges} apply to the current items.
+     */
+    @Nullable
+    private List<?> applied;
+
+    /**
+     * Incremented on every change to {@link #items}, used to discard diffs
+     * that were computed against items that have since been replaced.
+     */
+    private volatile int generation;
+
     protected StableAdapter() {
+        this(diffExecutor, mainHandler::post);
+    }
+
+    /**
+     * @param differ runs the computation of differences
+     * @param main   runs the results on the thread that updates the items
+     */
+    StableAdapter(Executor differ, Executor main) {
+        this.differ = requireNonNull(differ);
+        this.main = requireNonNull(main);
         setHasStableIds(true);
     }
 
     @SuppressWarnings("unchecked")
     public final void setItems(List<? extends T> items) {
+        generation++;
         this.items.clear();
         this.items.addAll(items);
+        applied = items;
         notifyDataSetChanged();
     }
 
+    /**
+     * Replaces the items like {@link #setItems(List)}, but computes the
+     * differences from the current items on a background thread, then
+     * notifies only the inserted, removed, moved and changed items. Items
+     * are matched by {@link #getItemIdObject(Object)} and are considered
+     * changed if they are not equal. If another update happens before the
+     * differences are computed, this update is discarded.
+     */
+    public final void submitItems(List<? extends T> items) {
+        int expectedGeneration = ++generation;
+        List<T> oldItems = new ArrayList<>(this.items);
+        List<T> newItems = new ArrayList<>(items);
+
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            this.items.clear();
+            this.items.addAll(newItems);
+            applied = items;
+            notifyItemRangeRemoved(0, oldItems.size());
+            notifyItemRangeInserted(0, newItems.size());
+            return;
+        }
+
+        differ.execute(() -> {
+            if (expectedGeneration != generation) {
+                return; // Superseded, skip the wasted work
+            }
+            DiffResult diff = DiffUtil.calculateDiff(
+                new Differ(oldItems, newItems)
+            );
+            main.execute(() -> {
+                if (expectedGeneration != generation) {
+                    return;
+                }
+                this.items.clear();
+                this.items.addAll(newItems);
+                applied = items;
+                diff.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    /**
+     * Replaces the items like {@link #submitItems(List)}, but if
+     * {@code changes} turn the current items into {@code items}, notifies
+     * them directly instead of computing the differences. This also drops
+     * any differences still being computed, as they would be superseded.
+     */
+    public final void submitItems(
+        List<? extends T> items,
+        @Nullable ListChanges changes
+    ) {
+        if (items == applied) {
+            generation++;
+            return;
+        }
+        if (changes == null || applied == null || !changes.isBasedOn(applied)) {
+            submitItems(items);
+            return;
+        }
+        generation++;
+        this.items.clear();
+        this.items.addAll(items);
+        applied = items;
+        changes.dispatchTo(new AdapterListUpdateCallback(this));
+    }
+
+    /**
+     * Returns the items as last notified. After {@link #submitItems(List)},
+     * this is still the previous items until the differences have been
+     * computed and notified, so that the items are consistent with the
+     * positions the adapter has reported.
+     */
     public List<T> items() {
         return unmodifiableList(items);
     }
@@ -59,5 +177,43 @@ public abstract class StableAdapter<T, VH extends ViewHolder> extends Adapter<VH
         return getItemIdObject(getItem(position));
     }
 
+    /**
+     * Returns the object identifying the given item across updates. This
+     * may be called on a background thread by
+     * {@link #submitItems(List)}.
+     */
     protected abstract Object getItemIdObject(T item);
+
+    private final class Differ extends DiffUtil.Callback {
+
+        private final List<T> oldItems;
+        private final List<T> newItems;
+
+        Differ(List<T> oldItems, List<T> newItems) {
+            this.oldItems = oldItems;
+            this.newItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return getItemIdObject(oldItems.get(oldPosition))
+                .equals(getItemIdObject(newItems.get(newPosition)));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return oldItems.get(oldPosition)
+                .equals(newItems.get(newPosition));
+        }
+    }
 }
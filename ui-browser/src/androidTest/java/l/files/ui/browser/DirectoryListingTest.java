@@ -0,0 +1,130 @@
+package l.files.ui.browser;
+
+import android.content.res.Resources;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+
+import static androidx.test.InstrumentationRegistry.getInstrumentation;
+import static java.nio.file.Files.createTempDirectory;
+import static l.files.testing.fs.Paths.deleteRecursive;
+import static l.files.ui.browser.sort.FileSort.MODIFIED;
+import static l.files.ui.browser.sort.FileSort.NAME;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public final class DirectoryListingTest {
+
+    private Resources res;
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        res = getInstrumentation().getTargetContext().getResources();
+        dir = createTempDirectory("DirectoryListingTest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteRecursive(dir);
+    }
+
+    private DirectoryListing acquire(Path root) {
+        return DirectoryListing.acquire(root, res);
+    }
+
+    private static void load(DirectoryListing listing) {
+        listing.onLoaded(result -> {
+        }, NAME, false);
+    }
+
+    @Test
+    public void shares_listing_of_same_directory() {
+        DirectoryListing a = acquire(dir.resolve("a"));
+        DirectoryListing b = acquire(dir.resolve("a"));
+        try {
+            assertSame(a, b);
+        } finally {
+            a.release();
+            b.release();
+        }
+    }
+
+    @Test
+    public void retains_recently_released_listing() {
+        DirectoryListing a = acquire(dir.resolve("a"));
+        a.release();
+
+        DirectoryListing b = acquire(dir.resolve("a"));
+        b.release();
+        assertSame(a, b);
+    }
+
+    @Test
+    public void evicts_least_recently_released_listings() {
+        DirectoryListing a = acquire(dir.resolve("a"));
+        a.release();
+        for (int i = 0; i < 20; i++) {
+            acquire(dir.resolve(String.valueOf(i))).release();
+        }
+
+        DirectoryListing b = acquire(dir.resolve("a"));
+        b.release();
+        assertNotSame(a, b);
+    }
+
+    @Test
+    public void does_not_evict_listings_in_use() {
+        DirectoryListing a = acquire(dir.resolve("a"));
+        try {
+            for (int i = 0; i < 20; i++) {
+                acquire(dir.resolve(String.valueOf(i))).release();
+            }
+
+            DirectoryListing b = acquire(dir.resolve("a"));
+            b.release();
+            assertSame(a, b);
+        } finally {
+            a.release();
+        }
+    }
+
+    @Test
+    public void result_is_for_settings_of_request() {
+        DirectoryListing a = acquire(dir.resolve("a"));
+        try {
+            load(a);
+            assertNotNull(a.currentResult(NAME, false));
+            assertNull(a.currentResult(MODIFIED, false));
+            assertNull(a.currentResult(NAME, true));
+
+            a.refreshResult(MODIFIED, false);
+            assertNotNull(a.currentResult(MODIFIED, false));
+            assertNull(a.currentResult(NAME, false));
+        } finally {
+            a.release();
+        }
+    }
+
+    @Test
+    public void rebuilds_retained_listing_on_reuse() {
+        DirectoryListing a = acquire(dir.resolve("a"));
+        load(a);
+        Object items = a.currentResult(NAME, false).items();
+        a.release();
+
+        DirectoryListing b = acquire(dir.resolve("a"));
+        try {
+            assertSame(a, b);
+            assertNull(b.currentResult(NAME, false));
+            assertNotSame(items, b.refreshResult(NAME, false).items());
+            assertNotNull(b.currentResult(NAME, false));
+        } finally {
+            b.release();
+        }
+    }
+}
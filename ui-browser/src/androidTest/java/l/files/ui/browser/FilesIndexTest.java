@@ -0,0 +1,241 @@
+package l.files.ui.browser;
+
+import android.content.res.Resources;
+import androidx.recyclerview.widget.ListUpdateCallback;
+import l.files.ui.base.fs.FileInfo;
+import l.files.ui.base.widget.ListChanges;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static androidx.test.InstrumentationRegistry.getInstrumentation;
+import static java.nio.file.Files.createDirectory;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.isDirectory;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.write;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static l.files.ui.browser.sort.FileSort.NAME;
+import static l.files.ui.browser.sort.FileSort.SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class FilesIndexTest {
+
+    private static final Object INSERTED = new Object();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Collator collator = Collator.getInstance();
+    private final Map<Path, FileInfo> files = new HashMap<>();
+    private final FilesIndex index = new FilesIndex(null);
+
+    @Test
+    public void update_adds_and_removes_changed_files_in_order() {
+        FileInfo a = put("a");
+        FileInfo c = put("c");
+        index.reset(NAME, false, files.values());
+        assertEquals(asList(a, c), index.items());
+
+        FileInfo b = put("b");
+        assertTrue(index.update(NAME, false, files, singleton(name(b))));
+        assertEquals(asList(a, b, c), index.items());
+
+        files.remove(name(a));
+        assertTrue(index.update(NAME, false, files, singleton(name(a))));
+        assertEquals(asList(b, c), index.items());
+    }
+
+    @Test
+    public void update_ignores_hidden_files() {
+        FileInfo a = put("a");
+        index.reset(NAME, false, files.values());
+
+        FileInfo hidden = put(".hidden");
+        assertFalse(index.update(NAME, false, files, singleton(name(hidden))));
+        assertEquals(singletonList(a), index.items());
+    }
+
+    @Test
+    public void update_rebuilds_when_show_hidden_changes() {
+        FileInfo a = put("a");
+        FileInfo hidden = put(".hidden");
+        index.reset(NAME, false, files.values());
+        assertEquals(singletonList(a), index.items());
+
+        assertTrue(index.update(NAME, true, files, singleton(name(a))));
+        assertEquals(
+            new HashSet<>(asList(hidden, a)),
+            new HashSet<>(index.items())
+        );
+    }
+
+    @Test
+    public void changes_turn_previous_items_into_current_items()
+        throws Exception {
+        Resources res = getInstrumentation().getContext().getResources();
+        FilesIndex sized = new FilesIndex(res);
+        Random random = new Random(0);
+        int[] sizes = {0, 10, 2000, 3 * 1024 * 1024, -1};
+
+        for (int i = 0; i < 20; i++) {
+            put(i, sizes[random.nextInt(sizes.length)]);
+        }
+        sized.reset(SIZE, false, files.values());
+        List<Object> items = sized.items();
+        assertNull(sized.changes());
+
+        for (int round = 0; round < 50; round++) {
+            List<Path> changed = new ArrayList<>();
+            for (int i = random.nextInt(5); i >= 0; i--) {
+                int n = random.nextInt(30);
+                int size = random.nextInt(sizes.length + 1);
+                if (size == sizes.length) {
+                    files.remove(Paths.get(String.valueOf(n)));
+                } else {
+                    put(n, sizes[size]);
+                }
+                changed.add(Paths.get(String.valueOf(n)));
+            }
+            if (!sized.update(SIZE, false, files, changed)) {
+                continue;
+            }
+
+            List<Object> previous = items;
+            items = sized.items();
+            assertEquals(
+                SIZE.sort(new ArrayList<>(files.values()), res),
+                items
+            );
+            ListChanges changes = sized.changes();
+            assertNotNull(changes);
+            assertTrue(changes.isBasedOn(previous));
+            assertApplies(changes, previous, items);
+        }
+    }
+
+    @Test
+    public void items_are_same_until_changed() {
+        put("a");
+        index.reset(NAME, false, files.values());
+        List<Object> items = index.items();
+        assertSame(items, index.items());
+
+        Set<Path> names = singleton(Paths.get("a"));
+        assertFalse(index.update(NAME, false, files, names));
+        assertSame(items, index.items());
+    }
+
+    @Test
+    public void changes_are_unknown_after_rebuild() {
+        put("a");
+        index.reset(NAME, false, files.values());
+        index.items();
+        assertTrue(index.update(NAME, true, files, singleton(Paths.get("a"))));
+        index.items();
+        assertNull(index.changes());
+    }
+
+    /**
+     * Applies the changes to a copy of {@code from}, inserted items can't be
+     * known from the changes so they are marked, checks the rest of the
+     * items end up in the same positions as in {@code to}.
+     */
+    private static void assertApplies(
+        ListChanges changes,
+        List<Object> from,
+        List<Object> to
+    ) {
+        List<Object> result = new ArrayList<>(from);
+        changes.dispatchTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                for (int i = 0; i < count; i++) {
+                    result.add(position, INSERTED);
+                }
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                result.subList(position, position + count).clear();
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                result.add(toPosition, result.remove(fromPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                for (int i = position; i < position + count; i++) {
+                    result.set(i, INSERTED);
+                }
+            }
+        });
+
+        assertEquals(to.size(), result.size());
+        for (int i = 0; i < result.size(); i++) {
+            if (result.get(i) != INSERTED) {
+                assertEquals(to.get(i), result.get(i));
+            }
+        }
+    }
+
+    /**
+     * Creates a file, or a directory if size is -1.
+     */
+    private void put(int name, int size) throws IOException {
+        Path path = folder.getRoot().toPath().resolve(String.valueOf(name));
+        if (!exists(path)) {
+            if (size == -1) {
+                createDirectory(path);
+            } else {
+                write(path, new byte[size]);
+            }
+        } else if (size != -1 && !isDirectory(path)) {
+            write(path, new byte[size]);
+        }
+        BasicFileAttributes attrs =
+            readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS);
+        FileInfo file = FileInfo.create(path, attrs, null, null, collator);
+        files.put(name(file), file);
+    }
+
+    private FileInfo put(String name) {
+        FileInfo file = FileInfo.create(
+            Paths.get("/tmp", name),
+            null,
+            null,
+            null,
+            collator
+        );
+        files.put(name(file), file);
+        return file;
+    }
+
+    private static Path name(FileInfo file) {
+        return file.getFileName();
+    }
+
+}
@@ -0,0 +1,85 @@
+package l.files.ui.browser;
+
+import l.files.ui.base.fs.FileInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.text.Collator;
+import java.util.Map;
+
+import static java.nio.file.Files.*;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.util.Arrays.asList;
+import static l.files.testing.fs.Paths.deleteRecursive;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ListingCacheTest {
+
+    private final Collator collator = Collator.getInstance();
+
+    private Path dir;
+    private Path cacheDir;
+    private ListingCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = createTempDirectory("ListingCacheTest");
+        cacheDir = createTempDirectory("ListingCacheTest");
+        cache = new ListingCache(cacheDir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteRecursive(dir);
+        deleteRecursive(cacheDir);
+    }
+
+    @Test
+    public void reads_what_was_written() throws Exception {
+        FileInfo file = stat(createFile(dir.resolve("file")));
+        FileInfo sub = stat(createDirectory(dir.resolve("sub")));
+        FileTime time = getLastModifiedTime(dir);
+
+        cache.write(dir, time, asList(file, sub));
+        Map<Path, FileInfo> actual = cache.read(dir, time, collator);
+
+        assertEquals(2, actual.size());
+        assertAttrs(file, actual.get(file.getFileName()));
+        assertAttrs(sub, actual.get(sub.getFileName()));
+        assertNull(actual.get(file.getFileName()).linkTargetPath());
+    }
+
+    @Test
+    public void ignores_listing_if_directory_modified() throws Exception {
+        FileInfo file = stat(createFile(dir.resolve("file")));
+        FileTime time = getLastModifiedTime(dir);
+        cache.write(dir, time, asList(file));
+
+        FileTime newTime = FileTime.fromMillis(time.toMillis() + 1000);
+        assertTrue(cache.read(dir, newTime, collator).isEmpty());
+    }
+
+    private FileInfo stat(Path path) throws IOException {
+        BasicFileAttributes attrs =
+            readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS);
+        return FileInfo.create(path, attrs, null, attrs, collator);
+    }
+
+    private static void assertAttrs(FileInfo expected, FileInfo actual) {
+        BasicFileAttributes a = expected.selfAttrs();
+        BasicFileAttributes b = actual.selfAttrs();
+        assert a != null && b != null;
+        assertEquals(expected.selfPath(), actual.selfPath());
+        assertEquals(a.isDirectory(), b.isDirectory());
+        assertEquals(a.isRegularFile(), b.isRegularFile());
+        assertEquals(a.size(), b.size());
+        assertEquals(a.lastModifiedTime(), b.lastModifiedTime());
+    }
+}
@@ -1,11 +1,17 @@
 package l.files.ui.browser.sort;
 
+import l.files.ui.base.fs.FileInfo;
 import org.junit.Test;
 
 import java.nio.file.Paths;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
+import static java.util.Arrays.asList;
 import static java.util.Locale.SIMPLIFIED_CHINESE;
+import static org.junit.Assert.assertEquals;
 import static l.files.ui.browser.sort.FileSort.NAME;
 
 public final class FileSortNameTest extends FileSortTest {
@@ -63,4 +69,29 @@ public final class FileSortNameTest extends FileSortTest {
         );
     }
 
+    @Test
+    public void merge_matches_full_sort() {
+        Collator collator = Collator.getInstance();
+        List<FileInfo> sorted = asList(
+            file("a1", collator),
+            file("a10", collator),
+            file("c", collator)
+        );
+        List<FileInfo> items = new ArrayList<>(asList(
+            file("d", collator),
+            file("a2", collator),
+            file("b", collator)
+        ));
+
+        List<FileInfo> expected = new ArrayList<>(sorted);
+        expected.addAll(items);
+        expected.sort(NAME.comparator());
+
+        assertEquals(expected, NAME.merge(sorted, items));
+    }
+
+    private static FileInfo file(String name, Collator collator) {
+        return FileInfo.create(Paths.get(name), null, null, null, collator);
+    }
+
 }
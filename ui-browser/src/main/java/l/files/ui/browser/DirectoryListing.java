@@ -0,0 +1,501 @@
+package l.files.ui.browser;
+
+import android.content.res.Resources;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import l.files.fs.event.BatchObserver;
+import l.files.fs.event.BatchObserverNotifier;
+import l.files.ui.base.fs.FileInfo;
+import l.files.ui.browser.FilesLoader.Result;
+import l.files.ui.browser.sort.FileSort;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+import static android.os.Process.setThreadPriority;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.Files.readSymbolicLink;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * The live files of a directory, shared by all loaders of the directory, so
+ * that the same directory opened in multiple places is only listed, stat'ed
+ * and watched once.
+ * <p>
+ * Listings are reference counted by their loaders. A listing no longer used
+ * by any loader is kept up to date for a while, so going back to a recently
+ * visited directory shows its files without loading it again, until it is
+ * evicted by more recently used listings.
+ */
+final class DirectoryListing {
+
+    static final int BATCH_UPDATE_MILLIS = 1000;
+
+    /**
+     * Maximum number of unused listings to keep, each one holds a watch on
+     * its directory.
+     */
+    private static final int MAX_RETAINED_LISTINGS = 8;
+
+    /**
+     * Maximum number of files in total of the unused listings to keep, as
+     * an approximation of the memory they use.
+     */
+    private static final int MAX_RETAINED_FILES = 20_000;
+
+    /**
+     * All the listings, from the least to the most recently used.
+     */
+    private static final Map<Path, DirectoryListing> listings =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    final Path root;
+    final Collator collator;
+    final ConcurrentMap<Path, FileInfo> data = new ConcurrentHashMap<>();
+    final FilesIndex index;
+
+    /**
+     * Held while the directory is being loaded, so that loaders started at
+     * the same time wait for the first one instead of loading again.
+     */
+    final ReentrantLock loadLock = new ReentrantLock();
+
+    private final ExecutorService executor = newSingleThreadExecutor();
+    private final Set<Consumer<Result>> listeners =
+        new CopyOnWriteArraySet<>();
+
+    private final BatchObserver listener = childFileNames -> {
+        if (!childFileNames.isEmpty()) {
+            updateAll(childFileNames, false);
+        }
+    };
+
+    /**
+     * Guarded by the class lock.
+     */
+    private int references;
+
+    /**
+     * True if {@link #data} has been fully loaded and is kept up to date.
+     */
+    private volatile boolean loaded;
+
+    /**
+     * True if this has been retained unused, and the category headers of
+     * the index, which are relative to the time they were built, need to
+     * be rebuilt before the index is used again.
+     */
+    private volatile boolean stale;
+
+    /**
+     * The settings of the latest request, used to update the index on file
+     * system changes in between requests, null until the first request.
+     */
+    @Nullable
+    private volatile FileSort sort;
+    private volatile boolean showHidden;
+
+    private boolean observing;
+    private boolean closed;
+
+    @Nullable
+    private Closeable observation;
+
+    @Nullable
+    private volatile Result cachedResult;
+
+    private DirectoryListing(Path root, Resources res) {
+        this.root = requireNonNull(root, "root");
+        this.collator = Collator.getInstance();
+        this.index = new FilesIndex(requireNonNull(res, "res"));
+    }
+
+    /**
+     * Returns the listing of {@code root}, creating one if there isn't one.
+     * Each call must be paired with a call to {@link #release()}.
+     */
+    static synchronized DirectoryListing acquire(Path root, Resources res) {
+        DirectoryListing listing = listings.get(root);
+        if (listing == null) {
+            listing = new DirectoryListing(root, res);
+            listings.put(root, listing);
+        } else if (listing.references == 0) {
+            listing.stale = true;
+        }
+        listing.references++;
+        return listing;
+    }
+
+    void release() {
+        synchronized (DirectoryListing.class) {
+            if (references <= 0) {
+                throw new IllegalStateException("Already released " + root);
+            }
+            references--;
+            trim();
+        }
+    }
+
+    /**
+     * Causes the next loader of {@code root} to load it again instead of
+     * using the current listing.
+     */
+    static synchronized void invalidate(Path root) {
+        DirectoryListing listing = listings.get(root);
+        if (listing != null) {
+            listing.loaded = false;
+        }
+    }
+
+    /**
+     * Closes the least recently used listings not used by any loaders, until
+     * the unused listings are within the limits.
+     */
+    private static void trim() {
+        assert Thread.holdsLock(DirectoryListing.class);
+
+        int count = 0;
+        long files = 0;
+        for (DirectoryListing listing : listings.values()) {
+            if (listing.references == 0) {
+                count++;
+                files += listing.data.size();
+            }
+        }
+
+        Iterator<DirectoryListing> it = listings.values().iterator();
+        while (it.hasNext()
+            && (count > MAX_RETAINED_LISTINGS || files > MAX_RETAINED_FILES)) {
+            DirectoryListing listing = it.next();
+            if (listing.references == 0) {
+                it.remove();
+                count--;
+                files -= listing.data.size();
+                listing.close();
+            }
+        }
+    }
+
+    void addListener(Consumer<Result> listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Consumer<Result> listener) {
+        listeners.remove(listener);
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Returns the last result, or null if there isn't one or it's not valid
+     * for the given settings.
+     */
+    @Nullable
+    Result currentResult(FileSort sort, boolean showHidden) {
+        Result result = cachedResult;
+        if (result != null
+            && loaded
+            && !stale
+            && index.isCurrent(sort, showHidden)) {
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * Starts watching the directory, passing its existing children to
+     * {@code childrenConsumer}. Returns false without doing anything if the
+     * directory is already being watched, the caller should list the
+     * children itself instead.
+     */
+    boolean observe(Consumer<Path> childrenConsumer) throws IOException {
+        synchronized (this) {
+            if (observing || closed) {
+                return false;
+            }
+            observing = true;
+        }
+
+        Closeable closeable;
+        try {
+            closeable = new BatchObserverNotifier(
+                listener,
+                BATCH_UPDATE_MILLIS,
+                MILLISECONDS,
+                true
+            ).start(root, childrenConsumer);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                observing = false;
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            if (!closed) {
+                observation = closeable;
+                return true;
+            }
+        }
+        closeable.close();
+        return true;
+    }
+
+    private void close() {
+        Closeable closeable;
+        synchronized (this) {
+            closed = true;
+            loaded = false;
+            closeable = observation;
+            observation = null;
+        }
+
+        executor.shutdownNow();
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(),
+                    "Failed to close " + root, e
+                );
+            }
+        }
+
+        data.clear();
+        cachedResult = null;
+    }
+
+    /**
+     * Rebuilds the index from all the files with the given settings, and
+     * delivers the result to all the listeners.
+     */
+    void updateAll(FileSort sort, boolean showHidden) {
+        request(sort, showHidden);
+        updateAll(emptyMap(), true);
+    }
+
+    private void updateAll(
+        Map<Path, ? extends WatchEvent.Kind<?>> changedChildFileNames,
+        boolean forceReload
+    ) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.execute(() -> {
+            setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+
+            List<Path> changed = new ArrayList<>();
+            for (Entry<Path, ? extends WatchEvent.Kind<?>> entry :
+                changedChildFileNames.entrySet()) {
+                if (update(entry.getKey(), entry.getValue())) {
+                    changed.add(entry.getKey());
+                }
+            }
+
+            FileSort sort = this.sort;
+            if (sort == null) {
+                return;
+            }
+            Result result;
+            if (forceReload || stale) {
+                result = buildResult(sort, showHidden);
+            } else if (index.update(sort, showHidden, data, changed)) {
+                result = indexedResult();
+            } else {
+                return;
+            }
+            publish(result);
+        });
+    }
+
+    /**
+     * Called by the loader after it has fully loaded the directory, marks
+     * this listing as loaded and delivers the result to the other loaders.
+     */
+    Result onLoaded(
+        Consumer<Result> loader,
+        FileSort sort,
+        boolean showHidden
+    ) {
+        Result result = buildResult(sort, showHidden);
+        loaded = true;
+        for (Consumer<Result> listener : listeners) {
+            if (listener != loader) {
+                listener.accept(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result of the current files for the given settings, only
+     * rebuilding the index if the settings have changed since the index was
+     * built, or if this has been retained unused since.
+     */
+    Result refreshResult(FileSort sort, boolean showHidden) {
+        if (stale) {
+            return buildResult(sort, showHidden);
+        }
+        request(sort, showHidden);
+        Result result = cachedResult;
+        if (index.update(sort, showHidden, data, emptyList())
+            || result == null) {
+            result = indexedResult();
+        }
+        return result;
+    }
+
+    private void publish(Result result) {
+        for (Consumer<Result> listener : listeners) {
+            listener.accept(result);
+        }
+    }
+
+    private Result buildResult(FileSort sort, boolean showHidden) {
+        reset(sort, showHidden);
+        return indexedResult();
+    }
+
+    /**
+     * Returns the result of the files loaded so far, while the directory is
+     * still being loaded.
+     */
+    Result buildPartialResult(FileSort sort, boolean showHidden) {
+        reset(sort, showHidden);
+        return index.partialResult();
+    }
+
+    /**
+     * Rebuilds the index from all the files with the given settings.
+     */
+    private void reset(FileSort sort, boolean showHidden) {
+        request(sort, showHidden);
+        stale = false;
+        index.reset(sort, showHidden, data.values());
+    }
+
+    private void request(FileSort sort, boolean showHidden) {
+        this.sort = requireNonNull(sort, "sort");
+        this.showHidden = showHidden;
+    }
+
+    private Result indexedResult() {
+        Result result = index.result();
+        cachedResult = result;
+        return result;
+    }
+
+    /**
+     * Adds the new status of the given path to the data map. Returns true if
+     * the data map is changed.
+     */
+    boolean update(
+        Path childFileName,
+        @Nullable WatchEvent.Kind<?> kind
+    ) {
+        Path path = root.resolve(childFileName);
+
+        /*
+         * This if statement may seem unnecessary given the try-catch below
+         * will remove the entry if FileNotFoundException occur anyway, but
+         * this if statement is important for some case-insensitive file
+         * systems.
+         *
+         * For example:
+         *
+         *  file "a" gets renamed to file "A"
+         *
+         * 2 events will be generated:
+         *
+         *   "a" -> DELETE
+         *   "A" -> CREATE
+         *
+         * if this check is skipped, then:
+         *
+         *   stat("a") -> will succeed as path is case-insensitive
+         *   stat("A") -> will succeed
+         *
+         * resulting both "a" and "A" be displayed.
+         */
+        if (ENTRY_DELETE.equals(kind)) {
+            return data.remove(path.getFileName()) != null;
+        }
+
+        try {
+
+            BasicFileAttributes attrs =
+                readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS);
+            BasicFileAttributes targetAttrs = readTargetStatus(path, attrs);
+            Path target = readTarget(path, attrs);
+            FileInfo newStat =
+                FileInfo.create(path, attrs, target, targetAttrs, collator);
+            FileInfo oldStat = data.put(path.getFileName(), newStat);
+            return !newStat.equals(oldStat);
+
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return data.remove(path.getFileName()) != null;
+
+        } catch (IOException e) {
+            data.put(
+                path.getFileName(),
+                FileInfo.create(path, null, null, null, collator)
+            );
+            return true;
+        }
+    }
+
+    private Path readTarget(Path path, BasicFileAttributes attrs)
+        throws IOException {
+        if (attrs.isSymbolicLink()) {
+            try {
+                return readSymbolicLink(path);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                throw e;
+            } catch (IOException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private BasicFileAttributes readTargetStatus(
+        Path file,
+        BasicFileAttributes attrs
+    ) {
+        if (attrs.isSymbolicLink()) {
+            try {
+                return readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException ignored) {
+            }
+        }
+        return attrs;
+    }
+
+}
@@ -276,6 +276,8 @@ public final class FilesFragment
     }
 
     private void restartLoad() {
+        assert directory != null;
+        DirectoryListing.invalidate(directory);
         getLoaderManager().restartLoader(0, null, this);
     }
 
@@ -365,36 +367,44 @@ public final class FilesFragment
     public Loader<Result> onCreateLoader(int id, Bundle bundle) {
         assert directory != null;
         refreshEnabled = false;
-        Activity context = getActivity();
+        Activity activity = getActivity();
+        assert activity != null;
+        Context context = activity.getApplicationContext();
         return new FilesLoader(
             context,
             directory,
             () -> getSort(context),
-            () -> getShowHiddenFiles(context)
+            () -> getShowHiddenFiles(context),
+            true
         );
     }
 
     @Override
     public void onLoadFinished(Loader<Result> loader, Result data) {
-        handler.removeCallbacks(checkProgress);
+        if (data.isComplete()) {
+            handler.removeCallbacks(checkProgress);
+        }
 
         Activity activity = getActivity();
         if (activity != null && !activity.isFinishing()) {
 
-            if (progressBar != null) {
+            if (progressBar != null && data.isComplete()) {
                 progressBar.setVisibility(GONE);
             }
 
-            updateSelection(data);
+            // Partial results don't have everything yet, don't deselect
+            if (data.isComplete()) {
+                updateSelection(data);
+            }
 
-            adapter.setItems(data.items());
+            adapter.submitItems(data.items(), data.changes());
 
             IOException e = data.exception();
             if (e != null) {
                 inflateEmptyView().setText(message(e));
                 inflateEmptyView().setVisibility(VISIBLE);
 
-            } else if (adapter.isEmpty()) {
+            } else if (data.items().isEmpty() && data.isComplete()) {
                 inflateEmptyView().setText(R.string.empty);
                 inflateEmptyView().setVisibility(VISIBLE);
 
@@ -406,7 +416,9 @@ public final class FilesFragment
 
         }
 
-        refreshEnabled = true;
+        if (data.isComplete()) {
+            refreshEnabled = true;
+        }
     }
 
     private void updateSelection(Result data) {
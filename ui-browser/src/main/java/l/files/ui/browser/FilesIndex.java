@@ -0,0 +1,453 @@
+package l.files.ui.browser;
+
+import android.content.res.Resources;
+import androidx.annotation.Nullable;
+import l.files.ui.base.fs.FileInfo;
+import l.files.ui.base.widget.ListChanges;
+import l.files.ui.browser.FilesLoader.Result;
+import l.files.ui.browser.sort.FileSort;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.util.Collections.binarySearch;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Visible files of a directory kept in the order of a {@link FileSort}, with
+ * the category headers of the sort, so that a change to a few files can be
+ * applied without sorting and categorizing the whole directory again. The
+ * changes are recorded as {@link ListChanges} for the adapter, so it doesn't
+ * have to find them again by diffing.
+ * <p>
+ * Files are kept in array lists, each changed file is found by binary
+ * search, but inserting or removing it shifts the elements after it, so a
+ * batch of k changes costs O(k n) in the worst case. The shifts are single
+ * array copies, much cheaper per element than the comparisons of a sort,
+ * and {@link #items()} copies the n items once per batch for the result
+ * anyway, as does the adapter, so a balanced tree would not lower the
+ * total cost of a batch below O(n).
+ */
+final class FilesIndex {
+
+    @Nullable
+    private final Resources res;
+
+    /**
+     * The files currently in {@link #files} by their file names, needed to
+     * find the old position of a file, as the sort may depend on the
+     * attributes of the file that have since changed.
+     */
+    private final Map<Path, FileInfo> indexed = new HashMap<>();
+
+    /**
+     * The visible files in sorted order, for finding positions by binary
+     * search.
+     */
+    private final List<FileInfo> files = new ArrayList<>();
+
+    /**
+     * {@link #files} with the category headers, as shown.
+     */
+    private final List<Object> items = new ArrayList<>();
+
+    /**
+     * The categories in {@link #items}, in order, empty if the sort has no
+     * categories.
+     */
+    private final List<Category> categories = new ArrayList<>();
+
+    @Nullable
+    private FileSort sort;
+
+    @Nullable
+    private Comparator<FileInfo> comparator;
+
+    @Nullable
+    private Function<FileInfo, Header> headers;
+
+    private boolean showHidden;
+
+    /**
+     * False if the categories are not contiguous in the order of the sort,
+     * so files can't be inserted one at a time, and every update rebuilds
+     * the index instead. Not expected from the current sorts.
+     */
+    private boolean incremental;
+
+    /**
+     * The items as last returned by {@link #items()}.
+     */
+    private List<Object> snapshot = emptyList();
+
+    /**
+     * Changes to {@link #items} since {@link #snapshot}, or null if the
+     * index has been rebuilt since.
+     */
+    @Nullable
+    private ListChanges pendingChanges;
+
+    /**
+     * Changes from the snapshot before {@link #snapshot} to it.
+     */
+    @Nullable
+    private ListChanges changes;
+
+    private boolean dirty;
+
+    /**
+     * @param res for the category headers, may be null if the sorts used
+     *            have no categories
+     */
+    FilesIndex(@Nullable Resources res) {
+        this.res = res;
+    }
+
+    /**
+     * Rebuilds the index from all the given files.
+     */
+    synchronized void reset(
+        FileSort sort,
+        boolean showHidden,
+        Collection<FileInfo> files
+    ) {
+        this.sort = sort;
+        this.showHidden = showHidden;
+        // Break ties by path, otherwise files with equal keys will not have
+        // a definite position
+        this.comparator =
+            sort.comparator().thenComparing(FileInfo::selfPath);
+        this.headers = sort.headers(res);
+
+        indexed.clear();
+        this.files.clear();
+        for (FileInfo file : files) {
+            if (isVisible(file)) {
+                indexed.put(file.getFileName(), file);
+                this.files.add(file);
+            }
+        }
+        this.files.sort(comparator);
+        incremental = true;
+        rebuildItems();
+        pendingChanges = null;
+        dirty = true;
+    }
+
+    private void rebuildItems() {
+        items.clear();
+        categories.clear();
+        if (headers == null) {
+            items.addAll(files);
+            return;
+        }
+        Set<Header> seen = new HashSet<>();
+        for (FileInfo file : files) {
+            Header header = headers.apply(file);
+            Category last = categories.isEmpty()
+                ? null
+                : categories.get(categories.size() - 1);
+            if (last != null && last.header.equals(header)) {
+                last.count++;
+            } else if (seen.add(header)) {
+                categories.add(new Category(header));
+                items.add(header);
+            } else {
+                // Do the same as FileSort.categorize
+                assert sort != null;
+                items.clear();
+                items.addAll(sort.categorize(new ArrayList<>(files), res));
+                categories.clear();
+                incremental = false;
+                return;
+            }
+            items.add(file);
+        }
+    }
+
+    /**
+     * Re-reads the given children from {@code files} and moves them to their
+     * new positions, or removes them if they no longer exist or are hidden.
+     * The whole index is rebuilt if {@code sort} or {@code showHidden} has
+     * changed since the last update. Returns true if the index is changed.
+     */
+    synchronized boolean update(
+        FileSort sort,
+        boolean showHidden,
+        Map<Path, FileInfo> files,
+        Collection<Path> childFileNames
+    ) {
+        if (!isCurrent(sort, showHidden)) {
+            reset(sort, showHidden, files.values());
+            return true;
+        }
+        if (!incremental) {
+            if (!childFileNames.isEmpty()) {
+                reset(sort, showHidden, files.values());
+                return true;
+            }
+            return false;
+        }
+
+        boolean changed = false;
+        for (Path childFileName : childFileNames) {
+            FileInfo oldFile = indexed.remove(childFileName);
+            FileInfo newFile = files.get(childFileName);
+            if (newFile != null && !isVisible(newFile)) {
+                newFile = null;
+            }
+            if (oldFile == newFile) {
+                if (oldFile != null) {
+                    indexed.put(childFileName, oldFile);
+                }
+                continue;
+            }
+            changed = true;
+            if (!replace(oldFile, newFile)) {
+                reset(sort, showHidden, files.values());
+                return true;
+            }
+        }
+        if (changed) {
+            dirty = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces {@code oldFile} with {@code newFile} in their positions,
+     * either may be null, recording the changes. Returns false if the
+     * categories are no longer contiguous, and the index needs to be
+     * rebuilt.
+     */
+    private boolean replace(
+        @Nullable FileInfo oldFile,
+        @Nullable FileInfo newFile
+    ) {
+        int from = -1;
+        int removedHeader = -1;
+        if (oldFile != null) {
+            int index = binarySearch(files, oldFile, comparator);
+            int category = headers == null
+                ? 0
+                : indexOfCategory(headers.apply(oldFile));
+            from = index + category + (headers == null ? 0 : 1);
+            removedHeader = remove(index, category, from);
+        }
+
+        int to = -1;
+        int insertedHeader = -1;
+        if (newFile != null) {
+            int index = -binarySearch(files, newFile, comparator) - 1;
+            int category = categoryForInsert(newFile, index);
+            if (category == -1) {
+                return false;
+            }
+            to = index + category + (headers == null ? 0 : 1);
+            insertedHeader = insert(newFile, index, category, to);
+            indexed.put(newFile.getFileName(), newFile);
+        }
+
+        ListChanges changes = pendingChanges;
+        if (changes == null) {
+            return true;
+        }
+        if (from != -1 && to != -1
+            && removedHeader == -1 && insertedHeader == -1) {
+            if (from != to) {
+                changes.move(from, to);
+            }
+            changes.change(to);
+            return true;
+        }
+        if (from != -1) {
+            changes.remove(from);
+        }
+        if (removedHeader != -1) {
+            changes.remove(removedHeader);
+        }
+        if (insertedHeader != -1) {
+            changes.insert(insertedHeader);
+        }
+        if (to != -1) {
+            changes.insert(to);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the file at {@code index} of {@link #files} and at
+     * {@code position} of {@link #items}, and its category header if it was
+     * the last file of the category. Returns the position of the removed
+     * header, or -1 if none was removed.
+     */
+    private int remove(int index, int category, int position) {
+        files.remove(index);
+        items.remove(position);
+        if (headers == null || --categories.get(category).count > 0) {
+            return -1;
+        }
+        categories.remove(category);
+        items.remove(position - 1);
+        return position - 1;
+    }
+
+    /**
+     * Returns the index in {@link #categories} that a file to be inserted
+     * at {@code index} of {@link #files} goes into, the category will be
+     * created by {@link #insert} if it doesn't exist. Returns 0 if the sort
+     * has no categories, or -1 if the file's category would not be
+     * contiguous.
+     */
+    private int categoryForInsert(FileInfo file, int index) {
+        if (headers == null) {
+            return 0;
+        }
+        int category = indexOfCategory(headers.apply(file));
+        if (category != -1) {
+            int start = startOfCategory(category);
+            int end = start + categories.get(category).count;
+            return index >= start && index <= end ? category : -1;
+        }
+        if (index == 0) {
+            return 0;
+        }
+        int previous = indexOfCategory(headers.apply(files.get(index - 1)));
+        int end = startOfCategory(previous) + categories.get(previous).count;
+        return index == end ? previous + 1 : -1;
+    }
+
+    /**
+     * Inserts the file at {@code index} of {@link #files} and at
+     * {@code position} of {@link #items}, creating its category if needed.
+     * Returns the position of the inserted header, or -1 if none was
+     * inserted.
+     */
+    private int insert(
+        FileInfo file,
+        int index,
+        int category,
+        int position
+    ) {
+        files.add(index, file);
+        if (headers == null) {
+            items.add(position, file);
+            return -1;
+        }
+        Header header = headers.apply(file);
+        int insertedHeader = -1;
+        if (category < categories.size()
+            && categories.get(category).header.equals(header)) {
+            categories.get(category).count++;
+        } else {
+            categories.add(category, new Category(header));
+            insertedHeader = position - 1;
+            items.add(insertedHeader, header);
+        }
+        items.add(position, file);
+        return insertedHeader;
+    }
+
+    private int indexOfCategory(Header header) {
+        for (int i = 0; i < categories.size(); i++) {
+            if (categories.get(i).header.equals(header)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index in {@link #files} of the first file of the
+     * category.
+     */
+    private int startOfCategory(int category) {
+        int start = 0;
+        for (int i = 0; i < category; i++) {
+            start += categories.get(i).count;
+        }
+        return start;
+    }
+
+    /**
+     * Returns true if the index has been built for the given settings.
+     */
+    synchronized boolean isCurrent(FileSort sort, boolean showHidden) {
+        return comparator != null
+            && this.sort == sort
+            && this.showHidden == showHidden;
+    }
+
+    private boolean isVisible(FileInfo file) {
+        return showHidden || !isHidden(file);
+    }
+
+    /**
+     * Returns the files in order, with category headers inserted. The same
+     * list is returned until the index is changed.
+     */
+    synchronized List<Object> items() {
+        if (dirty) {
+            snapshot = unmodifiableList(new ArrayList<>(items));
+            changes = pendingChanges;
+            pendingChanges = new ListChanges(snapshot);
+            dirty = false;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the changes from the list returned by {@link #items()} before
+     * the current one, to the current one, or null if the index has been
+     * rebuilt in between.
+     */
+    @Nullable
+    synchronized ListChanges changes() {
+        return changes;
+    }
+
+    /**
+     * Returns the current items as a result, with the changes from the
+     * previous result.
+     */
+    synchronized Result result() {
+        return Result.of(items(), changes);
+    }
+
+    synchronized Result partialResult() {
+        return Result.partial(items(), changes);
+    }
+
+    static boolean isHidden(FileInfo file) {
+        try {
+            return Files.isHidden(file.selfPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static final class Category {
+        final Header header;
+
+        /**
+         * The number of files in the category, never 0.
+         */
+        int count = 1;
+
+        Category(Header header) {
+            this.header = header;
+        }
+    }
+
+}
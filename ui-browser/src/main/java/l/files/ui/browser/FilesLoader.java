@@ -7,27 +7,29 @@ import android.os.OperationCanceledException;
 import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.loader.content.AsyncTaskLoader;
-import l.files.fs.event.BatchObserver;
-import l.files.fs.event.BatchObserverNotifier;
 import l.files.ui.base.fs.FileInfo;
+import l.files.ui.base.widget.ListChanges;
 import l.files.ui.browser.sort.FileSort;
 
-import java.io.Closeable;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.WatchEvent;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.text.Collator;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -36,67 +38,70 @@ import java.util.stream.Stream;
 import static android.os.Looper.getMainLooper;
 import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
 import static android.os.Process.setThreadPriority;
+import static java.lang.Math.max;
+import static java.lang.Runtime.getRuntime;
+import static java.lang.System.nanoTime;
 import static java.lang.Thread.currentThread;
 import static java.nio.file.Files.*;
-import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 import static java.util.Collections.*;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static l.files.base.io.ForegroundIoKt.notifyForegroundIo;
 
 final class FilesLoader extends AsyncTaskLoader<FilesLoader.Result> {
 
-    static final int BATCH_UPDATE_MILLIS = 1000;
+    /**
+     * When loading progressively, the interval between delivering partial
+     * results, kept short so the first screen of files shows up quickly
+     * even for very large directories.
+     */
+    static final int PARTIAL_RESULT_MILLIS = 100;
 
     private static final Handler handler = new Handler(getMainLooper());
 
-    private final ConcurrentMap<Path, FileInfo> data;
-    private final Path root;
+    /**
+     * Number of children to stat sequentially in a single task before
+     * splitting the work further.
+     */
+    private static final int STAT_BATCH_SIZE = 64;
 
-    private final Collator collator;
+    /**
+     * Shared by all loaders so the number of concurrent stat calls stays
+     * bounded regardless of how many directories are being loaded.
+     */
+    private static final ForkJoinPool statPool = new ForkJoinPool(
+        getRuntime().availableProcessors(),
+        pool -> new ForkJoinWorkerThread(pool) {
+            @Override
+            protected void onStart() {
+                super.onStart();
+                setName("FilesLoader-stat-" + getPoolIndex());
+                setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+            }
+        },
+        null,
+        false
+    );
+
+    private final ListingCache listingCache;
+    private final Path root;
 
     private final Supplier<FileSort> sort;
     private final BooleanSupplier showHidden;
-
-    private volatile boolean observing;
+    private final boolean progressive;
 
     @Nullable
-    private volatile Closeable observation;
+    private volatile DirectoryListing listing;
 
     @Nullable
     private volatile Thread loadInBackgroundThread;
 
-    @Nullable
-    private volatile Result cachedResult;
-
-    private final ExecutorService executor;
-
-    private final BatchObserver listener = childFileNames -> {
-        if (!childFileNames.isEmpty()) {
-            updateAll(childFileNames, false);
+    private final Consumer<Result> listener = result -> handler.post(() -> {
+        if (!isReset()) {
+            deliverResult(result);
         }
-    };
-
-    private void updateAll(
-        Map<Path, ? extends WatchEvent.Kind<?>> changedChildFileNames,
-        boolean forceReload
-    ) {
-        executor.execute(() -> {
-            setThreadPriority(THREAD_PRIORITY_BACKGROUND);
-
-            boolean changed = false;
-            for (Entry<Path, ? extends WatchEvent.Kind<?>> entry :
-                changedChildFileNames.entrySet()) {
-                changed |= update(entry.getKey(), entry.getValue());
-            }
-
-            if (changed || forceReload) {
-                Result result = buildResult();
-                handler.post(() -> deliverResult(result));
-            }
-        });
-    }
+    });
 
     private volatile int approximateChildTotal;
 
@@ -104,16 +109,18 @@ final class FilesLoader extends AsyncTaskLoader<FilesLoader.Result> {
         Context context,
         Path root,
         Supplier<FileSort> sort,
-        BooleanSupplier showHidden
+        BooleanSupplier showHidden,
+        boolean progressive
     ) {
         super(context);
 
         this.root = requireNonNull(root, "root");
         this.sort = requireNonNull(sort, "sort");
         this.showHidden = showHidden;
-        this.data = new ConcurrentHashMap<>();
-        this.executor = newSingleThreadExecutor();
-        this.collator = Collator.getInstance();
+        this.progressive = progressive;
+        this.listingCache = new ListingCache(
+            context.getCacheDir().toPath().resolve("listings")
+        );
     }
 
     int approximateChildTotal() {
@@ -121,23 +128,38 @@ final class FilesLoader extends AsyncTaskLoader<FilesLoader.Result> {
     }
 
     int approximateChildLoaded() {
-        return data.size();
+        DirectoryListing listing = this.listing;
+        return listing != null ? listing.data.size() : 0;
     }
 
     void updateAll() {
-        updateAll(emptyMap(), true);
+        DirectoryListing listing = this.listing;
+        if (listing != null) {
+            listing.updateAll(sort.get(), showHidden.getAsBoolean());
+        }
     }
 
     @Override
     protected void onStartLoading() {
         super.onStartLoading();
-        if (data.isEmpty()) {
-            forceLoad();
+        DirectoryListing listing = this.listing;
+        if (listing == null) {
+            listing = DirectoryListing.acquire(
+                root,
+                getContext().getResources()
+            );
+            listing.addListener(listener);
+            this.listing = listing;
+        }
+
+        Result result = listing.currentResult(
+            sort.get(),
+            showHidden.getAsBoolean()
+        );
+        if (result != null) {
+            deliverResult(result);
         } else {
-            Result result = this.cachedResult;
-            if (result != null) {
-                deliverResult(result);
-            }
+            forceLoad();
         }
     }
 
@@ -154,26 +176,53 @@ final class FilesLoader extends AsyncTaskLoader<FilesLoader.Result> {
     public Result loadInBackground() {
         loadInBackgroundThread = currentThread();
 
-        if (isLoadInBackgroundCanceled()) {
+        DirectoryListing listing = this.listing;
+        if (listing == null || isLoadInBackgroundCanceled()) {
             return null;
         }
 
-        data.clear();
-
-        boolean observe = false;
-        synchronized (this) {
-            if (!observing) {
-                observing = true;
-                observe = true;
+        try {
+            listing.loadLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            throw new OperationCanceledException();
+        }
+        try {
+            // Another loader may have loaded it while waiting for the lock
+            if (listing.isLoaded()) {
+                return listing.refreshResult(
+                    sort.get(),
+                    showHidden.getAsBoolean()
+                );
             }
+            return load(listing);
+        } finally {
+            listing.loadLock.unlock();
         }
+    }
+
+    private Result load(DirectoryListing listing) {
+        ConcurrentMap<Path, FileInfo> data = listing.data;
+        data.clear();
+        notifyForegroundIo(getContext());
 
-        List<Path> childFileNames;
+        FileTime modifiedTime = readModifiedTime();
+        Map<Path, FileInfo> cached = restoreFromCache(listing, modifiedTime);
+
+        // No need to load progressively if cached listing is already shown
+        List<Path> childFileNames = new ArrayList<>();
+        ProgressiveLoad load = progressive && cached.isEmpty()
+            ? new ProgressiveLoad(listing)
+            : null;
+        Consumer<Path> collector = load != null
+            ? load::add
+            : childFileNames::add;
+        Set<Path> listed = new HashSet<>();
+        if (!cached.isEmpty()) {
+            collector = collector.andThen(listed::add);
+        }
         try {
-            if (observe) {
-                childFileNames = observe();
-            } else {
-                childFileNames = visit();
+            if (!listing.observe(collectInto(collector))) {
+                visit(collector);
             }
         } catch (IOException e) {
             // TODO fail to observe just visit
@@ -181,31 +230,83 @@ final class FilesLoader extends AsyncTaskLoader<FilesLoader.Result> {
             return Result.of(e);
         }
 
-        update(childFileNames);
-        return buildResult();
-    }
+        if (load != null) {
+            load.finish();
+        } else {
+            update(listing, childFileNames);
+        }
 
-    private List<Path> observe() throws IOException {
-        List<Path> childFileNames = new ArrayList<>();
-        observation = new BatchObserverNotifier(
+        // Remove cached children that no longer exist, unless they have
+        // been updated by a file system event since
+        for (Entry<Path, FileInfo> entry : cached.entrySet()) {
+            if (!listed.contains(entry.getKey())) {
+                data.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        checkCancel();
+        Result result = listing.onLoaded(
             listener,
-            BATCH_UPDATE_MILLIS,
-            MILLISECONDS,
-            true
-        ).start(root, collectInto(childFileNames));
-        return childFileNames;
+            sort.get(),
+            showHidden.getAsBoolean()
+        );
+        if (modifiedTime != null
+            && data.size() >= ListingCache.MIN_ENTRIES) {
+            listingCache.writeAsync(root, modifiedTime, data.values());
+        }
+        return result;
+    }
+
+    @Nullable
+    private FileTime readModifiedTime() {
+        try {
+            return getLastModifiedTime(root);
+        } catch (IOException e) {
+            return null;
+        }
     }
 
-    private List<Path> visit() throws IOException {
-        List<Path> children = new ArrayList<>();
+    /**
+     * Restores the cached listing of the directory, if one exists and is
+     * still valid for the directory's last modified time, and delivers it
+     * as a partial result while the directory is loaded again.
+     */
+    private Map<Path, FileInfo> restoreFromCache(
+        DirectoryListing listing,
+        @Nullable FileTime modifiedTime
+    ) {
+        if (modifiedTime == null) {
+            return emptyMap();
+        }
+        Map<Path, FileInfo> cached =
+            listingCache.read(root, modifiedTime, listing.collator);
+        if (!cached.isEmpty()) {
+            listing.data.putAll(cached);
+            postPartialResult(listing.buildPartialResult(
+                sort.get(),
+                showHidden.getAsBoolean()
+            ));
+        }
+        return cached;
+    }
+
+    private void postPartialResult(Result result) {
+        handler.post(() -> {
+            if (!isLoadInBackgroundCanceled()) {
+                deliverResult(result);
+            }
+        });
+    }
+
+    private void visit(Consumer<Path> collector) throws IOException {
         try (Stream<Path> stream = Files.list(root)) {
-            stream.forEach(child -> checkedAdd(children, child.getFileName()));
+            stream.forEach(child -> checkedAdd(collector, child.getFileName()));
         }
-        return children;
     }
 
-    private void checkedAdd(List<Path> childFileNames, Path childFileName) {
+    private void checkedAdd(Consumer<Path> collector, Path childFileName) {
         checkCancel();
+        notifyForegroundIo(getContext());
 
         /*
          * Okay to do this without synchronization since the writer thread
@@ -214,181 +315,224 @@ final class FilesLoader extends AsyncTaskLoader<FilesLoader.Result> {
          */
         approximateChildTotal++;
 
-        childFileNames.add(childFileName);
+        collector.accept(childFileName);
     }
 
-    private Consumer<Path> collectInto(List<Path> childFileName) {
+    private Consumer<Path> collectInto(Consumer<Path> collector) {
         return child -> {
             Path name = child.getFileName();
             assert name != null;
-            checkedAdd(childFileName, name);
+            checkedAdd(collector, name);
         };
     }
 
-    private void update(List<Path> childFileNames) {
-        for (Path child : childFileNames) {
-            checkCancel();
-            update(child, null);
-        }
+    private void update(DirectoryListing listing, List<Path> childFileNames) {
+        statPool.invoke(new StatTask(
+            listing,
+            childFileNames,
+            0,
+            childFileNames.size(),
+            null
+        ));
     }
 
-    private void checkCancel() {
-        if (isLoadInBackgroundCanceled()) {
-            throw new OperationCanceledException();
+    /**
+     * Stats children in batches while they are still being listed, and
+     * periodically delivers a partial result of what has been loaded so far.
+     * Each partial result is built by sorting only the newly loaded files
+     * and merging them into the previous result. Apart from the queue of
+     * loaded names, this is confined to the loader thread.
+     */
+    private final class ProgressiveLoad {
+
+        private final DirectoryListing listing;
+        private final Queue<Path> loaded = new ConcurrentLinkedQueue<>();
+        private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        private List<Path> batch = new ArrayList<>(STAT_BATCH_SIZE);
+
+        private List<FileInfo> files = emptyList();
+
+        @Nullable
+        private FileSort filesSort;
+
+        private long lastDeliveryNanos = nanoTime();
+
+        ProgressiveLoad(DirectoryListing listing) {
+            this.listing = listing;
         }
-    }
 
-    private Result buildResult() {
-        List<FileInfo> files = new ArrayList<>(data.size());
-        if (showHidden.getAsBoolean()) {
-            files.addAll(data.values());
-        } else {
-            for (FileInfo item : data.values()) {
-                try {
-                    if (!isHidden(item.selfPath())) {
-                        files.add(item);
-                    }
-                } catch (IOException e) {
-                    files.add(item);
-                }
+        void add(Path childFileName) {
+            batch.add(childFileName);
+            if (batch.size() >= STAT_BATCH_SIZE) {
+                submitBatch();
             }
+            deliverIfDue();
         }
-        Resources res = getContext().getResources();
-        List<Object> sorted = sort.get().sort(files, res);
-        Result result = Result.of(unmodifiableList(sorted));
-        cachedResult = result;
-        return result;
-    }
-
-    @Override
-    protected void onReset() {
-        super.onReset();
-        cancelLoad();
 
-        Closeable closeable = null;
-        synchronized (this) {
-            if (observing) {
-                closeable = observation;
-                observation = null;
-                observing = false;
+        private void submitBatch() {
+            if (!batch.isEmpty()) {
+                tasks.add(statPool.submit(
+                    new StatTask(listing, batch, 0, batch.size(), loaded)
+                ));
+                batch = new ArrayList<>(STAT_BATCH_SIZE);
             }
         }
 
-        if (closeable != null) {
-            executor.shutdownNow();
-            try {
-                closeable.close();
-            } catch (IOException e) {
-                Log.w(getClass().getSimpleName(),
-                    "Failed to close on reset " + root, e
-                );
+        void finish() {
+            submitBatch();
+            for (ForkJoinTask<?> task : tasks) {
+                await(task);
             }
         }
 
-        data.clear();
-        cachedResult = null;
-    }
+        private void await(ForkJoinTask<?> task) {
+            while (true) {
+                long elapsed = nanoTime() - lastDeliveryNanos;
+                long timeout = MILLISECONDS.toNanos(PARTIAL_RESULT_MILLIS)
+                    - elapsed;
+                try {
+                    task.get(max(timeout, 0), NANOSECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    deliverIfDue();
+                } catch (InterruptedException e) {
+                    throw new OperationCanceledException();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
 
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
+        private void deliverIfDue() {
+            long now = nanoTime();
+            if (now - lastDeliveryNanos <
+                MILLISECONDS.toNanos(PARTIAL_RESULT_MILLIS)) {
+                return;
+            }
+            lastDeliveryNanos = now;
+
+            boolean includeHidden = showHidden.getAsBoolean();
+            List<FileInfo> added = new ArrayList<>();
+            Path childFileName;
+            while ((childFileName = loaded.poll()) != null) {
+                FileInfo file = listing.data.get(childFileName);
+                if (file != null
+                    && (includeHidden || !FilesIndex.isHidden(file))) {
+                    added.add(file);
+                }
+            }
 
-        Closeable closeable = null;
-        synchronized (this) {
-            if (observing) {
-                closeable = observation;
+            FileSort sort = FilesLoader.this.sort.get();
+            if (sort != filesSort) {
+                // Sort changed half way, previous files need to be resorted
+                added.addAll(files);
+                files = emptyList();
+                filesSort = sort;
             }
-        }
-        if (closeable != null) {
-            executor.shutdownNow();
-            closeable.close();
+            if (added.isEmpty()) {
+                return;
+            }
+
+            files = sort.merge(files, added);
+            Resources res = getContext().getResources();
+            postPartialResult(Result.partial(
+                unmodifiableList(sort.categorize(files, res)),
+                null
+            ));
         }
     }
 
     /**
-     * Adds the new status of the given path to the data map. Returns true if
-     * the data map is changed.
+     * Stats a range of children, splitting the range in half until it is
+     * small enough to be done sequentially. Results are merged directly into
+     * the listing's data which is safe for concurrent updates.
      */
+    private final class StatTask extends RecursiveAction {
 
-    private boolean update(
-        Path childFileName,
-        @Nullable WatchEvent.Kind<?> kind
-    ) {
-        Path path = root.resolve(childFileName);
+        private final DirectoryListing listing;
+        private final List<Path> childFileNames;
+        private final int start;
+        private final int end;
 
-        /*
-         * This if statement may seem unnecessary given the try-catch below
-         * will remove the entry if FileNotFoundException occur anyway, but
-         * this if statement is important for some case-insensitive file
-         * systems.
-         *
-         * For example:
-         *
-         *  file "a" gets renamed to file "A"
-         *
-         * 2 events will be generated:
-         *
-         *   "a" -> DELETE
-         *   "A" -> CREATE
-         *
-         * if this check is skipped, then:
-         *
-         *   stat("a") -> will succeed as path is case-insensitive
-         *   stat("A") -> will succeed
-         *
-         * resulting both "a" and "A" be displayed.
+        /**
+         * If not null, names of children will be added to this after they
+         * have been stat'ed.
          */
-        if (ENTRY_DELETE.equals(kind)) {
-            return data.remove(path.getFileName()) != null;
+        @Nullable
+        private final Queue<Path> loaded;
+
+        StatTask(
+            DirectoryListing listing,
+            List<Path> childFileNames,
+            int start,
+            int end,
+            @Nullable Queue<Path> loaded
+        ) {
+            this.listing = listing;
+            this.childFileNames = childFileNames;
+            this.start = start;
+            this.end = end;
+            this.loaded = loaded;
         }
 
-        try {
-
-            BasicFileAttributes attrs =
-                readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS);
-            BasicFileAttributes targetAttrs = readTargetStatus(path, attrs);
-            Path target = readTarget(path, attrs);
-            FileInfo newStat =
-                FileInfo.create(path, attrs, target, targetAttrs, collator);
-            FileInfo oldStat = data.put(path.getFileName(), newStat);
-            return !newStat.equals(oldStat);
-
-        } catch (FileNotFoundException | NoSuchFileException e) {
-            return data.remove(path.getFileName()) != null;
-
-        } catch (IOException e) {
-            data.put(
-                path.getFileName(),
-                FileInfo.create(path, null, null, null, collator)
-            );
-            return true;
+        @Override
+        protected void compute() {
+            checkCancel();
+            if (end - start <= STAT_BATCH_SIZE) {
+                for (int i = start; i < end; i++) {
+                    checkCancel();
+                    Path childFileName = childFileNames.get(i);
+                    listing.update(childFileName, null);
+                    if (loaded != null) {
+                        loaded.add(childFileName);
+                    }
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(
+                    new StatTask(listing, childFileNames, start, mid, loaded),
+                    new StatTask(listing, childFileNames, mid, end, loaded)
+                );
+            }
         }
     }
 
-    private Path readTarget(Path path, BasicFileAttributes attrs)
-        throws IOException {
-        if (attrs.isSymbolicLink()) {
-            try {
-                return readSymbolicLink(path);
-            } catch (FileNotFoundException | NoSuchFileException e) {
-                throw e;
-            } catch (IOException ignored) {
-            }
+    private void checkCancel() {
+        if (isLoadInBackgroundCanceled()) {
+            throw new OperationCanceledException();
         }
-        return null;
     }
 
-    private BasicFileAttributes readTargetStatus(
-        Path file,
-        BasicFileAttributes attrs
-    ) {
-        if (attrs.isSymbolicLink()) {
-            try {
-                return readAttributes(file, BasicFileAttributes.class);
-            } catch (IOException ignored) {
-            }
+    @Override
+    protected void onReset() {
+        super.onReset();
+        cancelLoad();
+        release();
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        super.finalize();
+        release();
+    }
+
+    private void release() {
+        DirectoryListing listing;
+        synchronized (this) {
+            listing = this.listing;
+            this.listing = null;
+        }
+        if (listing != null) {
+            listing.removeListener(listener);
+            listing.release();
         }
-        return attrs;
     }
 
     static final class Result {
@@ -398,26 +542,62 @@ final class FilesLoader extends AsyncTaskLoader<FilesLoader.Result> {
         @Nullable
         private final IOException exception;
 
-        private Result(List<Object> items, @Nullable IOException exception) {
+        private final boolean complete;
+
+        @Nullable
+        private final ListChanges changes;
+
+        private Result(
+            List<Object> items,
+            @Nullable IOException exception,
+            boolean complete,
+            @Nullable ListChanges changes
+        ) {
             this.items = items;
             this.exception = exception;
+            this.complete = complete;
+            this.changes = changes;
         }
 
         List<Object> items() {
             return items;
         }
 
+        /**
+         * The changes that turn the items of the previous result of the
+         * same listing into the items of this, or null if not known.
+         */
+        @Nullable
+        ListChanges changes() {
+            return changes;
+        }
+
+        /**
+         * False if this is a partial result delivered while the directory
+         * is still being loaded.
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
         @Nullable
         IOException exception() {
             return exception;
         }
 
-        private static Result of(IOException exception) {
-            return new Result(emptyList(), exception);
+        static Result of(IOException exception) {
+            return new Result(emptyList(), exception, true, null);
+        }
+
+        static Result of(List<Object> result, @Nullable ListChanges changes) {
+            return new Result(result, null, true, changes);
         }
 
-        private static Result of(List<Object> result) {
-            return new Result(result, null);
+        static Result partial(
+            List<Object> result,
+            @Nullable ListChanges changes
+        ) {
+            return new Result(result, null, false, changes);
         }
     }
 
@@ -0,0 +1,355 @@
+package l.files.ui.browser;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+import l.files.ui.base.fs.FileInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.text.Collator;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.nio.file.Files.*;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.emptyMap;
+import static java.util.Comparator.comparing;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Persists the listings of large directories, so reopening one can show its
+ * previous listing immediately while it is being loaded again. A listing is
+ * only used if the last modified time of its directory is unchanged since
+ * it was saved, and only the most recently used listings are kept.
+ */
+final class ListingCache {
+
+    /**
+     * Directories smaller than this load fast enough without a cache.
+     */
+    static final int MIN_ENTRIES = 500;
+
+    private static final int MAX_LISTINGS = 32;
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_SELF_ATTRS = 1;
+    private static final int FLAG_TARGET_PATH = 1 << 1;
+    private static final int FLAG_TARGET_ATTRS = 1 << 2;
+
+    private static final int TYPE_OTHER = 0;
+    private static final int TYPE_REGULAR_FILE = 1;
+    private static final int TYPE_DIRECTORY = 2;
+    private static final int TYPE_SYMBOLIC_LINK = 3;
+
+    private static final ExecutorService writer = newSingleThreadExecutor(
+        runnable -> new Thread(runnable, "ListingCache")
+    );
+
+    private final Path cacheDir;
+
+    ListingCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    private Path cacheFile(Path dir) {
+        String name = Integer.toHexString(dir.toString().hashCode());
+        return cacheDir.resolve(name);
+    }
+
+    /**
+     * Returns the cached files of {@code dir} by their file names, or an
+     * empty map if there isn't a valid listing for {@code dirModifiedTime}.
+     */
+    Map<Path, FileInfo> read(
+        Path dir,
+        FileTime dirModifiedTime,
+        Collator collator
+    ) {
+        Path file = cacheFile(dir);
+        try (DataInputStream in =
+                 new DataInputStream(
+                     new BufferedInputStream(newInputStream(file)))) {
+
+            if (in.readInt() != VERSION
+                || !in.readUTF().equals(dir.toString())
+                || !readTime(in).equals(dirModifiedTime)) {
+                return emptyMap();
+            }
+
+            int count = in.readInt();
+            Map<Path, FileInfo> files = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                Path path = dir.resolve(in.readUTF());
+                int flags = in.readByte();
+                BasicFileAttributes attrs =
+                    (flags & FLAG_SELF_ATTRS) != 0 ? readAttrs(in) : null;
+                Path target =
+                    (flags & FLAG_TARGET_PATH) != 0
+                        ? Paths.get(in.readUTF())
+                        : null;
+                BasicFileAttributes targetAttrs =
+                    (flags & FLAG_TARGET_ATTRS) != 0 ? readAttrs(in) : null;
+                files.put(
+                    path.getFileName(),
+                    FileInfo.create(path, attrs, target, targetAttrs, collator)
+                );
+            }
+
+            try {
+                setLastModifiedTime(
+                    file,
+                    FileTime.fromMillis(currentTimeMillis())
+                );
+            } catch (IOException ignored) {
+            }
+            return files;
+
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return emptyMap();
+        } catch (EOFException e) {
+            Log.w(getClass().getSimpleName(), "Truncated cache " + file, e);
+            return emptyMap();
+        } catch (IOException e) {
+            Log.w(getClass().getSimpleName(), "Failed to read " + file, e);
+            return emptyMap();
+        }
+    }
+
+    void writeAsync(
+        Path dir,
+        FileTime dirModifiedTime,
+        Collection<FileInfo> files
+    ) {
+        List<FileInfo> snapshot = new ArrayList<>(files);
+        writer.execute(() -> {
+            try {
+                write(dir, dirModifiedTime, snapshot);
+                trim();
+            } catch (IOException e) {
+                Log.w(getClass().getSimpleName(), "Failed to write " + dir, e);
+            }
+        });
+    }
+
+    void write(
+        Path dir,
+        FileTime dirModifiedTime,
+        Collection<FileInfo> files
+    ) throws IOException {
+        Path file = cacheFile(dir);
+        createDirectories(cacheDir);
+        Path tmp = cacheDir.resolve(file.getFileName() + "-" + nanoTime());
+        try (DataOutputStream out =
+                 new DataOutputStream(
+                     new BufferedOutputStream(newOutputStream(tmp)))) {
+
+            out.writeInt(VERSION);
+            out.writeUTF(dir.toString());
+            writeTime(out, dirModifiedTime);
+            out.writeInt(files.size());
+            for (FileInfo info : files) {
+                BasicFileAttributes attrs = info.selfAttrs();
+                Path target = info.linkTargetPath();
+                BasicFileAttributes targetAttrs = info.linkTargetOrSelfAttrs();
+                if (targetAttrs == attrs) {
+                    targetAttrs = null;
+                }
+
+                out.writeUTF(info.name());
+                out.writeByte(
+                    (attrs != null ? FLAG_SELF_ATTRS : 0)
+                        | (target != null ? FLAG_TARGET_PATH : 0)
+                        | (targetAttrs != null ? FLAG_TARGET_ATTRS : 0)
+                );
+                if (attrs != null) {
+                    writeAttrs(out, attrs);
+                }
+                if (target != null) {
+                    out.writeUTF(target.toString());
+                }
+                if (targetAttrs != null) {
+                    writeAttrs(out, targetAttrs);
+                }
+            }
+
+        } catch (Exception e) {
+            try {
+                delete(tmp);
+            } catch (IOException sup) {
+                e.addSuppressed(sup);
+            }
+            throw e;
+        }
+        move(tmp, file, REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes the least recently used listings above {@link #MAX_LISTINGS}.
+     */
+    private void trim() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = list(cacheDir)) {
+            files = stream.collect(toList());
+        }
+        if (files.size() <= MAX_LISTINGS) {
+            return;
+        }
+
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path file : files) {
+            try {
+                times.put(file, getLastModifiedTime(file));
+            } catch (IOException e) {
+                times.put(file, FileTime.fromMillis(0));
+            }
+        }
+        files.sort(comparing(times::get));
+        for (Path file : files.subList(0, files.size() - MAX_LISTINGS)) {
+            deleteIfExists(file);
+        }
+    }
+
+    private static void writeAttrs(
+        DataOutputStream out,
+        BasicFileAttributes attrs
+    ) throws IOException {
+        int type;
+        if (attrs.isSymbolicLink()) {
+            type = TYPE_SYMBOLIC_LINK;
+        } else if (attrs.isDirectory()) {
+            type = TYPE_DIRECTORY;
+        } else if (attrs.isRegularFile()) {
+            type = TYPE_REGULAR_FILE;
+        } else {
+            type = TYPE_OTHER;
+        }
+        out.writeByte(type);
+        out.writeLong(attrs.size());
+        writeTime(out, attrs.lastModifiedTime());
+    }
+
+    private static BasicFileAttributes readAttrs(DataInputStream in)
+        throws IOException {
+        int type = in.readByte();
+        long size = in.readLong();
+        FileTime modified = readTime(in);
+        return new CachedAttributes(type, size, modified);
+    }
+
+    private static void writeTime(DataOutputStream out, FileTime time)
+        throws IOException {
+        Instant instant = time.toInstant();
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+
+    private static FileTime readTime(DataInputStream in) throws IOException {
+        long second = in.readLong();
+        int nano = in.readInt();
+        return FileTime.from(Instant.ofEpochSecond(second, nano));
+    }
+
+    /**
+     * Only the attributes shown in the listing are persisted, the access and
+     * creation times are reported as the last modified time.
+     */
+    private static final class CachedAttributes
+        implements BasicFileAttributes {
+
+        private final int type;
+        private final long size;
+        private final FileTime modified;
+
+        CachedAttributes(int type, long size, FileTime modified) {
+            this.type = type;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return modified;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return modified;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return modified;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return type == TYPE_REGULAR_FILE;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return type == TYPE_DIRECTORY;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return type == TYPE_SYMBOLIC_LINK;
+        }
+
+        @Override
+        public boolean isOther() {
+            return type == TYPE_OTHER;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Nullable
+        @Override
+        public Object fileKey() {
+            return null;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CachedAttributes that = (CachedAttributes) o;
+            return type == that.type
+                && size == that.size
+                && modified.equals(that.modified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, size, modified);
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package l.files.ui.browser.sort;
 
 import android.content.res.Resources;
+import androidx.annotation.Nullable;
 import l.files.ui.base.fs.FileInfo;
+import l.files.ui.browser.Header;
 import l.files.ui.browser.R;
 
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import static java.lang.System.currentTimeMillis;
 import static java.util.Collections.unmodifiableList;
@@ -16,7 +22,7 @@ public enum FileSort {
 
     NAME(R.string.name) {
         @Override
-        Comparator<FileInfo> comparator() {
+        public Comparator<FileInfo> comparator() {
             return FileInfo::compareTo;
         }
 
@@ -34,7 +40,7 @@ public enum FileSort {
 
     MODIFIED(R.string.date_modified) {
         @Override
-        Comparator<FileInfo> comparator() {
+        public Comparator<FileInfo> comparator() {
             return new AttrsComparator() {
                 @Override
                 protected int compareNotNull(
@@ -59,7 +65,7 @@ public enum FileSort {
 
     SIZE(R.string.size) {
         @Override
-        Comparator<FileInfo> comparator() {
+        public Comparator<FileInfo> comparator() {
             return new AttrsComparator() {
                 @Override
                 protected int compareNotNull(
@@ -98,7 +104,7 @@ public enum FileSort {
         return res.getString(labelId);
     }
 
-    abstract Comparator<FileInfo> comparator();
+    public abstract Comparator<FileInfo> comparator();
 
     abstract Categorizer categorizer();
 
@@ -107,6 +113,59 @@ public enum FileSort {
         return categorizer().categorize(res, items);
     }
 
+    /**
+     * Sorts {@code items} and merges them into {@code sorted}, which must
+     * already be in the order of this sort, returning a new list of both
+     * without any categories. Cheaper than sorting everything again when
+     * {@code items} is small relative to {@code sorted}.
+     */
+    public List<FileInfo> merge(List<FileInfo> sorted, List<FileInfo> items) {
+        Comparator<FileInfo> comparator = comparator();
+        items.sort(comparator);
+
+        List<FileInfo> result = new ArrayList<>(sorted.size() + items.size());
+        int i = 0;
+        int j = 0;
+        while (i < sorted.size() && j < items.size()) {
+            if (comparator.compare(sorted.get(i), items.get(j)) <= 0) {
+                result.add(sorted.get(i++));
+            } else {
+                result.add(items.get(j++));
+            }
+        }
+        result.addAll(sorted.subList(i, sorted.size()));
+        result.addAll(items.subList(j, items.size()));
+        return result;
+    }
+
+    /**
+     * Inserts category headers into {@code sorted}, which must already be in
+     * the order of this sort.
+     */
+    public List<Object> categorize(List<FileInfo> sorted, Resources res) {
+        return categorizer().categorize(res, sorted);
+    }
+
+    /**
+     * Returns a function giving the category header of a file, for keeping
+     * a list categorized as by {@link #categorize} while files are added and
+     * removed one at a time, or null if this sort has no categories. Files
+     * of the same category are next to each other in the order of this
+     * sort, and have equal headers.
+     */
+    @Nullable
+    public Function<FileInfo, Header> headers(Resources res) {
+        Categorizer categorizer = categorizer();
+        if (categorizer == NullCategorizer.INSTANCE) {
+            return null;
+        }
+        Map<Integer, Header> headers = new HashMap<>();
+        return file -> headers.computeIfAbsent(
+            categorizer.id(file),
+            id -> new Header(categorizer.label(res, id))
+        );
+    }
+
     private static abstract class AttrsComparator
         implements Comparator<FileInfo> {
 
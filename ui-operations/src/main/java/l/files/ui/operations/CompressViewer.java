@@ -0,0 +1,45 @@
+package l.files.ui.operations;
+
+import android.content.Context;
+
+import l.files.operations.Clock;
+import l.files.operations.Metrics;
+import l.files.operations.Progress;
+import l.files.operations.TaskState;
+
+final class CompressViewer extends ProgressViewer {
+
+    CompressViewer(Clock clock) {
+        super(clock);
+    }
+
+    @Override
+    protected Progress getWork(TaskState.Running state) {
+        return state.bytes();
+    }
+
+    @Override
+    protected double getWorkPerSecond(Metrics metrics) {
+        return metrics.bytesPerSecond();
+    }
+
+    @Override
+    protected int getTitlePreparing() {
+        return R.plurals.preparing_to_compress_x_items_to_x;
+    }
+
+    @Override
+    protected int getTitleRunning() {
+        return R.plurals.compressing_x_items_to_x;
+    }
+
+    @Override
+    protected int getTitleFailed() {
+        return R.plurals.fail_to_compress;
+    }
+
+    @Override
+    public int getSmallIcon(Context context) {
+        return R.drawable.ic_storage_white_24dp;
+    }
+}
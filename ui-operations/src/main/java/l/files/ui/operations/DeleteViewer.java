@@ -3,6 +3,7 @@ package l.files.ui.operations;
 import android.content.Context;
 
 import l.files.operations.Clock;
+import l.files.operations.Metrics;
 import l.files.operations.Progress;
 import l.files.operations.TaskState;
 
@@ -17,6 +18,11 @@ final class DeleteViewer extends ProgressViewer {
         return state.items();
     }
 
+    @Override
+    protected double getWorkPerSecond(Metrics metrics) {
+        return metrics.itemsPerSecond();
+    }
+
     @Override
     protected int getTitlePreparing() {
         return R.plurals.preparing_delete_x_items_from_x;
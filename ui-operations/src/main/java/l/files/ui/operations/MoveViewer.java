@@ -3,6 +3,7 @@ package l.files.ui.operations;
 import android.content.Context;
 
 import l.files.operations.Clock;
+import l.files.operations.Metrics;
 import l.files.operations.Progress;
 import l.files.operations.TaskState;
 
@@ -19,6 +20,11 @@ final class MoveViewer extends ProgressViewer {
         return state.bytes();
     }
 
+    @Override
+    protected double getWorkPerSecond(Metrics metrics) {
+        return metrics.bytesPerSecond();
+    }
+
     @Override
     protected int getTitlePreparing() {
         return R.plurals.preparing_to_move_x_items;
@@ -25,6 +25,8 @@ class NotificationProvider private constructor(clock: Clock) :
       it[TaskKind.MOVE] = MoveViewer(clock)
       it[TaskKind.COPY] = CopyViewer(clock)
       it[TaskKind.DELETE] = DeleteViewer(clock)
+      it[TaskKind.COMPRESS] = CompressViewer(clock)
+      it[TaskKind.EXTRACT] = ExtractViewer(clock)
       unmodifiableMap(it)
     }
 
@@ -84,7 +86,7 @@ class NotificationProvider private constructor(clock: Clock) :
   ) = newIndeterminateNotification(
     context,
     state,
-    getViewer(state).getContentTitlePending(context)
+    getViewer(state).getContentTitlePending(context, state)
   )
 
   private fun newIndeterminateNotification(
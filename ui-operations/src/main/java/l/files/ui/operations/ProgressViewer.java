@@ -3,6 +3,7 @@ package l.files.ui.operations;
 import android.content.Context;
 import androidx.annotation.PluralsRes;
 import l.files.operations.Clock;
+import l.files.operations.Metrics;
 import l.files.operations.Progress;
 import l.files.operations.TaskState;
 
@@ -25,7 +26,18 @@ abstract class ProgressViewer implements TaskStateViewer {
     }
 
     @Override
-    public final String getContentTitlePending(Context context) {
+    public final String getContentTitlePending(
+        Context context,
+        TaskState.Pending state
+    ) {
+        int position = state.queuePosition();
+        if (position > 0) {
+            return context.getResources().getQuantityString(
+                R.plurals.waiting_for_x_tasks,
+                position,
+                position
+            );
+        }
         return context.getString(R.string.pending);
     }
 
@@ -87,12 +99,16 @@ abstract class ProgressViewer implements TaskStateViewer {
     }
 
     private String getTimeRemaining(Context context, TaskState.Running state) {
-        String formatted = remainingTimeFormatter.format(
-            state.time().tick(),
-            clock.tick(),
-            getWork(state).total(),
-            getWork(state).processed()
-        );
+        Progress work = getWork(state);
+        double perSecond = getWorkPerSecond(state.metrics());
+        String formatted = perSecond > 0
+            ? remainingTimeFormatter.format(work.getLeft(), perSecond)
+            : remainingTimeFormatter.format(
+                state.time().tick(),
+                clock.tick(),
+                work.total(),
+                work.processed()
+            );
         if (formatted != null) {
             return context.getString(R.string.x_countdown, formatted);
         }
@@ -106,6 +122,12 @@ abstract class ProgressViewer implements TaskStateViewer {
 
     protected abstract Progress getWork(TaskState.Running state);
 
+    /**
+     * The recent rate of the work returned by {@link #getWork}, or 0 if not
+     * known yet.
+     */
+    protected abstract double getWorkPerSecond(Metrics metrics);
+
     /**
      * Same template requirement as {@link #getTitleRunning()} but for the
      * preparing state.
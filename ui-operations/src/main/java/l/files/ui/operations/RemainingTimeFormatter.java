@@ -32,7 +32,27 @@ abstract class RemainingTimeFormatter {
 
         float timeToProcessOne = (now - startTime) / (float) processed;
         float timeRemaining = (total - processed) * timeToProcessOne;
-        String formatted = internalFormatTimeRemaining((long) timeRemaining);
+        return formatRemaining((long) timeRemaining);
+    }
+
+    /**
+     * Formats the remaining time for a task from its current rate, which
+     * follows changes in speed more closely than the average since the
+     * start.
+     *
+     * @param left      the number of work left
+     * @param perSecond the number of work being done per second
+     * @return the formatted string, or null if unable to determine
+     */
+    final String format(long left, double perSecond) {
+        if (perSecond <= 0) {
+            return null;
+        }
+        return formatRemaining((long) (left / perSecond * 1000));
+    }
+
+    private String formatRemaining(long timeRemaining) {
+        String formatted = internalFormatTimeRemaining(timeRemaining);
         if (formatted.charAt(0) == '0' && formatted.charAt(1) != ':') {
             formatted = formatted.substring(1);
         }
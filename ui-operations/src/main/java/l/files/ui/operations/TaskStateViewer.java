@@ -13,7 +13,7 @@ interface TaskStateViewer {
     int getSmallIcon(Context context);
 
     // android.app.Notification.Builder#setContentTitle(CharSequence)
-    String getContentTitlePending(Context context);
+    String getContentTitlePending(Context context, TaskState.Pending state);
 
     String getContentTitleRunning(Context context, TaskState.Running state);
 
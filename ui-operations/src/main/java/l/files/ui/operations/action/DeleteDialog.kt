@@ -5,6 +5,7 @@ import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatDialogFragment
 import androidx.appcompat.view.ActionMode
 import l.files.operations.newDeleteIntent
+import l.files.operations.startOperation
 import l.files.ui.operations.R
 import java.nio.file.Path
 
@@ -37,8 +38,7 @@ class DeleteDialog internal constructor(
   override fun getDialog() = super.getDialog() as AlertDialog
 
   private fun requestDelete(files: Collection<Path>) {
-    val context = requireContext()
-    context.startService(newDeleteIntent(context, files))
+    startOperation(requireContext()) { newDeleteIntent(it, files) }
   }
 
   private fun getConfirmMessage(size: Int): String =
@@ -7,6 +7,7 @@ import android.view.MenuItem
 import android.view.MenuItem.SHOW_AS_ACTION_NEVER
 import l.files.operations.newCopyIntent
 import l.files.operations.newMoveIntent
+import l.files.operations.startOperation
 import l.files.ui.base.app.OptionsMenuAction
 import l.files.ui.operations.action.Clipboard
 import java.nio.file.Path
@@ -32,22 +33,15 @@ class PasteMenu(
   }
 
   override fun onItemSelected(item: MenuItem) {
+    val paths = clipboard.paths()
     when (clipboard.action()) {
-      Clipboard.Action.COPY -> context.startService(
-        newCopyIntent(
-          context,
-          clipboard.paths(),
-          destination
-        )
-      )
+      Clipboard.Action.COPY -> startOperation(context) {
+        newCopyIntent(it, paths, destination)
+      }
       Clipboard.Action.CUT -> {
-        context.startService(
-          newMoveIntent(
-            context,
-            clipboard.paths(),
-            destination
-          )
-        )
+        startOperation(context) {
+          newMoveIntent(it, paths, destination)
+        }
         clipboard.clear()
       }
     }
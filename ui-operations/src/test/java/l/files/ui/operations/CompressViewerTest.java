@@ -0,0 +1,42 @@
+package l.files.ui.operations;
+
+import android.content.Context;
+
+import l.files.operations.Clock;
+import l.files.operations.Metrics;
+import l.files.operations.Progress;
+import l.files.operations.TaskState;
+
+public final class CompressViewerTest extends ProgressViewerTest {
+
+    @Override
+    protected CompressViewer create(Context context, Clock clock) {
+        return new CompressViewer(clock);
+    }
+
+    @Override
+    protected TaskState.Running setProgress(
+            TaskState.Running state, Progress progress) {
+        return state.running(state.items(), progress);
+    }
+
+    @Override
+    protected Metrics metricsWithRate(double perSecond) {
+        return Metrics.create(perSecond, 0);
+    }
+
+    @Override
+    protected int getTitlePreparing() {
+        return R.plurals.preparing_to_compress_x_items_to_x;
+    }
+
+    @Override
+    protected int getTitleRunning() {
+        return R.plurals.compressing_x_items_to_x;
+    }
+
+    @Override
+    protected int getTitleFailed() {
+        return R.plurals.fail_to_compress;
+    }
+}
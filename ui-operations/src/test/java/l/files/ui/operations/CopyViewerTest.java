@@ -3,6 +3,7 @@ package l.files.ui.operations;
 import android.content.Context;
 
 import l.files.operations.Clock;
+import l.files.operations.Metrics;
 import l.files.operations.Progress;
 import l.files.operations.TaskState;
 
@@ -19,6 +20,11 @@ public final class CopyViewerTest extends ProgressViewerTest {
         return state.running(state.items(), progress);
     }
 
+    @Override
+    protected Metrics metricsWithRate(double perSecond) {
+        return Metrics.create(perSecond, 0);
+    }
+
     @Override
     protected int getTitlePreparing() {
         return R.plurals.preparing_to_copy_x_items_to_x;
@@ -3,6 +3,7 @@ package l.files.ui.operations;
 import android.content.Context;
 
 import l.files.operations.Clock;
+import l.files.operations.Metrics;
 import l.files.operations.Progress;
 import l.files.operations.TaskState;
 
@@ -19,6 +20,11 @@ public final class DeleteViewerTest extends ProgressViewerTest {
         return state.running(progress, state.bytes());
     }
 
+    @Override
+    protected Metrics metricsWithRate(double perSecond) {
+        return Metrics.create(0, perSecond);
+    }
+
     @Override
     protected int getTitlePreparing() {
         return R.plurals.preparing_delete_x_items_from_x;
@@ -45,6 +45,12 @@ public abstract class ProgressViewerTest {
         TaskState.Running state, Progress progress
     );
 
+    /**
+     * Creates metrics with the given rate for the work measured by the
+     * viewer.
+     */
+    protected abstract Metrics metricsWithRate(double perSecond);
+
     /**
      * Returns the expected value for
      * {@link ProgressViewer#getTitlePreparing()}.
@@ -100,7 +106,17 @@ public abstract class ProgressViewerTest {
     public void getContentTitle_Pending() {
         assertEquals(
             res.getString(R.string.pending),
-            viewer.getContentTitlePending(context)
+            viewer.getContentTitlePending(context, pending)
+        );
+    }
+
+    @Test
+    public void getContentTitle_Queued() {
+        given(res.getQuantityString(R.plurals.waiting_for_x_tasks, 2, 2))
+            .willReturn("waiting");
+        assertEquals(
+            "waiting",
+            viewer.getContentTitlePending(context, pending.queued(2))
         );
     }
 
@@ -195,6 +211,25 @@ public abstract class ProgressViewerTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void getContentInfo_showTimeRemainingFromCurrentRate() {
+        TaskState.Running state = pending.running(Time.create(0, 0));
+        state = setProgress(state, Progress.create(10000, 10));
+        state = state.running(
+            state.items(),
+            state.bytes(),
+            metricsWithRate(100)
+        );
+        given(clock.tick()).willReturn(1000L);
+        String actual = viewer.getContentInfo(context, state);
+        String expected = res.getString(
+            R.string.x_countdown,
+            remainingTimeFormatter.format(9990, 100)
+        );
+        assertEquals(expected, actual);
+        assertEquals("99900", remainingTimeFormatter.format(9990, 100));
+    }
+
     @Test
     public void getContentInfo_noWorkDoneYet_showNothing() {
         TaskState.Running state = pending.running(Time.create(0, 0));
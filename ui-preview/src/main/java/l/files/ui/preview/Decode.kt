@@ -6,6 +6,7 @@ import android.os.AsyncTask
 import android.os.Process
 import android.os.Process.setThreadPriority
 import android.util.Log
+import l.files.base.io.notifyForegroundIo
 import l.files.fs.media.MediaTypes
 import l.files.thumbnail.Thumbnailer
 import l.files.ui.base.content.Contexts.isDebugBuild
@@ -44,6 +45,7 @@ class Decode internal constructor(
     if (isCancelled) {
       return null
     }
+    notifyForegroundIo(params[0])
 
     try {
       if (!checkThumbnailMemCache() &&